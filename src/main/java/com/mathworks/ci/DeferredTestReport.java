@@ -0,0 +1,189 @@
+package com.mathworks.ci;
+
+/**
+ * Copyright 2020 The MathWorks, Inc.
+ *
+ * Renders the PDF test report after MATLAB has exited, so that the result of the tests is known
+ * without waiting for the report. The test runner saves the test results to a MAT-file in a report
+ * folder next to the build specific folder. A background job then starts another MATLAB on the
+ * same node, which renders the report from the saved results, and attaches the report to the
+ * build.
+ *
+ * The jobs of a node run one at a time, at low priority on Unix, and wait for the MATLAB node
+ * limits and license pools like any other MATLAB process. A job usually runs after its build has
+ * completed, so it resolves the node again when it runs and starts MATLAB with a process cookie
+ * of its own, which keeps it out of reach of the process tree killer cleaning up after the build.
+ * The thread of a node ends once the node has no more reports to render.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Launcher.ProcStarter;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import hudson.util.StreamTaskListener;
+import jenkins.model.Jenkins;
+
+public class DeferredTestReport {
+
+    private static final Logger LOGGER = Logger.getLogger(DeferredTestReport.class.getName());
+
+    private static final String DEFERRED_PDF_RESULTS_PATH = "DeferredPDFResultsPath";
+    private static final String REPORT_FOLDER_SUFFIX = "-report";
+    private static final String RESULTS_FILE = "testResults.mat";
+    private static final String RENDERED_FILE = "testReport.pdf";
+
+    static final String REPORT_FILE = "matlabTestReport.pdf";
+    static final String LOG_FILE = "matlabTestReport.log";
+
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private static final Map<String, ExecutorService> QUEUES = new ConcurrentHashMap<>();
+
+    private DeferredTestReport() {
+
+    }
+
+    /*
+     * Returns the report folder of the given build specific folder. The report folder is kept
+     * when the build specific folder is deleted, until the report has been rendered.
+     */
+    static FilePath getFolder(FilePath runFolder) {
+        return runFolder.getParent().child(runFolder.getName() + REPORT_FOLDER_SUFFIX);
+    }
+
+    /*
+     * Returns the name-value pair argument passed to runMatlabCiTests.m, which saves the test
+     * results into the given report folder instead of rendering the report.
+     */
+    static String getInputArgs(FilePath reportFolder) throws IOException, InterruptedException {
+        reportFolder.mkdirs();
+        return "'" + DEFERRED_PDF_RESULTS_PATH + "','"
+                + new FilePath(reportFolder, RESULTS_FILE).getRemote().replaceAll("'", "''")
+                + "'";
+    }
+
+    /*
+     * Queues the rendering of the report if MATLAB saved the test results. MATLAB releases which
+     * cannot render the report later write it while the tests run, in which case only the report
+     * folder is deleted.
+     */
+    static void schedule(Run<?, ?> run, MatlabBuild build, EnvVars envVars,
+            FilePath reportFolder, TaskListener listener) throws InterruptedException {
+        try {
+            if (!new FilePath(reportFolder, RESULTS_FILE).exists()) {
+                if (reportFolder.exists()) {
+                    reportFolder.deleteRecursive();
+                }
+                return;
+            }
+            final Computer cmp = reportFolder.toComputer();
+            if (cmp == null) {
+                throw new IOException(Message.getValue("build.workspace.computer.not.found"));
+            }
+            final MatlabTestReportAction action = new MatlabTestReportAction();
+            run.addAction(action);
+            listener.getLogger().println(Message.getValue("matlab.tests.report.deferred"));
+            final String nodeName = cmp.getName();
+            final String folder = reportFolder.getRemote();
+            QUEUES.computeIfAbsent(nodeName, DeferredTestReport::createQueue)
+                    .submit(() -> render(run, build, envVars, nodeName, folder, action));
+        } catch (IOException e) {
+            listener.getLogger().println(
+                    Message.getValue("matlab.tests.report.not.scheduled") + " " + e.getMessage());
+        }
+    }
+
+    private static ExecutorService createQueue(String nodeName) {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NamingThreadFactory(
+                        new DaemonThreadFactory(), "MATLAB test report " + nodeName));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static void render(Run<?, ?> run, MatlabBuild build, EnvVars buildEnv,
+            String nodeName, String folder, MatlabTestReportAction action) {
+        boolean rendered = false;
+        FilePath reportFolder = null;
+        try (StreamTaskListener log =
+                new StreamTaskListener(new File(run.getRootDir(), LOG_FILE),
+                        StandardCharsets.UTF_8)) {
+            // The node may have reconnected since the build ran.
+            final Computer cmp = Jenkins.get().getComputer(nodeName);
+            final Node node = cmp == null ? null : cmp.getNode();
+            reportFolder = node == null ? null : node.createPath(folder);
+            if (reportFolder == null) {
+                throw new IOException(Message.getValue("build.workspace.computer.not.found"));
+            }
+            final Launcher launcher = node.createLauncher(log);
+            final EnvVars envVars = new EnvVars(buildEnv);
+            final String cookie = "matlab-test-report-" + UUID.randomUUID();
+            envVars.put("BUILD_ID", cookie);
+            envVars.put("JENKINS_NODE_COOKIE", cookie);
+
+            final FilePath renderedFile = new FilePath(reportFolder, RENDERED_FILE);
+            final String command = "load('" + quote(new FilePath(reportFolder, RESULTS_FILE))
+                    + "','results'); generatePDFReport(results,'" + quote(renderedFile) + "');";
+            final ProcStarter matlabLauncher = build.getProcessToRunMatlabCommand(reportFolder,
+                    launcher, log, envVars, command, reportFolder.getName());
+            if (launcher.isUnix()) {
+                final List<String> cmds = new ArrayList<>();
+                cmds.add("nice");
+                cmds.add("-n");
+                cmds.add("19");
+                cmds.addAll(matlabLauncher.cmds());
+                matlabLauncher.cmds(cmds);
+            }
+            final int exitCode;
+            try (MatlabAdmission.Permit permit = build.admitMatlab(reportFolder, log);
+                    MatlabLicensePools.Licenses licenses = build.acquireLicenses(null, log)) {
+                exitCode = matlabLauncher.pwd(reportFolder).join();
+            }
+            if (exitCode == 0 && renderedFile.exists()) {
+                renderedFile.copyTo(new FilePath(new File(run.getRootDir(), REPORT_FILE)));
+                rendered = true;
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to render the MATLAB test report of " + run, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            action.onFinished(rendered);
+            try {
+                if (reportFolder != null) {
+                    reportFolder.deleteRecursive();
+                }
+                run.save();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Unable to clean up the MATLAB test report of " + run, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static String quote(FilePath file) {
+        return file.getRemote().replaceAll("'", "''");
+    }
+}
@@ -0,0 +1,435 @@
+package com.mathworks.ci;
+
+/**
+ * Copyright 2020 The MathWorks, Inc.
+ *
+ * MATLAB process which keeps running when the controller restarts or loses the connection to the
+ * agent. MATLAB is started by a detached wrapper script in the build specific folder in the agent
+ * scratch folder. The wrapper writes the output of MATLAB to a log file and its exit code to a
+ * file once MATLAB exits. The step copies new output from the log to the build log until the exit
+ * code has been written, which a resumed step continues from where it left off. The position in
+ * the log is saved in the build folder after each copy, so that a resumed step does not copy
+ * output again which it copied after the Pipeline was last saved.
+ *
+ * The wrapper writes its process ID to a file, by which the step notices when the wrapper died
+ * without writing an exit code. On Windows the wrapper is started by a PowerShell script, which
+ * records the process ID.
+ *
+ * Steps with a capped log policy run MATLAB the same way, so that the complete output stays on
+ * the agent. Only the part of the log allowed by the policy is copied, and if output was left out
+ * the complete log is compressed on the agent and archived with the build. The log is written
+ * uncompressed while MATLAB runs, as it is read from while it grows, and is deleted from the agent
+ * once it has been archived.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import org.apache.commons.io.IOUtils;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Launcher.ProcStarter;
+import hudson.model.Computer;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.util.ProcessTree;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.model.Jenkins;
+import jenkins.util.BuildListenerAdapter;
+
+public class DurableMatlabProcess implements Serializable {
+
+    private static final long serialVersionUID = -2860423497137935262L;
+
+    private static final String LOG_FILE = "matlab_output.log";
+    private static final String COMPRESSED_LOG_FILE = "matlab_output.log.gz";
+    private static final String ARCHIVED_LOG_FOLDER = "matlab-output";
+    private static final String EXIT_CODE_FILE = "matlab_exitcode";
+    private static final String PID_FILE = "matlab_pid";
+    private static final String UNIX_WRAPPER = "matlab_durable.sh";
+    private static final String WINDOWS_WRAPPER = "matlab_durable.bat";
+    private static final String WINDOWS_STARTER = "matlab_durable_start.ps1";
+    private static final String STATE_FILE_PREFIX = "matlab-log-";
+
+    private static final long POLL_INTERVAL_MILLIS = 1000;
+    private static final long RECONNECT_TIMEOUT_MILLIS = 10 * 60 * 1000;
+
+    private final String nodeName;
+    private final String folder;
+    private final MatlabLogPolicy logPolicy;
+    private final String stateFile;
+    private long logOffset;
+    private long logLength;
+    private boolean truncated;
+    private transient boolean stateLoaded;
+
+    DurableMatlabProcess(Run<?, ?> run, FilePath workspace, FilePath folder,
+            MatlabLogPolicy logPolicy) throws IOException {
+        final Computer cmp = workspace.toComputer();
+        if (cmp == null) {
+            throw new IOException(Message.getValue("build.workspace.computer.not.found"));
+        }
+        this.nodeName = cmp.getName();
+        this.folder = folder.getRemote();
+        this.logPolicy = logPolicy;
+        this.stateFile =
+                new File(run.getRootDir(), STATE_FILE_PREFIX + folder.getName()).getPath();
+    }
+
+    private MatlabLogPolicy getLogPolicy() {
+        // Processes saved by earlier releases copy the whole log.
+        return this.logPolicy == null ? MatlabLogPolicy.FULL : this.logPolicy;
+    }
+
+    String getNodeName() {
+        return this.nodeName;
+    }
+
+    /*
+     * Returns the build specific folder on the agent, waiting for the agent to connect again if
+     * it is offline.
+     */
+    FilePath getFolder() throws IOException, InterruptedException {
+        final long deadline = System.currentTimeMillis() + RECONNECT_TIMEOUT_MILLIS;
+        while (true) {
+            final Computer cmp = Jenkins.get().getComputer(this.nodeName);
+            final VirtualChannel channel = cmp == null ? null : cmp.getChannel();
+            if (channel != null) {
+                return new FilePath(channel, this.folder);
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new IOException(String.format(
+                        Message.getValue("matlab.durable.agent.offline"), this.nodeName));
+            }
+            Thread.sleep(POLL_INTERVAL_MILLIS);
+        }
+    }
+
+    /*
+     * Starts the command of the given process starter detached from the agent. Returns once the
+     * wrapper script has started MATLAB.
+     */
+    void launch(Launcher launcher, ProcStarter matlabLauncher, TaskListener listener)
+            throws IOException, InterruptedException {
+        final FilePath folderPath = getFolder();
+        folderPath.mkdirs();
+        final List<String> cmds = matlabLauncher.cmds();
+        final ProcStarter wrapperLauncher;
+        if (launcher.isUnix()) {
+            final FilePath wrapper = new FilePath(folderPath, UNIX_WRAPPER);
+            wrapper.write(getUnixWrapper(cmds), "UTF-8");
+            wrapperLauncher = launcher.launch().cmds("/bin/sh", "-c",
+                    "nohup /bin/sh " + quoteUnix(wrapper.getRemote())
+                            + " > /dev/null 2>&1 < /dev/null & echo $! > "
+                            + quoteUnix(new FilePath(folderPath, PID_FILE).getRemote()));
+        } else {
+            final FilePath wrapper = new FilePath(folderPath, WINDOWS_WRAPPER);
+            wrapper.write(getWindowsWrapper(cmds), "UTF-8");
+            final FilePath starter = new FilePath(folderPath, WINDOWS_STARTER);
+            starter.write("$wrapper = Start-Process -FilePath 'cmd.exe' -ArgumentList "
+                    + quotePowerShell("/C \"" + wrapper.getRemote() + "\"")
+                    + " -WindowStyle Hidden -PassThru\r\n"
+                    + "Set-Content -Path "
+                    + quotePowerShell(new FilePath(folderPath, PID_FILE).getRemote())
+                    + " -Value $wrapper.Id -Encoding Ascii\r\n", "UTF-8");
+            wrapperLauncher = launcher.launch().cmds("powershell.exe", "-NoProfile",
+                    "-NonInteractive", "-ExecutionPolicy", "Bypass", "-File",
+                    starter.getRemote());
+        }
+        wrapperLauncher.envs(matlabLauncher.envs()).pwd(matlabLauncher.pwd()).stdout(listener)
+                .join();
+    }
+
+    /*
+     * Copies the output of MATLAB to the listener until MATLAB exits and returns its exit code.
+     * MATLAB is killed once the watchdog expires.
+     */
+    int await(TaskListener listener, MatlabWatchdog watchdog)
+            throws IOException, InterruptedException {
+        loadState();
+        try {
+            return follow(listener, watchdog);
+        } finally {
+            new File(this.stateFile).delete();
+        }
+    }
+
+    private int follow(TaskListener listener, MatlabWatchdog watchdog)
+            throws IOException, InterruptedException {
+        while (true) {
+            final FilePath folderPath = getFolder();
+            try {
+                final FilePath exitCodeFile = new FilePath(folderPath, EXIT_CODE_FILE);
+                final boolean finished = exitCodeFile.exists();
+                final FilePath logFile = new FilePath(folderPath, LOG_FILE);
+                if (copyLog(logFile, listener) > 0) {
+                    watchdog.onOutput();
+                }
+                if (finished) {
+                    copyTail(logFile, listener);
+                    return Integer.parseInt(exitCodeFile.readToString().trim());
+                }
+                if (watchdog.isExpired(listener)) {
+                    watchdog.killAll(folderPath.getChannel());
+                    copyRest(logFile, listener);
+                    return 1;
+                }
+                if (!folderPath.act(new IsRunning())) {
+                    copyRest(logFile, listener);
+                    listener.getLogger().println(Message.getValue("matlab.durable.lost"));
+                    return 1;
+                }
+            } catch (IOException e) {
+                // MATLAB keeps running while the connection to the agent is down, other errors
+                // are not expected to go away.
+                if (isConnected(folderPath)) {
+                    throw e;
+                }
+            }
+            Thread.sleep(POLL_INTERVAL_MILLIS);
+        }
+    }
+
+    private boolean isConnected(FilePath folderPath) {
+        final Computer cmp = Jenkins.get().getComputer(this.nodeName);
+        return cmp != null && cmp.getChannel() == folderPath.getChannel() && cmp.isOnline();
+    }
+
+    /*
+     * Copies new output up to the head limit of the log policy and returns the number of bytes
+     * MATLAB wrote since the last call, including output which is not copied.
+     */
+    private long copyLog(FilePath logFile, TaskListener listener)
+            throws IOException, InterruptedException {
+        if (!logFile.exists()) {
+            return 0;
+        }
+        final long length = logFile.length();
+        final long written = Math.max(0, length - this.logLength);
+        this.logLength = Math.max(length, this.logLength);
+        final long end = Math.min(this.logLength, getLogPolicy().getHeadLimit());
+        if (this.logOffset < end) {
+            try (InputStream in = logFile.readFromOffset(this.logOffset)) {
+                this.logOffset += IOUtils.copyLarge(in, listener.getLogger(), 0,
+                        end - this.logOffset);
+            }
+        }
+        if (!this.truncated && this.logLength > getLogPolicy().getHeadLimit()) {
+            this.truncated = true;
+            listener.getLogger().println();
+            listener.getLogger().println(String.format(
+                    Message.getValue(getLogPolicy().getTailLimit() > 0 ? "matlab.log.head"
+                            : "matlab.log.capped"),
+                    getLogPolicy().getLogLimit()));
+        }
+        if (written > 0) {
+            saveState();
+        }
+        return written;
+    }
+
+    /*
+     * Copies the output MATLAB wrote before it was killed or died, including the end of the output
+     * if the log policy keeps it.
+     */
+    private void copyRest(FilePath logFile, TaskListener listener)
+            throws IOException, InterruptedException {
+        copyLog(logFile, listener);
+        copyTail(logFile, listener);
+    }
+
+    /*
+     * Copies the end of the output once MATLAB has exited, if the log policy keeps it.
+     */
+    private void copyTail(FilePath logFile, TaskListener listener)
+            throws IOException, InterruptedException {
+        final long tailLimit = getLogPolicy().getTailLimit();
+        if (!this.truncated || tailLimit <= 0 || this.logOffset >= this.logLength) {
+            return;
+        }
+        final long tailStart = Math.max(this.logOffset, this.logLength - tailLimit);
+        if (tailStart > this.logOffset) {
+            listener.getLogger().println(String.format(Message.getValue("matlab.log.omitted"),
+                    tailStart - this.logOffset));
+        }
+        try (InputStream in = logFile.readFromOffset(tailStart)) {
+            IOUtils.copyLarge(in, listener.getLogger(), 0, this.logLength - tailStart);
+        }
+        this.logOffset = this.logLength;
+        saveState();
+    }
+
+    /*
+     * Saves the position in the log, which is otherwise only saved with the Pipeline.
+     */
+    private void saveState() {
+        if (this.stateFile == null) {
+            return;
+        }
+        final String state = this.logOffset + " " + this.logLength + " " + this.truncated;
+        try {
+            Files.write(new File(this.stateFile).toPath(),
+                    state.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // The position saved with the Pipeline is used instead.
+        }
+    }
+
+    /*
+     * Continues from the position saved last, if it is ahead of the position saved with the
+     * Pipeline.
+     */
+    private void loadState() {
+        if (this.stateLoaded || this.stateFile == null) {
+            return;
+        }
+        this.stateLoaded = true;
+        final File file = new File(this.stateFile);
+        if (!file.isFile()) {
+            return;
+        }
+        try {
+            final String[] state = new String(Files.readAllBytes(file.toPath()),
+                    StandardCharsets.UTF_8).trim().split(" ");
+            final long offset = Long.parseLong(state[0]);
+            if (state.length == 3 && offset > this.logOffset) {
+                this.logOffset = offset;
+                this.logLength = Math.max(this.logLength, Long.parseLong(state[1]));
+                this.truncated |= Boolean.parseBoolean(state[2]);
+            }
+        } catch (IOException | NumberFormatException e) {
+            // The position saved with the Pipeline is used instead.
+        }
+    }
+
+    /*
+     * Archives the complete output with the build if part of it was left out of the build log.
+     * The log is compressed on the agent, so only the compressed log is copied, and both are
+     * deleted from the agent afterwards.
+     */
+    void archiveLog(Run<?, ?> run, Launcher launcher, TaskListener listener)
+            throws InterruptedException {
+        if (!this.truncated) {
+            return;
+        }
+        try {
+            final FilePath folderPath = getFolder();
+            folderPath.act(new CompressLog());
+            final String artifact =
+                    ARCHIVED_LOG_FOLDER + "/" + folderPath.getName() + ".log.gz";
+            try {
+                run.pickArtifactManager().archive(folderPath, launcher,
+                        new BuildListenerAdapter(listener),
+                        Collections.singletonMap(artifact, COMPRESSED_LOG_FILE));
+            } finally {
+                new FilePath(folderPath, COMPRESSED_LOG_FILE).delete();
+            }
+            listener.getLogger().println(
+                    String.format(Message.getValue("matlab.log.archived"), artifact));
+        } catch (IOException e) {
+            listener.getLogger().println(
+                    Message.getValue("matlab.log.not.archived") + " " + e.getMessage());
+        }
+    }
+
+    private String getUnixWrapper(List<String> cmds) {
+        final String log = quoteUnix(this.folder + "/" + LOG_FILE);
+        final String exitCode = quoteUnix(this.folder + "/" + EXIT_CODE_FILE);
+        final String exitCodeTmp = quoteUnix(this.folder + "/" + EXIT_CODE_FILE + ".tmp");
+        final StringBuilder sb = new StringBuilder("#!/bin/sh\n");
+        for (String cmd : cmds) {
+            sb.append(quoteUnix(cmd)).append(' ');
+        }
+        sb.append("> ").append(log).append(" 2>&1\n");
+        sb.append("echo $? > ").append(exitCodeTmp).append('\n');
+        sb.append("mv ").append(exitCodeTmp).append(' ').append(exitCode).append('\n');
+        return sb.toString();
+    }
+
+    private String getWindowsWrapper(List<String> cmds) {
+        final String log = "\"" + this.folder + "\\" + LOG_FILE + "\"";
+        final String exitCode = "\"" + this.folder + "\\" + EXIT_CODE_FILE + "\"";
+        final String exitCodeTmp = "\"" + this.folder + "\\" + EXIT_CODE_FILE + ".tmp\"";
+        final StringBuilder sb = new StringBuilder("@echo off\r\ncall ");
+        for (String cmd : cmds) {
+            // Arguments are already quoted where needed, percent signs must be doubled in a batch
+            // file.
+            final String arg = cmd.startsWith("\"") || !cmd.contains(" ") ? cmd : "\"" + cmd + "\"";
+            sb.append(arg.replace("%", "%%")).append(' ');
+        }
+        sb.append("> ").append(log).append(" 2>&1\r\n");
+        sb.append("echo %ERRORLEVEL% > ").append(exitCodeTmp).append("\r\n");
+        sb.append("move /Y ").append(exitCodeTmp).append(' ').append(exitCode)
+                .append(" > nul\r\n");
+        return sb.toString();
+    }
+
+    private static String quoteUnix(String value) {
+        return "'" + value.replace("'", "'\\''") + "'";
+    }
+
+    private static String quotePowerShell(String value) {
+        return "'" + value.replace("'", "''") + "'";
+    }
+
+    private static int readPid(File folder) throws IOException {
+        final File pidFile = new File(folder, PID_FILE);
+        if (!pidFile.exists()) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(
+                    new String(Files.readAllBytes(pidFile.toPath()), StandardCharsets.UTF_8)
+                            .trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /*
+     * Replaces the log with its compressed copy, so that the agent never keeps both.
+     */
+    private static class CompressLog extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = -4105239688271930463L;
+
+        @Override
+        public Void invoke(File folder, VirtualChannel channel)
+                throws IOException, InterruptedException {
+            final File log = new File(folder, LOG_FILE);
+            try (OutputStream out = new GZIPOutputStream(
+                    Files.newOutputStream(new File(folder, COMPRESSED_LOG_FILE).toPath()))) {
+                Files.copy(log.toPath(), out);
+            }
+            Files.delete(log.toPath());
+            return null;
+        }
+    }
+
+    /*
+     * Whether the wrapper script is still running.
+     */
+    private static class IsRunning extends MasterToSlaveFileCallable<Boolean> {
+        private static final long serialVersionUID = 6146360585848451406L;
+
+        @Override
+        public Boolean invoke(File folder, VirtualChannel channel)
+                throws IOException, InterruptedException {
+            final int pid = readPid(folder);
+            if (pid < 0) {
+                return false;
+            }
+            // Files are checked again as MATLAB may have exited since the exit code was checked.
+            return ProcessTree.get().get(pid) != null
+                    || new File(folder, EXIT_CODE_FILE).exists();
+        }
+    }
+}
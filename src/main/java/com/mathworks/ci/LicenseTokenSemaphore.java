@@ -0,0 +1,132 @@
+package com.mathworks.ci;
+
+/**
+ * Copyright 2020 The MathWorks, Inc.
+ * 
+ * Counting semaphore of the license tokens of one pool, kept on the controller. Tokens are taken
+ * and returned with compare-and-set operations. Waiting builds queue in arrival order, and only
+ * the build at the head of the queue may take a token while others wait.
+ * 
+ */
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+public class LicenseTokenSemaphore {
+
+    private static final long PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final Map<String, LicenseTokenSemaphore> SEMAPHORES = new ConcurrentHashMap<>();
+
+    private final AtomicInteger capacity = new AtomicInteger();
+    private final AtomicInteger available = new AtomicInteger();
+    private final Queue<Thread> waiters = new ConcurrentLinkedQueue<>();
+    private final AtomicLong waits = new AtomicLong();
+    private final AtomicLong waitMillis = new AtomicLong();
+
+    private LicenseTokenSemaphore() {
+
+    }
+
+    static LicenseTokenSemaphore get(String pool) {
+        return SEMAPHORES.get(pool);
+    }
+
+    /*
+     * Returns the semaphore of the pool, with its capacity changed to the configured number of
+     * tokens. Tokens in use stay taken when the capacity shrinks, the pool is then overdrawn
+     * until enough of them are returned.
+     */
+    static LicenseTokenSemaphore forPool(String pool, int tokens) {
+        final LicenseTokenSemaphore semaphore =
+                SEMAPHORES.computeIfAbsent(pool, k -> new LicenseTokenSemaphore());
+        final int previous = semaphore.capacity.getAndSet(tokens);
+        if (previous != tokens) {
+            semaphore.available.addAndGet(tokens - previous);
+            semaphore.signal();
+        }
+        return semaphore;
+    }
+
+    /*
+     * Takes a token, waiting behind builds which asked earlier. Returns the milliseconds waited.
+     */
+    long acquire() throws InterruptedException {
+        if (this.waiters.isEmpty() && tryAcquire()) {
+            return 0;
+        }
+        final long start = System.currentTimeMillis();
+        final Thread current = Thread.currentThread();
+        this.waiters.add(current);
+        try {
+            while (this.waiters.peek() != current || !tryAcquire()) {
+                LockSupport.parkNanos(this, PARK_NANOS);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        } finally {
+            this.waiters.remove(current);
+            // The next build in the queue may take a token which is still available.
+            signal();
+        }
+        final long waited = System.currentTimeMillis() - start;
+        this.waits.incrementAndGet();
+        this.waitMillis.addAndGet(waited);
+        return waited;
+    }
+
+    /*
+     * Takes a token without waiting, overdrawing the pool if none is available.
+     */
+    void reclaim() {
+        this.available.decrementAndGet();
+    }
+
+    void release() {
+        this.available.incrementAndGet();
+        signal();
+    }
+
+    private boolean tryAcquire() {
+        while (true) {
+            final int tokens = this.available.get();
+            if (tokens <= 0) {
+                return false;
+            }
+            if (this.available.compareAndSet(tokens, tokens - 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void signal() {
+        final Thread next = this.waiters.peek();
+        if (next != null) {
+            LockSupport.unpark(next);
+        }
+    }
+
+    int getCapacity() {
+        return this.capacity.get();
+    }
+
+    int getInUse() {
+        return this.capacity.get() - this.available.get();
+    }
+
+    int getWaiting() {
+        return this.waiters.size();
+    }
+
+    long getAverageWaitSeconds() {
+        final long count = this.waits.get();
+        return count == 0 ? 0 : TimeUnit.MILLISECONDS.toSeconds(this.waitMillis.get() / count);
+    }
+}
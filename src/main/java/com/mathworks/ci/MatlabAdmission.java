@@ -0,0 +1,289 @@
+package com.mathworks.ci;
+
+/**
+ * Copyright 2020 The MathWorks, Inc.
+ *
+ * Limits the MATLAB processes started on a node as configured in its MATLAB node property. A
+ * node can cap the number of MATLAB processes running at once and require a minimum of free
+ * physical memory before another one starts. Builds wait in the order in which they asked to
+ * start MATLAB.
+ *
+ * MATLAB needs some time after starting to allocate most of its memory, so the memory required by
+ * each process admitted during the last minute is counted as used.
+ *
+ * MATLAB sessions hold a permit as long as they run. Idle sessions of the session pool on the node
+ * are shut down when a build has to wait. Changing the limits of a node applies to the permits
+ * already taken, so the limit is never exceeded. Permits are only counted in memory, durable steps
+ * resumed after a restart of the controller take theirs again.
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import hudson.FilePath;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import jenkins.model.Jenkins;
+import jenkins.security.MasterToSlaveCallable;
+
+public class MatlabAdmission {
+
+    private static final long POLL_INTERVAL_MILLIS = 5000;
+    private static final long STARTUP_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final long MEGABYTE = 1024 * 1024;
+
+    private static final Map<String, NodeGate> GATES = new ConcurrentHashMap<>();
+
+    private MatlabAdmission() {
+
+    }
+
+    /*
+     * Waits until the node of the workspace admits another MATLAB process. The returned permit
+     * must be closed once MATLAB has exited.
+     */
+    static Permit acquire(FilePath workspace, TaskListener listener)
+            throws IOException, InterruptedException {
+        final Computer cmp = workspace.toComputer();
+        final Node node = cmp == null ? null : cmp.getNode();
+        final MatlabNodeProperty property = getProperty(node);
+        if (property == null) {
+            return Permit.NONE;
+        }
+        return getGate(cmp.getName(), property).acquire(cmp.getName(), workspace.getChannel(),
+                property.getMinFreeMemory(), listener);
+    }
+
+    /*
+     * Takes the permit of a MATLAB process which kept running on the named node while the
+     * controller restarted. The process already runs, so the permit is taken without waiting,
+     * even if the node then runs more MATLAB processes than it admits until others exit.
+     */
+    static Permit reclaim(String nodeName) {
+        final Jenkins jenkins = Jenkins.get();
+        final MatlabNodeProperty property =
+                getProperty(nodeName.isEmpty() ? jenkins : jenkins.getNode(nodeName));
+        if (property == null) {
+            return Permit.NONE;
+        }
+        return getGate(nodeName, property).reclaim();
+    }
+
+    /*
+     * Returns the MATLAB node property of the node, or null if it does not limit MATLAB.
+     */
+    private static MatlabNodeProperty getProperty(Node node) {
+        final MatlabNodeProperty property =
+                node == null ? null : node.getNodeProperties().get(MatlabNodeProperty.class);
+        if (property == null || (property.getMaxMatlabProcesses() <= 0
+                && property.getMinFreeMemory() <= 0)) {
+            return null;
+        }
+        return property;
+    }
+
+    private static NodeGate getGate(String nodeName, MatlabNodeProperty property) {
+        final NodeGate gate = GATES.computeIfAbsent(nodeName, name -> new NodeGate());
+        gate.resize(property.getMaxMatlabProcesses());
+        return gate;
+    }
+
+    /*
+     * Permission to run one MATLAB process, returned when closed.
+     */
+    public static class Permit implements AutoCloseable {
+        static final Permit NONE = new Permit(null);
+
+        private final NodeGate gate;
+        private boolean closed;
+
+        private Permit(NodeGate gate) {
+            this.gate = gate;
+        }
+
+        /*
+         * Tells whether the node admits no other MATLAB process while this permit is held.
+         */
+        synchronized boolean isLastSlot() {
+            return this.gate != null && !this.closed && this.gate.admitsOneProcess();
+        }
+
+        @Override
+        public synchronized void close() {
+            if (this.gate != null && !this.closed) {
+                this.closed = true;
+                this.gate.release();
+            }
+        }
+    }
+
+    private static class NodeGate {
+        // Fair, so that builds are admitted in the order in which they arrived.
+        private final ReentrantLock line = new ReentrantLock(true);
+        private final Deque<Long> recentStarts = new ArrayDeque<>();
+        private int maxProcesses;
+        private int slotsInUse;
+        private int running;
+
+        synchronized void resize(int maxProcesses) {
+            if (this.maxProcesses != maxProcesses) {
+                this.maxProcesses = maxProcesses;
+                notifyAll();
+            }
+        }
+
+        Permit acquire(String nodeName, VirtualChannel channel, int minFreeMemory,
+                TaskListener listener) throws IOException, InterruptedException {
+            final long waitStart = System.currentTimeMillis();
+            boolean waited = false;
+            this.line.lockInterruptibly();
+            try {
+                if (!tryTakeSlot()) {
+                    waited = true;
+                    MatlabSessionPool.getInstance().shutDownIdleSessions(nodeName);
+                    takeSlot(nodeName, listener);
+                }
+                try {
+                    waited |= awaitMemory(nodeName, channel, minFreeMemory, listener);
+                } catch (IOException | InterruptedException e) {
+                    releaseSlot();
+                    throw e;
+                }
+                synchronized (this) {
+                    this.running++;
+                    this.recentStarts.addLast(System.currentTimeMillis());
+                }
+            } finally {
+                this.line.unlock();
+            }
+            if (waited) {
+                listener.getLogger().println(String.format(
+                        Message.getValue("matlab.admission.admitted"), nodeName,
+                        TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - waitStart)));
+            }
+            return new Permit(this);
+        }
+
+        synchronized boolean admitsOneProcess() {
+            return this.maxProcesses == 1;
+        }
+
+        synchronized Permit reclaim() {
+            this.slotsInUse++;
+            this.running++;
+            return new Permit(this);
+        }
+
+        private synchronized boolean tryTakeSlot() {
+            if (this.maxProcesses > 0 && this.slotsInUse >= this.maxProcesses) {
+                return false;
+            }
+            this.slotsInUse++;
+            return true;
+        }
+
+        private synchronized void takeSlot(String nodeName, TaskListener listener)
+                throws InterruptedException {
+            listener.getLogger().println(String.format(
+                    Message.getValue("matlab.admission.wait.slot"), nodeName,
+                    this.maxProcesses));
+            while (!tryTakeSlot()) {
+                wait();
+            }
+        }
+
+        private synchronized void releaseSlot() {
+            this.slotsInUse--;
+            notifyAll();
+        }
+
+        /*
+         * Waits until the node has the required free memory, unless no MATLAB started by Jenkins
+         * runs on it, in which case waiting would not free any memory.
+         */
+        private boolean awaitMemory(String nodeName, VirtualChannel channel, int minFreeMemory,
+                TaskListener listener) throws IOException, InterruptedException {
+            if (minFreeMemory <= 0 || channel == null) {
+                return false;
+            }
+            boolean waited = false;
+            while (true) {
+                final long freeMemory = channel.call(new GetFreeMemory()) / MEGABYTE;
+                final int starting;
+                synchronized (this) {
+                    if (this.running == 0) {
+                        return waited;
+                    }
+                    starting = getStartingCount();
+                }
+                if (freeMemory - (long) starting * minFreeMemory >= minFreeMemory) {
+                    return waited;
+                }
+                if (!waited) {
+                    waited = true;
+                    listener.getLogger().println(String.format(
+                            Message.getValue("matlab.admission.wait.memory"), nodeName,
+                            freeMemory, minFreeMemory));
+                    MatlabSessionPool.getInstance().shutDownIdleSessions(nodeName);
+                }
+                Thread.sleep(POLL_INTERVAL_MILLIS);
+            }
+        }
+
+        private int getStartingCount() {
+            final long startupEnd = System.currentTimeMillis() - STARTUP_MILLIS;
+            while (!this.recentStarts.isEmpty() && this.recentStarts.peekFirst() < startupEnd) {
+                this.recentStarts.removeFirst();
+            }
+            return Math.min(this.recentStarts.size(), this.running);
+        }
+
+        synchronized void release() {
+            this.running--;
+            releaseSlot();
+        }
+    }
+
+    /*
+     * Returns the physical memory available to new processes. On Linux this includes memory used
+     * by caches, which the kernel frees when needed.
+     */
+    private static class GetFreeMemory extends MasterToSlaveCallable<Long, IOException> {
+        private static final long serialVersionUID = -3050442716432924718L;
+
+        @Override
+        public Long call() throws IOException {
+            final File memInfo = new File("/proc/meminfo");
+            if (memInfo.exists()) {
+                try (BufferedReader reader =
+                        Files.newBufferedReader(memInfo.toPath(), StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (line.startsWith("MemAvailable:")) {
+                            return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                        }
+                    }
+                }
+            }
+            final OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+            if (bean instanceof com.sun.management.OperatingSystemMXBean) {
+                return ((com.sun.management.OperatingSystemMXBean) bean)
+                        .getFreePhysicalMemorySize();
+            }
+            return Long.MAX_VALUE;
+        }
+    }
+}
@@ -14,6 +14,7 @@ import hudson.FilePath;
 import hudson.Launcher;
 import hudson.Launcher.ProcStarter;
 import hudson.model.Computer;
+import hudson.model.Run;
 import hudson.model.TaskListener;
 
 public interface MatlabBuild {
@@ -27,36 +28,126 @@ public interface MatlabBuild {
      * @param listener Current build listener
      * @param envVars Environment variables of the current build
      * @param matlabCommand MATLAB command to execute on shell
+     * @param uniqueName Name of the build specific folder in the node specific tmp directory
      * @return matlabLauncher returns the process launcher to run MATLAB commands
      */
     default ProcStarter getProcessToRunMatlabCommand(FilePath workspace,
             Launcher launcher, TaskListener listener, EnvVars envVars, String matlabCommand, String uniqueName)
             throws IOException, InterruptedException {
-        // Get node specific tmp directory to copy matlab runner script
+        // Get node specific tmp directory holding the shared copy of matlab runner script
         String tmpDir = getNodeSpecificTmpFolderPath(workspace);
         FilePath targetWorkspace = new FilePath(launcher.getChannel(), tmpDir);
         ProcStarter matlabLauncher;
         if (launcher.isUnix()) {
-            final String runnerScriptName = uniqueName + "/run_matlab_command.sh";
+            // Runner .sh for linux platform is written once per node.
+            final FilePath runnerFolder = RunnerScriptCache.getFolder(targetWorkspace,
+                    MatlabBuilderConstants.SHELL_RUNNER_SCRIPT);
             matlabLauncher = launcher.launch().envs(envVars);
-            matlabLauncher.cmds(tmpDir + "/" + runnerScriptName, matlabCommand).stdout(listener);
-
-            // Copy runner .sh for linux platform in workspace.
-            copyFileInWorkspace(MatlabBuilderConstants.SHELL_RUNNER_SCRIPT, runnerScriptName,
-                    targetWorkspace);
+            matlabLauncher.cmds(runnerFolder.getRemote() + "/"
+                    + MatlabBuilderConstants.SHELL_RUNNER_SCRIPT, matlabCommand).stdout(listener);
         } else {
-            final String runnerScriptName = uniqueName + "\\run_matlab_command.bat";
+            // Runner.bat for Windows platform is written once per node.
+            final FilePath runnerFolder = RunnerScriptCache.getFolder(targetWorkspace,
+                    MatlabBuilderConstants.BAT_RUNNER_SCRIPT);
             launcher = launcher.decorateByPrefix("cmd.exe", "/C");
             matlabLauncher = launcher.launch().envs(envVars);
-            matlabLauncher.cmds(tmpDir + "\\" + runnerScriptName, "\"" + matlabCommand + "\"")
+            matlabLauncher.cmds(runnerFolder.getRemote() + "\\"
+                    + MatlabBuilderConstants.BAT_RUNNER_SCRIPT, "\"" + matlabCommand + "\"")
                     .stdout(listener);
-            // Copy runner.bat for Windows platform in workspace.
-            copyFileInWorkspace(MatlabBuilderConstants.BAT_RUNNER_SCRIPT, runnerScriptName,
-                    targetWorkspace);
         }
         return matlabLauncher;
     }
 
+    /**
+     * Returns the folder on the node which holds the MATLAB test runner files. The folder is
+     * shared by all builds on the node, so commands using the test runner need to add it to the
+     * MATLAB path first.
+     * 
+     * @param workspace Current build workspace
+     * @param launcher Current build launcher
+     * @return folder containing the test runner files
+     */
+    default FilePath getTestRunnerFolder(FilePath workspace, Launcher launcher)
+            throws IOException, InterruptedException {
+        final FilePath tmpFolder =
+                new FilePath(launcher.getChannel(), getNodeSpecificTmpFolderPath(workspace));
+        return RunnerScriptCache.getFolder(tmpFolder,
+                MatlabBuilderConstants.MATLAB_TESTS_RUNNER_RESOURCE,
+                MatlabBuilderConstants.MATLAB_TEST_EVENTS_PLUGIN_RESOURCE,
+                MatlabBuilderConstants.MATLAB_FAIL_FAST_PLUGIN_RESOURCE);
+    }
+
+    /*
+     * Prefixes the MATLAB command with a statement which adds the given folder to the MATLAB path.
+     */
+    default String addFolderToPath(FilePath folder, String matlabCommand) {
+        return "addpath('" + folder.getRemote().replaceAll("'", "''") + "'); " + matlabCommand;
+    }
+
+    /**
+     * Leases a warm MATLAB session to run the MATLAB command of this build. Returns null when
+     * session pooling is disabled or no session is available, in which case MATLAB should be
+     * launched using getProcessToRunMatlabCommand. Leased sessions must be returned with
+     * MatlabSessionPool.release once the command has run.
+     * 
+     * @param run Current build
+     * @param workspace Current build workspace
+     * @param launcher Current build launcher
+     * @param listener Current build listener
+     * @param envVars Environment variables of the current build
+     * @return session leased from the pool or null
+     */
+    default MatlabSession leaseMatlabSession(Run<?, ?> run, FilePath workspace,
+            Launcher launcher, TaskListener listener, EnvVars envVars)
+            throws IOException, InterruptedException {
+        return MatlabSessionPool.getInstance().lease(this, run, workspace, launcher, listener,
+                envVars);
+    }
+
+    /**
+     * Returns the MATLAB session started for the MATLAB of this build by the preLaunchMATLAB
+     * step, waiting for it to finish starting. Returns null when no session was started. The
+     * session must be returned with MatlabSessionPool.release once the command has run.
+     * 
+     * @param run Current build
+     * @param workspace Current build workspace
+     * @param listener Current build listener
+     * @param envVars Environment variables of the current build
+     * @return pre-launched session or null
+     */
+    default MatlabSession takePreLaunchedMatlabSession(Run<?, ?> run, FilePath workspace,
+            TaskListener listener, EnvVars envVars) throws IOException, InterruptedException {
+        return MatlabSessionPool.getInstance().takePreLaunched(run, workspace, envVars,
+                listener);
+    }
+
+    /**
+     * Waits until the node admits another MATLAB process, as limited by its MATLAB node property.
+     * Callers launching MATLAB using getProcessToRunMatlabCommand must hold the returned permit
+     * until MATLAB has exited.
+     * 
+     * @param workspace Current build workspace
+     * @param listener Current build listener
+     * @return permit to be closed once MATLAB has exited
+     */
+    default MatlabAdmission.Permit admitMatlab(FilePath workspace, TaskListener listener)
+            throws IOException, InterruptedException {
+        return MatlabAdmission.acquire(workspace, listener);
+    }
+
+    /**
+     * Takes a token of every license pool required by all builds and of the given pools. Callers
+     * must hold the returned licenses until MATLAB has exited.
+     * 
+     * @param licensePools Comma separated names of further license pools, or null
+     * @param listener Current build listener
+     * @return licenses to be closed once MATLAB has exited
+     */
+    default MatlabLicensePools.Licenses acquireLicenses(String licensePools,
+            TaskListener listener) throws IOException, InterruptedException {
+        return MatlabLicensePools.acquire(licensePools, listener);
+    }
+
     /*
      * Method to copy given file from source to target node specific workspace.
      */
@@ -84,8 +175,7 @@ public interface MatlabBuild {
         if (cmp == null) {
             throw new IOException(Message.getValue("build.workspace.computer.not.found"));
         }
-        String tmpDir = (String) cmp.getSystemProperties().get("java.io.tmpdir");
-        return tmpDir;
+        return ScratchFolderCache.getScratchFolder(cmp);
     }
 
     default String getUniqueNameForRunnerFile() {
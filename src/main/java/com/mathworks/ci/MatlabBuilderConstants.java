@@ -4,16 +4,18 @@ package com.mathworks.ci;
  */
 
 public class MatlabBuilderConstants {
-    static final double BASE_MATLAB_VERSION_RUNTESTS_SUPPORT = 8.1;
-    static final double BASE_MATLAB_VERSION_NO_APP_ICON_SUPPORT = 8.6;
-    static final double BASE_MATLAB_VERSION_BATCH_SUPPORT = 9.5;
-    static final double BASE_MATLAB_VERSION_COBERTURA_SUPPORT = 9.3;
-    static final double BASE_MATLAB_VERSION_MODELCOVERAGE_SUPPORT = 9.5;
-    static final double BASE_MATLAB_VERSION_EXPORTSTMRESULTS_SUPPORT = 9.6;
+    static final MatlabRelease BASE_MATLAB_VERSION_RUNTESTS_SUPPORT = MatlabRelease.parse("8.1");
+    static final MatlabRelease BASE_MATLAB_VERSION_NO_APP_ICON_SUPPORT = MatlabRelease.parse("8.6");
+    static final MatlabRelease BASE_MATLAB_VERSION_BATCH_SUPPORT = MatlabRelease.parse("9.5");
+    static final MatlabRelease BASE_MATLAB_VERSION_COBERTURA_SUPPORT = MatlabRelease.parse("9.3");
+    static final MatlabRelease BASE_MATLAB_VERSION_MODELCOVERAGE_SUPPORT = MatlabRelease.parse("9.5");
+    static final MatlabRelease BASE_MATLAB_VERSION_EXPORTSTMRESULTS_SUPPORT = MatlabRelease.parse("9.6");
     
     static final String MATLAB_RUNNER_TARGET_FILE = "Builder.matlab.runner.target.file.name";
-    static final String MATLAB_TESTS_RUNNER_TARGET_FILE = "runMatlabTests.m";
-    static final String MATLAB_TESTS_RUNNER_RESOURCE = "com/mathworks/ci/RunMatlabTestsBuilder/runMatlabTests.m";
+    static final String MATLAB_TESTS_RUNNER_TARGET_FILE = "runMatlabCiTests.m";
+    static final String MATLAB_TESTS_RUNNER_RESOURCE = "com/mathworks/ci/RunMatlabTestsBuilder/runMatlabCiTests.m";
+    static final String MATLAB_TEST_EVENTS_PLUGIN_RESOURCE = "com/mathworks/ci/RunMatlabTestsBuilder/TestEventsPlugin.m";
+    static final String MATLAB_FAIL_FAST_PLUGIN_RESOURCE = "com/mathworks/ci/RunMatlabTestsBuilder/FailFastPlugin.m";
     static final String MATLAB_RUNNER_RESOURCE = "com/mathworks/ci/MatlabBuilder/runMatlabTests.m";
     static final String AUTOMATIC_OPTION = "RunTestsAutomaticallyOption";
     
@@ -28,4 +30,8 @@ public class MatlabBuilderConstants {
     // Matlab Runner files 
     static final String BAT_RUNNER_SCRIPT = "run_matlab_command.bat";
     static final String SHELL_RUNNER_SCRIPT = "run_matlab_command.sh";
+
+    // MATLAB session server used by the warm session pool
+    static final String MATLAB_SESSION_SERVER_TARGET_FILE = "matlabSessionServer.m";
+    static final String MATLAB_SESSION_SERVER_RESOURCE = "com/mathworks/ci/MatlabSession/matlabSessionServer.m";
 }
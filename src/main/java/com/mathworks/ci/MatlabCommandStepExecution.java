@@ -2,15 +2,14 @@ package com.mathworks.ci;
 
 import java.io.IOException;
 import org.jenkinsci.plugins.workflow.steps.StepContext;
-import org.jenkinsci.plugins.workflow.steps.StepExecution;
 import hudson.EnvVars;
 import hudson.FilePath;
 import hudson.Launcher;
 import hudson.Launcher.ProcStarter;
-import hudson.model.Result;
+import hudson.model.Run;
 import hudson.model.TaskListener;
 
-public class MatlabCommandStepExecution extends StepExecution implements MatlabBuild {
+public class MatlabCommandStepExecution extends MatlabStepExecution {
     
     private static final long serialVersionUID = 1957239693658914450L;
     
@@ -32,7 +31,7 @@ public class MatlabCommandStepExecution extends StepExecution implements MatlabB
     }
 
     @Override
-    public boolean start() throws Exception {
+    protected int run() throws Exception {
         final Launcher launcher = getContext().get(Launcher.class);
         final FilePath workspace = getContext().get(FilePath.class);
         final TaskListener listener = getContext().get(TaskListener.class);
@@ -43,24 +42,12 @@ public class MatlabCommandStepExecution extends StepExecution implements MatlabB
         
         workspace.mkdirs();
         
-        int res = execMatlabCommand(workspace, launcher, listener, env);
-
-        getContext().setResult((res == 0) ? Result.SUCCESS : Result.FAILURE);
-        
-        getContext().onSuccess(true);
-        
-        //return false represents the asynchronous run. 
-        return false;
-    }
-
-    @Override
-    public void stop(Throwable cause) throws Exception {
-        getContext().onFailure(cause);
+        return execMatlabCommand(workspace, launcher, listener, env);
     }
     
     private synchronized int execMatlabCommand(FilePath workspace, Launcher launcher,
             TaskListener listener, EnvVars envVars) throws IOException, InterruptedException {
-        final String uniqueTmpFldrName = getUniqueNameForRunnerFile();
+        final String uniqueTmpFldrName = getRunFolderName();
         final String uniqueCommandFile =
                 "command_" + getUniqueNameForRunnerFile().replaceAll("-", "_");
         final FilePath uniqeTmpFolderPath =
@@ -71,12 +58,43 @@ public class MatlabCommandStepExecution extends StepExecution implements MatlabB
         ProcStarter matlabLauncher;
 
         try {
+            // Run the command in the session of an enclosing withMatlabSession block, else in a
+            // warm MATLAB session when one is available. Durable and time limited runs need a
+            // process of their own.
+            final MatlabSessionContext sessionContext =
+                    getContext().get(MatlabSessionContext.class);
+            final MatlabSession blockSession =
+                    sessionContext == null || needsOwnProcess() ? null
+                            : sessionContext.getSession(workspace);
+            if (blockSession != null) {
+                try (MatlabLicensePools.Licenses licenses = acquireSessionLicenses(listener)) {
+                    listener.getLogger().println(
+                            "#################### Starting command output ####################");
+                    return blockSession.run(uniqeTmpFolderPath, uniqueCommandFile, envVars,
+                            listener);
+                }
+            }
+
+            final MatlabSession session = needsOwnProcess() ? null
+                    : leaseMatlabSession(getContext().get(Run.class), workspace, launcher,
+                            listener, envVars);
+            if (session != null) {
+                try (MatlabLicensePools.Licenses licenses = acquireSessionLicenses(listener)) {
+                    listener.getLogger().println(
+                            "#################### Starting command output ####################");
+                    return session.run(uniqeTmpFolderPath, uniqueCommandFile, envVars,
+                            listener);
+                } finally {
+                    MatlabSessionPool.getInstance().release(session);
+                }
+            }
+
             matlabLauncher = getProcessToRunMatlabCommand(workspace, launcher, listener, envVars,
                     uniqueCommandFile, uniqueTmpFldrName);
             launcher.launch().pwd(uniqeTmpFolderPath).envs(envVars);
             listener.getLogger()
                     .println("#################### Starting command output ####################");
-            return matlabLauncher.pwd(uniqeTmpFolderPath).join();
+            return join(matlabLauncher.pwd(uniqeTmpFolderPath), launcher, listener);
 
         } catch (Exception e) {
             listener.getLogger().println(e.getMessage());
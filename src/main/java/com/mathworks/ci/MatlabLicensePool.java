@@ -0,0 +1,83 @@
+package com.mathworks.ci;
+
+/**
+ * Copyright 2020 The MathWorks, Inc.
+ * 
+ * Named number of licenses, such as the MATLAB or Simulink Test licenses, shared by all builds of
+ * this Jenkins. Pools required by all builds are acquired by every MATLAB step, other pools only by
+ * steps naming them.
+ * 
+ */
+
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+
+public class MatlabLicensePool extends AbstractDescribableImpl<MatlabLicensePool> {
+
+    private final String name;
+    private final int tokens;
+    private boolean requiredByAllBuilds;
+
+    @DataBoundConstructor
+    public MatlabLicensePool(String name, int tokens) {
+        this.name = Util.fixEmptyAndTrim(name);
+        this.tokens = tokens;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public int getTokens() {
+        return this.tokens;
+    }
+
+    public boolean getRequiredByAllBuilds() {
+        return this.requiredByAllBuilds;
+    }
+
+    @DataBoundSetter
+    public void setRequiredByAllBuilds(boolean requiredByAllBuilds) {
+        this.requiredByAllBuilds = requiredByAllBuilds;
+    }
+
+    /*
+     * Tokens in use and builds waiting, shown on the configuration page.
+     */
+    public String getStatus() {
+        final LicenseTokenSemaphore semaphore = LicenseTokenSemaphore.get(this.name);
+        return semaphore == null ? ""
+                : String.format(Message.getValue("matlab.license.pool.status"),
+                        semaphore.getInUse(), this.tokens, semaphore.getWaiting(),
+                        semaphore.getAverageWaitSeconds());
+    }
+
+    @Extension
+    public static class MatlabLicensePoolDescriptor extends Descriptor<MatlabLicensePool> {
+
+        @Override
+        public String getDisplayName() {
+            return Message.getValue("matlab.license.pool.display.name");
+        }
+
+        public FormValidation doCheckName(@QueryParameter String value) {
+            if (Util.fixEmptyAndTrim(value) == null) {
+                return FormValidation.error(Message.getValue("matlab.license.pool.name.empty"));
+            }
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckTokens(@QueryParameter int value) {
+            if (value < 1) {
+                return FormValidation.error(Message.getValue("matlab.license.pool.tokens.invalid"));
+            }
+            return FormValidation.ok();
+        }
+    }
+}
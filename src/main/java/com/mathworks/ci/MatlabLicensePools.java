@@ -0,0 +1,189 @@
+package com.mathworks.ci;
+
+/**
+ * Copyright 2020 The MathWorks, Inc.
+ * 
+ * Global configuration of the license pools shared by all builds. A MATLAB step takes a token of
+ * each pool it uses before MATLAB starts and returns it once MATLAB exits, so builds beyond the
+ * number of licenses wait in a queue instead of failing to check out a license.
+ * 
+ * Tokens are only counted in memory. Durable steps resumed after a restart of the controller take
+ * their tokens again, and MATLAB sessions hold tokens of the pools required by all builds for as
+ * long as they run. A command run in a session takes tokens of the further pools it names.
+ * 
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.StaplerRequest;
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.TaskListener;
+import jenkins.model.GlobalConfiguration;
+import net.sf.json.JSONObject;
+
+@Extension
+public class MatlabLicensePools extends GlobalConfiguration {
+
+    private List<MatlabLicensePool> pools = new ArrayList<>();
+
+    public MatlabLicensePools() {
+        load();
+    }
+
+    public static MatlabLicensePools get() {
+        return GlobalConfiguration.all().get(MatlabLicensePools.class);
+    }
+
+    public List<MatlabLicensePool> getPools() {
+        return Collections.unmodifiableList(this.pools);
+    }
+
+    @DataBoundSetter
+    public void setPools(List<MatlabLicensePool> pools) {
+        this.pools = pools == null ? new ArrayList<>() : new ArrayList<>(pools);
+        save();
+    }
+
+    @Override
+    public boolean configure(StaplerRequest req, JSONObject json) throws FormException {
+        // A form without pools does not submit the field.
+        setPools(null);
+        req.bindJSON(this, json);
+        return true;
+    }
+
+    /*
+     * Takes a token of every pool required by all builds and of the given comma separated pools.
+     * Pools are acquired in the order of their names, so that builds needing several pools never
+     * wait for each other in a cycle.
+     */
+    static Licenses acquire(String requestedPools, TaskListener listener)
+            throws AbortException, InterruptedException {
+        return acquire(select(requestedPools, true), listener);
+    }
+
+    /*
+     * Takes a token of the given comma separated pools only, for a command run in a MATLAB session
+     * which already holds the tokens of the pools required by all builds.
+     */
+    static Licenses acquireForSession(String requestedPools, TaskListener listener)
+            throws AbortException, InterruptedException {
+        return acquire(select(requestedPools, false), listener);
+    }
+
+    private static Licenses acquire(Map<String, MatlabLicensePool> pools, TaskListener listener)
+            throws InterruptedException {
+        final Licenses licenses = new Licenses();
+        boolean idleSessionsShutDown = false;
+        try {
+            for (MatlabLicensePool pool : pools.values()) {
+                final LicenseTokenSemaphore semaphore =
+                        LicenseTokenSemaphore.forPool(pool.getName(), pool.getTokens());
+                if (semaphore.getInUse() >= pool.getTokens() || semaphore.getWaiting() > 0) {
+                    listener.getLogger().println(String.format(
+                            Message.getValue("matlab.license.pool.wait"), pool.getName(),
+                            pool.getTokens()));
+                    // Idle MATLAB sessions hold tokens nobody is using.
+                    if (!idleSessionsShutDown) {
+                        idleSessionsShutDown = true;
+                        MatlabSessionPool.getInstance().shutDownIdleSessions();
+                    }
+                }
+                final long waited = semaphore.acquire();
+                licenses.held.add(semaphore);
+                if (waited > 0) {
+                    listener.getLogger().println(String.format(
+                            Message.getValue("matlab.license.pool.acquired"), pool.getName(),
+                            waited / 1000));
+                }
+            }
+        } catch (InterruptedException e) {
+            licenses.close();
+            throw e;
+        }
+        return licenses;
+    }
+
+    /*
+     * Takes the tokens of a MATLAB process which kept running while the controller restarted.
+     * MATLAB already holds its licenses, so the tokens are taken without waiting, even if the
+     * pool is overdrawn until other builds return theirs.
+     */
+    static Licenses reclaim(String requestedPools) throws AbortException {
+        final Licenses licenses = new Licenses();
+        for (MatlabLicensePool pool : select(requestedPools, true).values()) {
+            final LicenseTokenSemaphore semaphore =
+                    LicenseTokenSemaphore.forPool(pool.getName(), pool.getTokens());
+            semaphore.reclaim();
+            licenses.held.add(semaphore);
+        }
+        return licenses;
+    }
+
+    private static Map<String, MatlabLicensePool> select(String requestedPools,
+            boolean includeRequired) throws AbortException {
+        final MatlabLicensePools config = get();
+        final Map<String, MatlabLicensePool> selected = new TreeMap<>();
+        if (config != null && includeRequired) {
+            for (MatlabLicensePool pool : config.pools) {
+                if (pool.getRequiredByAllBuilds() && pool.getName() != null) {
+                    selected.put(pool.getName(), pool);
+                }
+            }
+        }
+        final String requested = Util.fixEmptyAndTrim(requestedPools);
+        if (requested != null) {
+            for (String name : requested.split(",")) {
+                final MatlabLicensePool pool = config == null ? null : config.find(name.trim());
+                if (pool == null) {
+                    throw new AbortException(String.format(
+                            Message.getValue("matlab.license.pool.unknown"), name.trim()));
+                }
+                selected.put(pool.getName(), pool);
+            }
+        }
+        return selected;
+    }
+
+    private MatlabLicensePool find(String name) {
+        for (MatlabLicensePool pool : this.pools) {
+            if (name.equals(pool.getName())) {
+                return pool;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * License tokens held by one MATLAB run, returned when closed.
+     */
+    public static class Licenses implements AutoCloseable {
+        private final List<LicenseTokenSemaphore> held = new ArrayList<>();
+
+        /*
+         * Tells whether any pool has no other token while these licenses are held.
+         */
+        synchronized boolean holdLastToken() {
+            for (LicenseTokenSemaphore semaphore : this.held) {
+                if (semaphore.getCapacity() <= 1) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public synchronized void close() {
+            for (LicenseTokenSemaphore semaphore : this.held) {
+                semaphore.release();
+            }
+            this.held.clear();
+        }
+    }
+}
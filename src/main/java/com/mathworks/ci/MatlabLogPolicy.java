@@ -0,0 +1,98 @@
+package com.mathworks.ci;
+
+/**
+ * Copyright 2020 The MathWorks, Inc.
+ *
+ * Limits how much output of a MATLAB step is copied to the build log. With the full policy all
+ * output is copied. With the capped policy only the output up to the log limit is copied, and
+ * with the headTail policy the first half of the limit is copied while MATLAB runs and the last
+ * half once MATLAB exits. The limit is in megabytes.
+ *
+ */
+
+import java.io.Serializable;
+import hudson.AbortException;
+import hudson.Util;
+
+public class MatlabLogPolicy implements Serializable {
+
+    private static final long serialVersionUID = 5418790042264385012L;
+
+    static final MatlabLogPolicy FULL = new MatlabLogPolicy(Mode.FULL, 0);
+
+    private static final int DEFAULT_LOG_LIMIT = 10;
+    private static final long MEGABYTE = 1024 * 1024;
+
+    private final Mode mode;
+    private final int logLimit;
+
+    private enum Mode {
+        FULL("full"), CAPPED("capped"), HEAD_TAIL("headTail");
+
+        private final String name;
+
+        Mode(String name) {
+            this.name = name;
+        }
+    }
+
+    private MatlabLogPolicy(Mode mode, int logLimit) {
+        this.mode = mode;
+        this.logLimit = logLimit;
+    }
+
+    /*
+     * Parses the policy and its limit. No policy is the full policy, and a limit of 0 the default
+     * limit.
+     */
+    static MatlabLogPolicy parse(String policy, int logLimit) throws AbortException {
+        final String name = Util.fixEmptyAndTrim(policy);
+        if (name == null) {
+            return FULL;
+        }
+        if (logLimit < 0) {
+            throw new AbortException(Message.getValue("matlab.log.policy.invalid"));
+        }
+        for (Mode mode : Mode.values()) {
+            if (mode.name.equalsIgnoreCase(name)) {
+                return mode == Mode.FULL ? FULL
+                        : new MatlabLogPolicy(mode, logLimit == 0 ? DEFAULT_LOG_LIMIT : logLimit);
+            }
+        }
+        throw new AbortException(Message.getValue("matlab.log.policy.invalid"));
+    }
+
+    /*
+     * Whether output may be left out of the build log, in which case MATLAB writes its output to
+     * a log file on the node.
+     */
+    boolean isCapped() {
+        return this.mode != Mode.FULL;
+    }
+
+    int getLogLimit() {
+        return this.logLimit;
+    }
+
+    /*
+     * Returns the number of bytes copied to the build log while MATLAB runs.
+     */
+    long getHeadLimit() {
+        switch (this.mode) {
+            case CAPPED:
+                return this.logLimit * MEGABYTE;
+            case HEAD_TAIL:
+                return this.logLimit * MEGABYTE / 2;
+            default:
+                return Long.MAX_VALUE;
+        }
+    }
+
+    /*
+     * Returns the number of bytes at the end of the output copied to the build log once MATLAB
+     * has exited.
+     */
+    long getTailLimit() {
+        return this.mode == Mode.HEAD_TAIL ? this.logLimit * MEGABYTE - getHeadLimit() : 0;
+    }
+}
@@ -0,0 +1,64 @@
+package com.mathworks.ci;
+
+/**
+ * Copyright 2020 The MathWorks, Inc.
+ * 
+ * Node property holding the MATLAB specific settings of a node.
+ * 
+ */
+
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.Node;
+import hudson.slaves.NodeProperty;
+import hudson.slaves.NodePropertyDescriptor;
+
+public class MatlabNodeProperty extends NodeProperty<Node> {
+
+    private String scratchFolder;
+    private int maxMatlabProcesses;
+    private int minFreeMemory;
+
+    @DataBoundConstructor
+    public MatlabNodeProperty() {
+
+    }
+
+    public String getScratchFolder() {
+        return this.scratchFolder;
+    }
+
+    @DataBoundSetter
+    public void setScratchFolder(String scratchFolder) {
+        this.scratchFolder = Util.fixEmptyAndTrim(scratchFolder);
+    }
+
+    public int getMaxMatlabProcesses() {
+        return this.maxMatlabProcesses;
+    }
+
+    @DataBoundSetter
+    public void setMaxMatlabProcesses(int maxMatlabProcesses) {
+        this.maxMatlabProcesses = maxMatlabProcesses;
+    }
+
+    public int getMinFreeMemory() {
+        return this.minFreeMemory;
+    }
+
+    @DataBoundSetter
+    public void setMinFreeMemory(int minFreeMemory) {
+        this.minFreeMemory = minFreeMemory;
+    }
+
+    @Extension
+    public static class MatlabNodePropertyDescriptor extends NodePropertyDescriptor {
+
+        @Override
+        public String getDisplayName() {
+            return Message.getValue("matlab.node.property.display.name");
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.mathworks.ci;
+
+/*
+ * Copyright 2020 The MathWorks, Inc.
+ * 
+ * This class represents a MATLAB version number like 9.8 as its numeric major and minor parts so
+ * that versions compare correctly, for example 9.10 is newer than 9.9.
+ */
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public final class MatlabRelease implements Comparable<MatlabRelease>, Serializable {
+
+    private static final long serialVersionUID = -6020384587337012512L;
+
+    private static final Pattern VERSION_PATTERN = Pattern.compile("^\\s*(\\d+)(?:\\.(\\d+))?");
+
+    private final int major;
+    private final int minor;
+
+    private MatlabRelease(int major, int minor) {
+        this.major = major;
+        this.minor = minor;
+    }
+
+    /*
+     * Parses version numbers of the form "9.8" or "9.8.0.1323502".
+     */
+    public static MatlabRelease parse(String version) {
+        final Matcher m = VERSION_PATTERN.matcher(version == null ? "" : version);
+        if (!m.find()) {
+            throw new IllegalArgumentException("Invalid MATLAB version: " + version);
+        }
+        final int minor = m.group(2) == null ? 0 : Integer.parseInt(m.group(2));
+        return new MatlabRelease(Integer.parseInt(m.group(1)), minor);
+    }
+
+    /*
+     * Converts a version given as number like 9.5 into a release.
+     */
+    public static MatlabRelease valueOf(double version) {
+        return parse(BigDecimal.valueOf(version).toPlainString());
+    }
+
+    public int getMajor() {
+        return this.major;
+    }
+
+    public int getMinor() {
+        return this.minor;
+    }
+
+    @Override
+    public int compareTo(MatlabRelease other) {
+        final int result = Integer.compare(this.major, other.major);
+        return result != 0 ? result : Integer.compare(this.minor, other.minor);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof MatlabRelease)) {
+            return false;
+        }
+        return compareTo((MatlabRelease) obj) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * this.major + this.minor;
+    }
+
+    @Override
+    public String toString() {
+        return this.major + "." + this.minor;
+    }
+}
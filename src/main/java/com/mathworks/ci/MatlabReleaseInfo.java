@@ -3,28 +3,39 @@ package com.mathworks.ci;
 import java.io.BufferedReader;
 
 /*
- * Copyright 2019 The MathWorks, Inc. This Class provides MATLAB release information in the form of
+ * Copyright 2019-2020 The MathWorks, Inc. This Class provides MATLAB release information in the form of
  * Version numbers. Class constructor requires MATLAB root as input parameter
+ *
+ * Parsed release information is kept in a registry shared across builds, keyed by node and
+ * MATLAB root. An entry is reused as long as the modification time and size of the version file
+ * it was read from are unchanged.
  */
 
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Serializable;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.NotDirectoryException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
-import org.apache.commons.collections.MapUtils;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.FilePath;
+import hudson.remoting.Channel;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
 
 public class MatlabReleaseInfo {
     private FilePath matlabRoot;
@@ -36,9 +47,11 @@ public class MatlabReleaseInfo {
     private static final String VERSION_TAG = "version";
     private static final String DESCRIPTION_TAG = "description";
     private static final String DATE_TAG = "date";
-    
-    private Map<String, String> versionInfoCache = new HashMap<String, String>();
-    
+
+    private static final Map<String, ReleaseEntry> REGISTRY = new ConcurrentHashMap<>();
+
+    private ReleaseEntry releaseEntry;
+
     public MatlabReleaseInfo(FilePath matlabRoot) {
         this.matlabRoot = matlabRoot;
     }
@@ -48,89 +61,165 @@ public class MatlabReleaseInfo {
         return fullVersionNumber.get(VERSION_TAG);
     }
 
-    private int getMatlabMajorVersionNumber() throws MatlabVersionNotFoundException {
-        String[] version = getFullMatlabVersionNumber().split("[.]");
-        return Integer.parseInt(version[0].trim());
+    public MatlabRelease getRelease() throws MatlabVersionNotFoundException {
+        return getReleaseEntry().release;
     }
 
-    private int getMatlabMinorVersionNumber() throws MatlabVersionNotFoundException {
-        String[] version = getFullMatlabVersionNumber().split("[.]");
-        if (version.length > 1) {
-            return Integer.parseInt(version[1].trim());
-        } else {
-            return 0;
-        }
+    public boolean verLessThan(MatlabRelease version) throws MatlabVersionNotFoundException {
+        return getRelease().compareTo(version) < 0;
     }
 
     public boolean verLessThan(double version) throws MatlabVersionNotFoundException {
-        double matlabVersion = Double
-                .parseDouble(getMatlabMajorVersionNumber() + "." + getMatlabMinorVersionNumber());
-        if (Double.compare(matlabVersion, version) < 0) {
-            return true;
-        } else {
-            return false;
-        }
+        return verLessThan(MatlabRelease.valueOf(version));
     }
-    
+
+    private Map<String, String> getVersionInfoFromFile() throws MatlabVersionNotFoundException {
+        return getReleaseEntry().versionInfo;
+    }
+
+    /*
+     * Returns the registry entry for this MATLAB root. The version file is checked once per
+     * instance, and only parsed again when it has changed since the entry was created.
+     */
     @SuppressFBWarnings(value = "REC_CATCH_EXCEPTION",
             justification = "Irrespective of exception type, intention is to handle it in same way. Also, there is no intention to propagate any runtime exception up in the hierarchy.")
-    private Map<String, String> getVersionInfoFromFile() throws MatlabVersionNotFoundException {
-        if (MapUtils.isEmpty(versionInfoCache)) {
+    private synchronized ReleaseEntry getReleaseEntry() throws MatlabVersionNotFoundException {
+        if (this.releaseEntry == null) {
             try {
-                FilePath versionFile = new FilePath(this.matlabRoot, VERSION_INFO_FILE);
-                if(versionFile.exists()) {
-                    DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-                    DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-                    Document doc = dBuilder.parse(versionFile.read());
-                    
-                    doc.getDocumentElement().normalize();
-                    NodeList nList = doc.getElementsByTagName(VERSION_INFO_ROOT_TAG);
-
-                    for (int temp = 0; temp < nList.getLength(); temp++) {
-                        Node nNode = nList.item(temp);
-                        if (nNode.getNodeType() == Node.ELEMENT_NODE) {
-
-                            Element eElement = (Element) nNode;
-
-                            versionInfoCache.put(RELEASE_TAG, eElement.getElementsByTagName(RELEASE_TAG)
-                                    .item(0).getTextContent());
-                            versionInfoCache.put(VERSION_TAG, eElement.getElementsByTagName(VERSION_TAG)
-                                    .item(0).getTextContent());
-                            versionInfoCache.put(DESCRIPTION_TAG, eElement
-                                    .getElementsByTagName(DESCRIPTION_TAG).item(0).getTextContent());
-                            versionInfoCache.put(DATE_TAG,
-                                    eElement.getElementsByTagName(DATE_TAG).item(0).getTextContent());
-                        }
-                    }
+                final String key = getRegistryKey();
+                final VersionFileStamp stamp = this.matlabRoot.act(new GetVersionFileStamp());
+                ReleaseEntry entry = REGISTRY.get(key);
+                if (entry == null || !entry.stamp.equals(stamp)) {
+                    entry = new ReleaseEntry(stamp, readVersionInfo(stamp));
+                    REGISTRY.put(key, entry);
                 }
-                else if(!this.matlabRoot.exists()){
-                    throw new NotDirectoryException("Invalid matlabroot path");
-                }else {
-					// Get the version information from Contents.m file when VersionInfo.xml is not
-					// present.
-					FilePath contentFile = new FilePath(this.matlabRoot, CONTENTS_FILE);
-					String actualVersion = null;
-					try (InputStream in = contentFile.read();
-							BufferedReader br = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
-
-						// Skip first line and capture the second line.
-						br.readLine();
-						String versionLine = br.readLine();
-
-						Pattern p = Pattern.compile(VERSION_PATTERN);
-						Matcher m = p.matcher(versionLine);
-						if (m.find()) {
-							actualVersion = m.group();
-						}
-					}
-					// Update the versionInfoCache with actual version extracted from Contents.m
-					versionInfoCache.put(VERSION_TAG, actualVersion);
-				}
+                this.releaseEntry = entry;
             } catch (Exception e) {
                 throw new MatlabVersionNotFoundException(
                         Message.getValue("Releaseinfo.matlab.version.not.found.error"), e);
-            } 
+            }
+        }
+        return this.releaseEntry;
+    }
+
+    private String getRegistryKey() {
+        final VirtualChannel channel = this.matlabRoot.getChannel();
+        final String node = channel instanceof Channel ? ((Channel) channel).getName() : "";
+        return node + "|" + this.matlabRoot.getRemote();
+    }
+
+    private Map<String, String> readVersionInfo(VersionFileStamp stamp) throws Exception {
+        final Map<String, String> versionInfo = new HashMap<String, String>();
+        if (stamp.isVersionInfoFile) {
+            FilePath versionFile = new FilePath(this.matlabRoot, VERSION_INFO_FILE);
+            DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
+            DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
+            Document doc;
+            try (InputStream in = versionFile.read()) {
+                doc = dBuilder.parse(in);
+            }
+
+            doc.getDocumentElement().normalize();
+            NodeList nList = doc.getElementsByTagName(VERSION_INFO_ROOT_TAG);
+
+            for (int temp = 0; temp < nList.getLength(); temp++) {
+                Node nNode = nList.item(temp);
+                if (nNode.getNodeType() == Node.ELEMENT_NODE) {
+
+                    Element eElement = (Element) nNode;
+
+                    versionInfo.put(RELEASE_TAG, eElement.getElementsByTagName(RELEASE_TAG)
+                            .item(0).getTextContent());
+                    versionInfo.put(VERSION_TAG, eElement.getElementsByTagName(VERSION_TAG)
+                            .item(0).getTextContent());
+                    versionInfo.put(DESCRIPTION_TAG, eElement
+                            .getElementsByTagName(DESCRIPTION_TAG).item(0).getTextContent());
+                    versionInfo.put(DATE_TAG,
+                            eElement.getElementsByTagName(DATE_TAG).item(0).getTextContent());
+                }
+            }
+        } else {
+            // Get the version information from Contents.m file when VersionInfo.xml is not
+            // present.
+            FilePath contentFile = new FilePath(this.matlabRoot, CONTENTS_FILE);
+            String actualVersion = null;
+            try (InputStream in = contentFile.read();
+                    BufferedReader br = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+
+                // Skip first line and capture the second line.
+                br.readLine();
+                String versionLine = br.readLine();
+
+                Pattern p = Pattern.compile(VERSION_PATTERN);
+                Matcher m = p.matcher(versionLine);
+                if (m.find()) {
+                    actualVersion = m.group();
+                }
+            }
+            // Update the versionInfo with actual version extracted from Contents.m
+            versionInfo.put(VERSION_TAG, actualVersion);
+        }
+        return versionInfo;
+    }
+
+    private static class ReleaseEntry {
+        private final VersionFileStamp stamp;
+        private final Map<String, String> versionInfo;
+        private final MatlabRelease release;
+
+        ReleaseEntry(VersionFileStamp stamp, Map<String, String> versionInfo) {
+            this.stamp = stamp;
+            this.versionInfo = Collections.unmodifiableMap(versionInfo);
+            this.release = MatlabRelease.parse(versionInfo.get(VERSION_TAG));
+        }
+    }
+
+    /*
+     * Identifies the file the version is read from together with its modification time and size.
+     */
+    private static class VersionFileStamp implements Serializable {
+        private static final long serialVersionUID = 2599124869186526407L;
+
+        private final boolean isVersionInfoFile;
+        private final long lastModified;
+        private final long length;
+
+        VersionFileStamp(boolean isVersionInfoFile, File file) {
+            this.isVersionInfoFile = isVersionInfoFile;
+            this.lastModified = file.lastModified();
+            this.length = file.length();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof VersionFileStamp)) {
+                return false;
+            }
+            VersionFileStamp other = (VersionFileStamp) obj;
+            return this.isVersionInfoFile == other.isVersionInfoFile
+                    && this.lastModified == other.lastModified && this.length == other.length;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(this.lastModified) * 31 + Long.hashCode(this.length);
+        }
+    }
+
+    private static class GetVersionFileStamp extends MasterToSlaveFileCallable<VersionFileStamp> {
+        private static final long serialVersionUID = -2003398745096417934L;
+
+        @Override
+        public VersionFileStamp invoke(File matlabRoot, VirtualChannel channel)
+                throws IOException, InterruptedException {
+            final File versionFile = new File(matlabRoot, VERSION_INFO_FILE);
+            if (versionFile.exists()) {
+                return new VersionFileStamp(true, versionFile);
+            }
+            if (!matlabRoot.exists()) {
+                throw new NotDirectoryException("Invalid matlabroot path");
+            }
+            return new VersionFileStamp(false, new File(matlabRoot, CONTENTS_FILE));
         }
-        return versionInfoCache;
     }
- }
\ No newline at end of file
+}
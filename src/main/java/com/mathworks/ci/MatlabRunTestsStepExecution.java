@@ -7,24 +7,68 @@ package com.mathworks.ci;
 
 import java.io.IOException;
 import org.jenkinsci.plugins.workflow.steps.StepContext;
-import org.jenkinsci.plugins.workflow.steps.StepExecution;
 import hudson.EnvVars;
 import hudson.FilePath;
 import hudson.Launcher;
 import hudson.Launcher.ProcStarter;
-import hudson.model.Result;
+import hudson.model.Run;
 import hudson.model.TaskListener;
 
-public class MatlabRunTestsStepExecution extends StepExecution implements MatlabBuild {
+public class MatlabRunTestsStepExecution extends MatlabStepExecution {
 
     private static final long serialVersionUID = 6704588180717665100L;
     
     private String command;
+    private TestShard shard;
+    private String junitResultsPath;
+    private TestImpactSelection selection;
+    private boolean reportProgress;
+    private int retryFailed;
+    private boolean useParallel;
+    private int workerCount;
+    private boolean publishTestResults;
+    private boolean convertResults;
+    private String tapResultsPath;
+    private boolean deferPdfReport;
 
 
     public MatlabRunTestsStepExecution(StepContext context, String command) {
+        this(context, command, null, null, null);
+    }
+
+    public MatlabRunTestsStepExecution(StepContext context, String command, TestShard shard,
+            String junitResultsPath, TestImpactSelection selection) {
         super(context);
         this.command = command;
+        this.shard = shard;
+        this.junitResultsPath = junitResultsPath;
+        this.selection = selection;
+    }
+
+    void setReportProgress(boolean reportProgress) {
+        this.reportProgress = reportProgress;
+    }
+
+    void setRetryFailed(int retryFailed) {
+        this.retryFailed = retryFailed;
+    }
+
+    void setUseParallel(boolean useParallel, int workerCount) {
+        this.useParallel = useParallel;
+        this.workerCount = workerCount;
+    }
+
+    void setPublishTestResults(boolean publishTestResults) {
+        this.publishTestResults = publishTestResults;
+    }
+
+    void setConvertResults(boolean convertResults, String tapResultsPath) {
+        this.convertResults = convertResults;
+        this.tapResultsPath = tapResultsPath;
+    }
+
+    void setDeferPdfReport(boolean deferPdfReport) {
+        this.deferPdfReport = deferPdfReport;
     }
 
     private String getCommand() {
@@ -32,7 +76,7 @@ public class MatlabRunTestsStepExecution extends StepExecution implements Matlab
     }
 
     @Override
-    public boolean start() throws Exception {
+    protected int run() throws Exception {
         final Launcher launcher = getContext().get(Launcher.class);
         final FilePath workspace = getContext().get(FilePath.class);
         final TaskListener listener = getContext().get(TaskListener.class);
@@ -43,38 +87,235 @@ public class MatlabRunTestsStepExecution extends StepExecution implements Matlab
         workspace.mkdirs();
         
         int res = execMatlabCommand(workspace, launcher, listener, env);
-
-        getContext().setResult((res == 0) ? Result.SUCCESS : Result.FAILURE);
-        
-        getContext().onSuccess(true);
-        
-        //return false represents the asynchronous run. 
-        return false;
+        recordDurations(workspace, env, listener);
+        return res;
     }
 
     @Override
-    public void stop(Throwable cause) throws Exception {
-        getContext().onFailure(cause);
+    protected int resume(int exitCode, FilePath runFolder, TaskListener listener)
+            throws Exception {
+        final FilePath workspace = getContext().get(FilePath.class);
+        final EnvVars env = getContext().get(EnvVars.class);
+        if (this.selection != null) {
+            this.selection.update(getContext().get(Run.class), runFolder, listener);
+        }
+        convertResults(runFolder, workspace, env, listener);
+        recordRetries(runFolder, workspace, env, listener);
+        publishResults(runFolder, workspace, env, listener);
+        if (this.deferPdfReport) {
+            DeferredTestReport.schedule(getContext().get(Run.class), this, env,
+                    DeferredTestReport.getFolder(runFolder), listener);
+        }
+        recordDurations(workspace, env, listener);
+        return exitCode;
+    }
+
+    /*
+     * Writes the TAP and JUnit reports from the results MATLAB streamed into the build specific
+     * folder.
+     */
+    private void convertResults(FilePath runFolder, FilePath workspace, EnvVars env,
+            TaskListener listener) throws InterruptedException {
+        if (this.convertResults) {
+            TestResultsConverter.convert(runFolder,
+                    this.tapResultsPath == null ? null
+                            : workspace.child(env.expand(this.tapResultsPath)),
+                    getJUnitResults(runFolder, workspace, env), listener);
+        }
+    }
+
+    /*
+     * Adds the test retries to the JUnit report and marks the step unstable if tests passed only
+     * on a retry.
+     */
+    private void recordRetries(FilePath runFolder, FilePath workspace, EnvVars env,
+            TaskListener listener) throws InterruptedException {
+        if (this.retryFailed <= 0) {
+            return;
+        }
+        if (TestRetries.record(runFolder, getJUnitResults(runFolder, workspace, env),
+                listener)) {
+            markUnstable();
+        }
+    }
+
+    /*
+     * Adds the summary of the JUnit report to the build.
+     */
+    private void publishResults(FilePath runFolder, FilePath workspace, EnvVars env,
+            TaskListener listener) throws IOException, InterruptedException {
+        if (this.publishTestResults) {
+            MatlabTestResultsAction.publish(getContext().get(Run.class),
+                    getJUnitResults(runFolder, workspace, env), listener);
+        }
+    }
+
+    /*
+     * Returns the JUnit report of the run, or null if none is written. Results published without
+     * a JUnit artifact are written into the build specific folder.
+     */
+    private FilePath getJUnitResults(FilePath runFolder, FilePath workspace, EnvVars env) {
+        if (this.junitResultsPath != null) {
+            return workspace.child(env.expand(this.junitResultsPath));
+        }
+        return this.publishTestResults
+                ? new FilePath(runFolder, MatlabTestResultsAction.JUNIT_RESULTS_FILE)
+                : null;
+    }
+
+    /*
+     * Keeps the test durations of this run for balancing later sharded runs.
+     */
+    private void recordDurations(FilePath workspace, EnvVars env, TaskListener listener)
+            throws IOException, InterruptedException {
+        if (this.junitResultsPath != null) {
+            TestDurationStore.recordResults(getContext().get(Run.class),
+                    workspace.child(env.expand(this.junitResultsPath)), listener);
+        }
+    }
+
+    /*
+     * The test command is of the form exit(runMatlabCiTests(...)). A session must not exit, so it
+     * evaluates the runMatlabCiTests call and uses its result as exit code instead.
+     */
+    private String getSessionCommand(String command) {
+        final String exitPrefix = "exit(";
+        if (command.startsWith(exitPrefix) && command.endsWith(")")) {
+            return command.substring(exitPrefix.length(), command.length() - 1);
+        }
+        return command;
+    }
+
+    /*
+     * Adds a name-value pair argument to the runMatlabCiTests call of the test command.
+     */
+    private String addInputArg(String command, String arg) {
+        final int end = command.lastIndexOf("))");
+        if (end < 0) {
+            return command;
+        }
+        final String separator = command.substring(0, end).endsWith("(") ? "" : ",";
+        return command.substring(0, end) + separator + arg + command.substring(end);
     }
 
     private synchronized int execMatlabCommand(FilePath workspace, Launcher launcher,
             TaskListener listener, EnvVars envVars) throws IOException, InterruptedException {
-        final String uniqueTmpFldrName = getUniqueNameForRunnerFile();  
+        final String uniqueTmpFldrName = getRunFolderName();
+        final FilePath uniqueTmpFolder =
+                getFilePathForUniqueFolder(launcher, uniqueTmpFldrName, workspace);
+        final Run<?, ?> run = getContext().get(Run.class);
+        TestEventStream events = null;
+        FilePath reportFolder = null;
         try {
+            String testCommand = envVars.expand(getCommand());
+
+            // Balance the shards by the durations of earlier runs when they are known.
+            if (this.shard != null) {
+                final FilePath durationsFile =
+                        TestDurationStore.writeDurations(run, uniqueTmpFolder);
+                if (durationsFile != null) {
+                    testCommand = addInputArg(testCommand, TestShard.getDurationsArg(durationsFile));
+                }
+            }
+
+            // Without a worker count the pool gets one worker per core of the node, which is
+            // asked here rather than on the CPS thread when the step starts.
+            if (this.useParallel) {
+                testCommand = addInputArg(testCommand,
+                        ParallelTestOptions.getInputArgs(launcher, this.workerCount));
+            }
+
+            // Run only the tests affected by changed files.
+            if (this.selection != null) {
+                testCommand = addInputArg(testCommand,
+                        this.selection.prepare(run, uniqueTmpFolder, listener));
+            }
+
+            // Show the progress of the tests on the build page while they run.
+            if (this.reportProgress) {
+                testCommand =
+                        addInputArg(testCommand, TestEventStream.getInputArgs(uniqueTmpFolder));
+                events = TestEventStream.follow(run, uniqueTmpFolder);
+            }
+
+            // Run failed tests again in the same session.
+            if (this.retryFailed > 0) {
+                testCommand = addInputArg(testCommand,
+                        TestRetries.getInputArgs(this.retryFailed, uniqueTmpFolder));
+            }
+
+            // Published results are read from a JUnit report.
+            if (this.publishTestResults && this.junitResultsPath == null) {
+                testCommand = addInputArg(testCommand,
+                        MatlabTestResultsAction.getInputArgs(uniqueTmpFolder));
+            }
+
+            // Let Jenkins write the TAP and JUnit reports after MATLAB has exited.
+            if (this.convertResults) {
+                testCommand = addInputArg(testCommand,
+                        TestResultsConverter.getInputArgs(uniqueTmpFolder));
+            }
+
+            // Render the PDF test report after MATLAB has exited.
+            if (this.deferPdfReport) {
+                reportFolder = DeferredTestReport.getFolder(uniqueTmpFolder);
+                testCommand =
+                        addInputArg(testCommand, DeferredTestReport.getInputArgs(reportFolder));
+            }
+
+            // Run the tests in the session of an enclosing withMatlabSession block. Durable and
+            // time limited runs need a process of their own.
+            final MatlabSessionContext sessionContext =
+                    getContext().get(MatlabSessionContext.class);
+            final MatlabSession blockSession =
+                    sessionContext == null || needsOwnProcess() ? null
+                            : sessionContext.getSession(workspace);
+            if (blockSession != null) {
+                try (MatlabLicensePools.Licenses licenses = acquireSessionLicenses(listener)) {
+                    return blockSession.runForStatus(workspace, getSessionCommand(testCommand),
+                            envVars, listener);
+                }
+            }
+
+            // Run the tests in the session started by preLaunchMATLAB.
+            final MatlabSession session = needsOwnProcess() ? null
+                    : takePreLaunchedMatlabSession(run, workspace, listener, envVars);
+            if (session != null) {
+                try (MatlabLicensePools.Licenses licenses = acquireSessionLicenses(listener)) {
+                    return session.runForStatus(workspace, getSessionCommand(testCommand),
+                            envVars, listener);
+                } finally {
+                    MatlabSessionPool.getInstance().release(session);
+                }
+            }
+
+            // MATLAB test runner is shared by all builds on the node.
+            final FilePath runnerFolder = getTestRunnerFolder(workspace, launcher);
             ProcStarter matlabLauncher = getProcessToRunMatlabCommand(workspace, launcher, listener, envVars,
-                    envVars.expand(getCommand()), uniqueTmpFldrName);
+                    addFolderToPath(runnerFolder, testCommand), uniqueTmpFldrName);
             
                      
-            return matlabLauncher.pwd(workspace).join();
+            return join(matlabLauncher.pwd(workspace), launcher, listener);
         } catch (Exception e) {
             listener.getLogger().println(e.getMessage());
             return 1;
         } finally {
+            if (events != null) {
+                events.close();
+            }
+            convertResults(uniqueTmpFolder, workspace, envVars, listener);
+            recordRetries(uniqueTmpFolder, workspace, envVars, listener);
+            publishResults(uniqueTmpFolder, workspace, envVars, listener);
+            if (reportFolder != null) {
+                DeferredTestReport.schedule(run, this, envVars, reportFolder, listener);
+            }
+            if (this.selection != null) {
+                this.selection.update(run, uniqueTmpFolder, listener);
+            }
+
             // Cleanup the runner File from tmp directory
-            final FilePath matlabRunnerScript =
-                    getFilePathForUniqueFolder(launcher, uniqueTmpFldrName, workspace);
-            if (matlabRunnerScript.exists()) {
-                matlabRunnerScript.deleteRecursive();
+            if (uniqueTmpFolder.exists()) {
+                uniqueTmpFolder.deleteRecursive();
             }
         }
 
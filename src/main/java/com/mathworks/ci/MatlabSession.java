@@ -0,0 +1,241 @@
+package com.mathworks.ci;
+
+/**
+ * Copyright 2020 The MathWorks, Inc.
+ *
+ * A headless MATLAB process which stays alive between builds and runs MATLAB statements sent to it
+ * through request files in its session folder. Each request runs with the environment variables of
+ * the build step which sent it. Console output of each request is recorded by MATLAB in a log file
+ * which is copied to the build listener while the request runs. The session holds its admission on
+ * the node and the tokens of the license pools required by all builds until it is closed.
+ *
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Launcher.ProcStarter;
+import hudson.Proc;
+import hudson.model.TaskListener;
+
+public class MatlabSession {
+
+    private static final long POLL_INTERVAL_MILLIS = 500;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    private static final String SERVER_FUNCTION = "matlabSessionServer";
+    private static final String READY_FILE = "ready";
+    private static final String REQUEST_FILE = "request.txt";
+    private static final String REQUEST_TMP_FILE = "request.tmp";
+    private static final String ENVIRONMENT_FILE = "environment.txt";
+    private static final String EXIT_CODE_FILE = "exitcode.txt";
+    private static final String LOG_FILE = "output.log";
+    private static final String SHUTDOWN_FILE = "shutdown";
+    private static final String SCRIPT_MODE = "script";
+    private static final String STATUS_MODE = "status";
+
+    private final String key;
+    private final FilePath sessionFolder;
+    private final Proc process;
+    private final MatlabAdmission.Permit permit;
+    private final MatlabLicensePools.Licenses licenses;
+    private volatile long lastUsed;
+
+    private MatlabSession(String key, FilePath sessionFolder, Proc process,
+            MatlabAdmission.Permit permit, MatlabLicensePools.Licenses licenses) {
+        this.key = key;
+        this.sessionFolder = sessionFolder;
+        this.process = process;
+        this.permit = permit;
+        this.licenses = licenses;
+        this.lastUsed = System.currentTimeMillis();
+    }
+
+    /*
+     * Starts a new MATLAB process serving requests from a unique folder in the node specific tmp
+     * directory. The runner script is resolved through the given build so that sessions start
+     * MATLAB exactly the same way a cold launch would. Waits until the node admits another MATLAB
+     * process and the license pools required by all builds have a token.
+     */
+    static MatlabSession start(String key, MatlabBuild build, FilePath workspace,
+            Launcher launcher, TaskListener listener, EnvVars envVars)
+            throws IOException, InterruptedException {
+        final String uniqueName = build.getUniqueNameForRunnerFile();
+        final FilePath sessionFolder =
+                build.getFilePathForUniqueFolder(launcher, uniqueName, workspace);
+        sessionFolder.mkdirs();
+        build.copyFileInWorkspace(MatlabBuilderConstants.MATLAB_SESSION_SERVER_RESOURCE,
+                MatlabBuilderConstants.MATLAB_SESSION_SERVER_TARGET_FILE, sessionFolder);
+
+        // The test runner is put on the path of the session once, it survives the path reset
+        // between requests.
+        final FilePath runnerFolder = build.getTestRunnerFolder(workspace, launcher);
+        final String command = SERVER_FUNCTION + "('"
+                + sessionFolder.getRemote().replaceAll("'", "''") + "','"
+                + runnerFolder.getRemote().replaceAll("'", "''") + "')";
+        ProcStarter matlabLauncher = build.getProcessToRunMatlabCommand(workspace, launcher,
+                listener, envVars, command, uniqueName);
+        final MatlabAdmission.Permit permit = build.admitMatlab(workspace, listener);
+        MatlabLicensePools.Licenses licenses = null;
+        try {
+            licenses = build.acquireLicenses(null, listener);
+            Proc process =
+                    matlabLauncher.pwd(sessionFolder).stdout(new NullOutputStream()).start();
+            return new MatlabSession(key, sessionFolder, process, permit, licenses);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            if (licenses != null) {
+                licenses.close();
+            }
+            permit.close();
+            throw e;
+        }
+    }
+
+    String getKey() {
+        return this.key;
+    }
+
+    long getLastUsed() {
+        return this.lastUsed;
+    }
+
+    void touch() {
+        this.lastUsed = System.currentTimeMillis();
+    }
+
+    /*
+     * Tells whether the session holds the only MATLAB process the node admits or the only token
+     * of a license pool required by all builds. No other MATLAB can start while it runs then.
+     */
+    boolean holdsLastAdmission() {
+        return this.permit.isLastSlot() || this.licenses.holdLastToken();
+    }
+
+    boolean isAlive() {
+        try {
+            return this.process.isAlive();
+        } catch (IOException | InterruptedException e) {
+            return false;
+        }
+    }
+
+    /*
+     * Waits until MATLAB has started and the session server is accepting requests.
+     */
+    boolean awaitReady(long timeoutMillis) throws IOException, InterruptedException {
+        final FilePath readyFile = new FilePath(this.sessionFolder, READY_FILE);
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (System.currentTimeMillis() < deadline) {
+            if (readyFile.exists()) {
+                return true;
+            }
+            if (!isAlive()) {
+                return false;
+            }
+            Thread.sleep(POLL_INTERVAL_MILLIS);
+        }
+        return false;
+    }
+
+    /*
+     * Runs the MATLAB statement from the given folder and returns the exit code in the same way
+     * as a MATLAB process started with the statement and environment would.
+     */
+    int run(FilePath folder, String statement, EnvVars envVars, TaskListener listener)
+            throws IOException, InterruptedException {
+        return submit(folder, statement, SCRIPT_MODE, envVars, listener);
+    }
+
+    /*
+     * Evaluates the MATLAB expression from the given folder and returns its value as exit code.
+     * Used for commands which would otherwise end the session by passing a status to exit.
+     */
+    int runForStatus(FilePath folder, String expression, EnvVars envVars, TaskListener listener)
+            throws IOException, InterruptedException {
+        return submit(folder, expression, STATUS_MODE, envVars, listener);
+    }
+
+    private synchronized int submit(FilePath folder, String statement, String mode,
+            EnvVars envVars, TaskListener listener) throws IOException, InterruptedException {
+        final FilePath exitCodeFile = new FilePath(this.sessionFolder, EXIT_CODE_FILE);
+        final FilePath logFile = new FilePath(this.sessionFolder, LOG_FILE);
+        exitCodeFile.delete();
+        logFile.delete();
+
+        // MATLAB sets the variables for the request and restores its own environment afterwards.
+        // Entries are separated by NUL characters, which cannot occur in variables.
+        final StringBuilder environment = new StringBuilder();
+        envVars.forEach((name, value) -> environment.append(name).append('=').append(value)
+                .append('\0'));
+        new FilePath(this.sessionFolder, ENVIRONMENT_FILE).write(environment.toString(), "UTF-8");
+
+        // Write the request atomically so that MATLAB never reads a partial request.
+        final FilePath requestFile = new FilePath(this.sessionFolder, REQUEST_TMP_FILE);
+        requestFile.write(folder.getRemote() + "\n" + statement + "\n" + mode + "\n", "UTF-8");
+        requestFile.renameTo(new FilePath(this.sessionFolder, REQUEST_FILE));
+
+        try {
+            long offset = 0;
+            while (true) {
+                final boolean finished = exitCodeFile.exists();
+                offset = copyLog(logFile, offset, listener);
+                if (finished) {
+                    return Integer.parseInt(exitCodeFile.readToString().trim());
+                }
+                if (!isAlive()) {
+                    // MATLAB exited, for example because the statement called exit. Its exit
+                    // code is the result of the request, as it would be for a MATLAB process
+                    // started with the statement.
+                    copyLog(logFile, offset, listener);
+                    listener.getLogger().println(Message.getValue("matlab.session.terminated"));
+                    return this.process.join();
+                }
+                Thread.sleep(POLL_INTERVAL_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            // The step was stopped. MATLAB is still busy with the request, so the session is
+            // killed rather than returned to the pool.
+            this.process.kill();
+            throw e;
+        } finally {
+            touch();
+        }
+    }
+
+    private long copyLog(FilePath logFile, long offset, TaskListener listener)
+            throws IOException, InterruptedException {
+        if (!logFile.exists()) {
+            return offset;
+        }
+        try (InputStream in = logFile.readFromOffset(offset)) {
+            return offset + IOUtils.copyLarge(in, listener.getLogger());
+        }
+    }
+
+    /*
+     * Asks the session server to exit, kills MATLAB if it does not do so in time and removes the
+     * session folder.
+     */
+    void close() {
+        try {
+            if (isAlive()) {
+                new FilePath(this.sessionFolder, SHUTDOWN_FILE).touch(System.currentTimeMillis());
+                this.process.joinWithTimeout(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS,
+                        TaskListener.NULL);
+            }
+            this.sessionFolder.deleteRecursive();
+        } catch (IOException e) {
+            // Session folder lives in tmp directory, leftovers are not harmful.
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            this.licenses.close();
+            this.permit.close();
+        }
+    }
+}
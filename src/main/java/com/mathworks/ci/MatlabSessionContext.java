@@ -0,0 +1,61 @@
+package com.mathworks.ci;
+
+/**
+ * Copyright 2020 The MathWorks, Inc.
+ *
+ * Pipeline context object through which the withMatlabSession step hands its MATLAB session to the
+ * steps nested in its block. Only the session id is stored with the Pipeline, the session itself
+ * is looked up in memory. The session is only handed to steps running on the node it was started
+ * on, steps in a nested node block run MATLAB on their own node.
+ *
+ */
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import hudson.FilePath;
+import hudson.model.Computer;
+
+public class MatlabSessionContext implements Serializable {
+
+    private static final long serialVersionUID = 4718457303566420245L;
+
+    private static final Map<String, MatlabSession> SESSIONS = new ConcurrentHashMap<>();
+
+    private final String id;
+    private final String nodeName;
+
+    private MatlabSessionContext(String id, String nodeName) {
+        this.id = id;
+        this.nodeName = nodeName;
+    }
+
+    static MatlabSessionContext register(MatlabSession session, String nodeName) {
+        final MatlabSessionContext context =
+                new MatlabSessionContext(UUID.randomUUID().toString(), nodeName);
+        SESSIONS.put(context.id, session);
+        return context;
+    }
+
+    /*
+     * Returns the session of this block for a step using the given workspace, or null if the
+     * workspace is on another node or the session is no longer available, for example after a
+     * restart of Jenkins.
+     */
+    MatlabSession getSession(FilePath workspace) {
+        final Computer cmp = workspace.toComputer();
+        if (cmp == null || !cmp.getName().equals(this.nodeName)) {
+            return null;
+        }
+        final MatlabSession session = SESSIONS.get(this.id);
+        return session != null && session.isAlive() ? session : null;
+    }
+
+    void close() {
+        final MatlabSession session = SESSIONS.remove(this.id);
+        if (session != null) {
+            session.close();
+        }
+    }
+}
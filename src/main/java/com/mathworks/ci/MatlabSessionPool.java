@@ -0,0 +1,499 @@
+package com.mathworks.ci;
+
+/**
+ * Copyright 2020 The MathWorks, Inc.
+ *
+ * Pool of warm MATLAB sessions per job, node and MATLAB installation. Builds lease a session to
+ * run their MATLAB command instead of starting a new MATLAB process and return it to the pool once
+ * done. Sessions which are not leased for a while are shut down.
+ *
+ * Sessions outlive the build which started them, so they start with the environment of the agent
+ * and the location of MATLAB only, never with variables or credentials of the build. Each request
+ * sets the variables of the build step which sent it, and the session restores its own environment
+ * once the request has run. Sessions carry an environment variable identifying this controller, by
+ * which sessions left over from before a restart of the controller are killed once their node
+ * connects again.
+ *
+ * Sessions count against the MATLAB processes admitted on their node for as long as they run. Idle
+ * sessions on a node are shut down when a build has to wait for the node to admit MATLAB. They also
+ * hold a token of each license pool required by all builds, and idle sessions are shut down when
+ * a build has to wait for a token.
+ *
+ * Sessions can also be pre-launched by the preLaunchMATLAB step, so that MATLAB starts while the
+ * build does other work. The next MATLAB step of the same build on that node runs in the
+ * pre-launched session, even if the pool is disabled. Pre-launched sessions are never handed to
+ * other builds. They are shut down if they are not used within their grace period or once their
+ * build has completed.
+ *
+ * The pool is disabled by default. It can be enabled with the system properties below.
+ *
+ * com.mathworks.ci.MatlabSessionPool.size - Maximum number of sessions per node and MATLAB.
+ * com.mathworks.ci.MatlabSessionPool.idleTimeoutMinutes - Idle time after which sessions are shut down.
+ *
+ */
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import hudson.remoting.VirtualChannel;
+import hudson.slaves.ComputerListener;
+import hudson.util.ProcessTree;
+import jenkins.model.Jenkins;
+import jenkins.security.MasterToSlaveCallable;
+import jenkins.util.SystemProperties;
+
+public class MatlabSessionPool {
+
+    static final String POOL_SIZE_PROPERTY = MatlabSessionPool.class.getName() + ".size";
+    static final String IDLE_TIMEOUT_PROPERTY =
+            MatlabSessionPool.class.getName() + ".idleTimeoutMinutes";
+
+    private static final int DEFAULT_POOL_SIZE = 0;
+    private static final int DEFAULT_IDLE_TIMEOUT_MINUTES = 30;
+    static final long STARTUP_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    static final String COOKIE_VARIABLE = "MATLAB_CI_SESSION_COOKIE";
+
+    private static final Logger LOGGER = Logger.getLogger(MatlabSessionPool.class.getName());
+
+    private static final MatlabSessionPool INSTANCE = new MatlabSessionPool();
+
+    private final Map<String, Deque<MatlabSession>> idleSessions = new HashMap<>();
+    private final Map<String, Integer> sessionCounts = new HashMap<>();
+    // Pre-launched sessions by the build which started them.
+    private final Map<String, List<PreLaunch>> preLaunched = new HashMap<>();
+
+    public static MatlabSessionPool getInstance() {
+        return INSTANCE;
+    }
+
+    int getPoolSize() {
+        return SystemProperties.getInteger(POOL_SIZE_PROPERTY, DEFAULT_POOL_SIZE);
+    }
+
+    long getIdleTimeoutMillis() {
+        return TimeUnit.MINUTES.toMillis(
+                SystemProperties.getInteger(IDLE_TIMEOUT_PROPERTY, DEFAULT_IDLE_TIMEOUT_MINUTES));
+    }
+
+    /*
+     * Returns a warm session for the MATLAB used by this build, starting a new one if the pool is
+     * not full yet. Returns null if pooling is disabled, the pool is exhausted or MATLAB could not
+     * be started, callers then launch MATLAB the usual way.
+     */
+    MatlabSession lease(MatlabBuild build, Run<?, ?> run, FilePath workspace, Launcher launcher,
+            TaskListener listener, EnvVars envVars) throws IOException, InterruptedException {
+        MatlabSession session = takePreLaunched(run, workspace, envVars, listener);
+        if (session != null || getPoolSize() < 1) {
+            return session;
+        }
+        final String key = getKey(run, workspace, envVars);
+
+        while ((session = pollIdleSession(key)) != null) {
+            if (session.isAlive()) {
+                listener.getLogger().println(Message.getValue("matlab.session.reused"));
+                return session;
+            }
+            discard(session);
+        }
+
+        synchronized (this) {
+            final int count = sessionCounts.getOrDefault(key, 0);
+            if (count >= getPoolSize()) {
+                return null;
+            }
+            sessionCounts.put(key, count + 1);
+        }
+
+        listener.getLogger().println(Message.getValue("matlab.session.starting"));
+        session = startSession(key, build, workspace, launcher, listener, envVars);
+        if (session == null) {
+            listener.getLogger().println(Message.getValue("matlab.session.start.failed"));
+        }
+        return session;
+    }
+
+    /*
+     * Starts a session in the background for the next MATLAB step of a build on the node. The
+     * session is shut down if it is not used within the grace period.
+     */
+    void preLaunch(MatlabBuild build, Run<?, ?> run, FilePath workspace, Launcher launcher,
+            EnvVars envVars, long gracePeriodMillis) throws IOException {
+        final String key = getKey(run, workspace, envVars);
+        // Counted once the task runs, so that a task cancelled before it runs is not counted.
+        final Future<MatlabSession> session = MatlabStepExecutor.submit(
+                getNodeName(workspace), TaskListener.NULL, () -> {
+                    synchronized (this) {
+                        sessionCounts.merge(key, 1, Integer::sum);
+                    }
+                    return startSession(key, build, workspace, launcher, TaskListener.NULL,
+                            envVars);
+                });
+        synchronized (this) {
+            preLaunched.computeIfAbsent(run.getExternalizableId(), k -> new ArrayList<>()).add(
+                    new PreLaunch(key, session, System.currentTimeMillis() + gracePeriodMillis));
+        }
+    }
+
+    /*
+     * Returns a session pre-launched by this build for the MATLAB it uses, waiting for it to start
+     * if necessary. Returns null if no session was pre-launched or it failed to start.
+     */
+    MatlabSession takePreLaunched(Run<?, ?> run, FilePath workspace, EnvVars envVars,
+            TaskListener listener) throws IOException, InterruptedException {
+        synchronized (this) {
+            if (preLaunched.isEmpty()) {
+                return null;
+            }
+        }
+        final String key = getKey(run, workspace, envVars);
+        PreLaunch preLaunch;
+        while ((preLaunch = pollPreLaunched(run, key)) != null) {
+            final MatlabSession session;
+            try {
+                session = preLaunch.session.get();
+            } catch (ExecutionException e) {
+                continue;
+            }
+            if (session == null) {
+                // Failed to start, the count was already decremented.
+                continue;
+            }
+            if (session.isAlive()) {
+                listener.getLogger().println(Message.getValue("matlab.session.prelaunched"));
+                return session;
+            }
+            discard(session);
+        }
+        return null;
+    }
+
+    /*
+     * Starts a session counted in the session count of the key, removing it from the count if
+     * MATLAB cannot be started.
+     */
+    private MatlabSession startSession(String key, MatlabBuild build, FilePath workspace,
+            Launcher launcher, TaskListener listener, EnvVars envVars)
+            throws InterruptedException {
+        // Pooled sessions outlive the build which started them, so keep them out of reach of the
+        // process tree killer that cleans up after each build.
+        final EnvVars sessionEnv = new EnvVars();
+        for (String name : new String[] {"PATH", "matlabroot"}) {
+            if (envVars.containsKey(name)) {
+                sessionEnv.put(name, envVars.get(name));
+            }
+        }
+        sessionEnv.put("BUILD_ID", "dontKillMe");
+        sessionEnv.put("JENKINS_NODE_COOKIE", "dontKillMe");
+        sessionEnv.put(COOKIE_VARIABLE, getCookie());
+
+        MatlabSession session = null;
+        boolean ready = false;
+        try {
+            session = MatlabSession.start(key, build, workspace, launcher, listener, sessionEnv);
+            ready = session.awaitReady(STARTUP_TIMEOUT_MILLIS);
+        } catch (IOException e) {
+            listener.getLogger().println(e.getMessage());
+        } finally {
+            if (!ready) {
+                if (session != null) {
+                    session.close();
+                }
+                decrementCount(key);
+            }
+        }
+
+        return ready ? session : null;
+    }
+
+    /*
+     * Returns the leased session back to the pool. Sessions beyond the pool size, such as
+     * pre-launched sessions while the pool is disabled, are shut down instead.
+     */
+    void release(MatlabSession session) {
+        final boolean overflow;
+        synchronized (this) {
+            overflow = sessionCounts.getOrDefault(session.getKey(), 0) > getPoolSize();
+        }
+        if (overflow || !session.isAlive()) {
+            discard(session);
+            return;
+        }
+        session.touch();
+        synchronized (this) {
+            idleSessions.computeIfAbsent(session.getKey(), k -> new ArrayDeque<>())
+                    .addFirst(session);
+        }
+    }
+
+    /*
+     * Shuts down the sessions which have not been leased within the idle timeout.
+     */
+    void evictIdleSessions() {
+        final long now = System.currentTimeMillis();
+        final long idleSince = now - getIdleTimeoutMillis();
+        final List<MatlabSession> evicted = new ArrayList<>();
+        synchronized (this) {
+            // Pre-launched sessions still starting are evicted once they have started.
+            for (List<PreLaunch> sessions : preLaunched.values()) {
+                Iterator<PreLaunch> it = sessions.iterator();
+                while (it.hasNext()) {
+                    PreLaunch preLaunch = it.next();
+                    if (preLaunch.expiresAt < now && preLaunch.session.isDone()) {
+                        it.remove();
+                        final MatlabSession session = getNow(preLaunch.session);
+                        if (session != null) {
+                            evicted.add(session);
+                        }
+                    }
+                }
+            }
+            preLaunched.values().removeIf(List::isEmpty);
+            for (Deque<MatlabSession> sessions : idleSessions.values()) {
+                Iterator<MatlabSession> it = sessions.iterator();
+                while (it.hasNext()) {
+                    MatlabSession session = it.next();
+                    if (session.getLastUsed() < idleSince) {
+                        it.remove();
+                        evicted.add(session);
+                    }
+                }
+            }
+        }
+        evicted.forEach(this::discard);
+    }
+
+    /*
+     * Shuts down the idle sessions on the node, so that builds waiting for the node to admit
+     * MATLAB can start it.
+     */
+    void shutDownIdleSessions(String nodeName) {
+        shutDownIdleSessions(key -> key.startsWith(nodeName + "|"));
+    }
+
+    /*
+     * Shuts down the idle sessions on all nodes, so that builds waiting for license tokens can
+     * take the tokens held by the sessions.
+     */
+    void shutDownIdleSessions() {
+        shutDownIdleSessions(key -> true);
+    }
+
+    private void shutDownIdleSessions(Predicate<String> keys) {
+        final List<MatlabSession> evicted = new ArrayList<>();
+        synchronized (this) {
+            for (Map.Entry<String, Deque<MatlabSession>> entry : idleSessions.entrySet()) {
+                if (keys.test(entry.getKey())) {
+                    evicted.addAll(entry.getValue());
+                    entry.getValue().clear();
+                }
+            }
+            idleSessions.values().removeIf(Deque::isEmpty);
+        }
+        evicted.forEach(this::discard);
+    }
+
+    /*
+     * Shuts down the sessions pre-launched by the build which were not used, stopping those which
+     * are still starting.
+     */
+    void discardPreLaunched(Run<?, ?> run) {
+        final List<PreLaunch> sessions;
+        synchronized (this) {
+            sessions = preLaunched.remove(run.getExternalizableId());
+        }
+        if (sessions == null) {
+            return;
+        }
+        for (PreLaunch preLaunch : sessions) {
+            // A cancelled session cleans up after itself once its task is interrupted.
+            if (!preLaunch.session.cancel(true)) {
+                final MatlabSession session = getNow(preLaunch.session);
+                if (session != null) {
+                    discard(session);
+                }
+            }
+        }
+    }
+
+    synchronized boolean hasPreLaunched(Run<?, ?> run) {
+        return preLaunched.containsKey(run.getExternalizableId());
+    }
+
+    private synchronized PreLaunch pollPreLaunched(Run<?, ?> run, String key) {
+        final List<PreLaunch> sessions = preLaunched.get(run.getExternalizableId());
+        if (sessions == null) {
+            return null;
+        }
+        final Iterator<PreLaunch> it = sessions.iterator();
+        while (it.hasNext()) {
+            final PreLaunch preLaunch = it.next();
+            if (preLaunch.key.equals(key)) {
+                it.remove();
+                if (sessions.isEmpty()) {
+                    preLaunched.remove(run.getExternalizableId());
+                }
+                return preLaunch;
+            }
+        }
+        return null;
+    }
+
+    private static MatlabSession getNow(Future<MatlabSession> session) {
+        try {
+            return session.get();
+        } catch (ExecutionException | InterruptedException | CancellationException e) {
+            return null;
+        }
+    }
+
+    private synchronized MatlabSession pollIdleSession(String key) {
+        final Deque<MatlabSession> sessions = idleSessions.get(key);
+        return sessions == null ? null : sessions.pollFirst();
+    }
+
+    private void discard(MatlabSession session) {
+        session.close();
+        decrementCount(session.getKey());
+    }
+
+    private synchronized void decrementCount(String key) {
+        final int count = sessionCounts.getOrDefault(key, 0) - 1;
+        if (count > 0) {
+            sessionCounts.put(key, count);
+        } else {
+            sessionCounts.remove(key);
+        }
+    }
+
+    /*
+     * Sessions are keyed by node, by job and by the MATLAB in use, which is identified by the
+     * matlabroot set through "Use MATLAB version" or else by the PATH MATLAB is found on. Builds of
+     * different jobs never share a session.
+     */
+    private String getKey(Run<?, ?> run, FilePath workspace, EnvVars envVars) throws IOException {
+        final String matlab = envVars.get("matlabroot", envVars.get("PATH", ""));
+        return getNodeName(workspace) + "|" + run.getParent().getFullName() + "|" + matlab;
+    }
+
+    private static String getNodeName(FilePath workspace) throws IOException {
+        final Computer cmp = workspace.toComputer();
+        if (cmp == null) {
+            throw new IOException(Message.getValue("build.workspace.computer.not.found"));
+        }
+        return cmp.getName();
+    }
+
+    /*
+     * Value of the environment variable carried by the sessions of this controller.
+     */
+    private static String getCookie() {
+        return Jenkins.get().getLegacyInstanceId();
+    }
+
+    private static class PreLaunch {
+        private final String key;
+        private final Future<MatlabSession> session;
+        private final long expiresAt;
+
+        PreLaunch(String key, Future<MatlabSession> session, long expiresAt) {
+            this.key = key;
+            this.session = session;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /*
+     * Kills the sessions this controller left on a node before it restarted or lost the
+     * connection to the node. Sessions which survived are no longer known to the pool, so they
+     * would keep running and holding a license. This listener is also called for the controller
+     * itself on startup.
+     */
+    @Extension
+    public static class LeftoverSessionKiller extends ComputerListener {
+
+        @Override
+        public void onOnline(Computer c, TaskListener listener) {
+            final VirtualChannel channel = c.getChannel();
+            if (channel == null) {
+                return;
+            }
+            try {
+                channel.call(new KillSessions(getCookie()));
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING,
+                        "Unable to kill leftover MATLAB sessions on " + c.getName(), e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static class KillSessions extends MasterToSlaveCallable<Void, InterruptedException> {
+        private static final long serialVersionUID = 6207396457870915367L;
+
+        private final String cookie;
+
+        KillSessions(String cookie) {
+            this.cookie = cookie;
+        }
+
+        @Override
+        public Void call() throws InterruptedException {
+            ProcessTree.get().killAll(Collections.singletonMap(COOKIE_VARIABLE, this.cookie));
+            return null;
+        }
+    }
+
+    /*
+     * Shuts down the sessions a build pre-launched but never used once the build has completed.
+     */
+    @Extension
+    public static class PreLaunchedSessionReaper extends RunListener<Run<?, ?>> {
+
+        @Override
+        public void onCompleted(Run<?, ?> run, TaskListener listener) {
+            MatlabSessionPool.getInstance().discardPreLaunched(run);
+        }
+    }
+
+    @Extension
+    public static class IdleSessionReaper extends AsyncPeriodicWork {
+
+        public IdleSessionReaper() {
+            super("MATLAB idle session reaper");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return MIN;
+        }
+
+        @Override
+        protected void execute(TaskListener listener) {
+            MatlabSessionPool.getInstance().evictIdleSessions();
+        }
+    }
+}
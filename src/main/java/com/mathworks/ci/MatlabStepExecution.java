@@ -0,0 +1,281 @@
+package com.mathworks.ci;
+
+/**
+ * Copyright 2020 The MathWorks, Inc.
+ *
+ * Base class of the steps running MATLAB. The MATLAB process is started and waited on in the
+ * background by MatlabStepExecutor, and the step completes once MATLAB exits. Stopping the step,
+ * or exceeding a limit of the MatlabWatchdog, kills every process started for the step.
+ *
+ * In durable mode MATLAB runs detached from the agent, and a step resumed after a restart of the
+ * controller follows the running MATLAB process again. Steps with a capped log policy run MATLAB
+ * the same way, so that its output is written to a log file on the agent.
+ *
+ */
+
+import java.io.IOException;
+import java.util.concurrent.Future;
+import org.acegisecurity.Authentication;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import hudson.AbortException;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Launcher.ProcStarter;
+import hudson.Proc;
+import hudson.model.Computer;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import jenkins.model.Jenkins;
+
+public abstract class MatlabStepExecution extends StepExecution implements MatlabBuild {
+
+    private static final long serialVersionUID = -1590233254366958154L;
+
+    private static final long WATCHDOG_INTERVAL_MILLIS = 1000;
+
+    private boolean durable;
+    private String licensePools;
+    private MatlabWatchdog watchdog = new MatlabWatchdog(0, 0);
+    private MatlabLogPolicy logPolicy = MatlabLogPolicy.FULL;
+    private String runFolderName;
+    private DurableMatlabProcess durableProcess;
+    private transient volatile Future<?> task;
+    private transient volatile boolean stopped;
+    private transient volatile boolean unstable;
+
+    protected MatlabStepExecution(StepContext context) {
+        super(context);
+    }
+
+    /**
+     * Runs MATLAB on a background thread and returns its exit code.
+     * 
+     * @return exit code of MATLAB, any value but 0 fails the step
+     */
+    protected abstract int run() throws Exception;
+
+    /**
+     * Completes a durable run once MATLAB exited after the step was resumed. Subclasses clean up
+     * and collect results here, just as they do at the end of run.
+     * 
+     * @param exitCode exit code of MATLAB
+     * @param runFolder build specific folder on the node, deleted afterwards
+     * @param listener Current build listener
+     * @return exit code of the step
+     */
+    protected int resume(int exitCode, FilePath runFolder, TaskListener listener)
+            throws Exception {
+        return exitCode;
+    }
+
+    /*
+     * Marks the step unstable, unless MATLAB fails it.
+     */
+    protected void markUnstable() {
+        this.unstable = true;
+    }
+
+    void setDurable(boolean durable) {
+        this.durable = durable;
+    }
+
+    void setLicensePools(String licensePools) {
+        this.licensePools = licensePools;
+    }
+
+    void setTimeouts(int timeout, int idleTimeout) {
+        this.watchdog = new MatlabWatchdog(timeout, idleTimeout);
+    }
+
+    void setLogPolicy(MatlabLogPolicy logPolicy) {
+        this.logPolicy = logPolicy;
+    }
+
+    private boolean isDetached() {
+        return this.durable || (this.logPolicy != null && this.logPolicy.isCapped());
+    }
+
+    /*
+     * Durable, time limited and capped runs cannot use a MATLAB session, as they need to control
+     * the MATLAB process.
+     */
+    protected boolean needsOwnProcess() {
+        return isDetached() || this.watchdog.isEnabled();
+    }
+
+    /*
+     * Takes a token of the license pools named by the step for a command run in a MATLAB session.
+     * The session holds the tokens of the pools required by all builds itself.
+     */
+    protected MatlabLicensePools.Licenses acquireSessionLicenses(TaskListener listener)
+            throws IOException, InterruptedException {
+        return MatlabLicensePools.acquireForSession(this.licensePools, listener);
+    }
+
+    /*
+     * Name of the build specific folder in the node specific tmp directory, which is the same
+     * after the step is resumed.
+     */
+    protected String getRunFolderName() {
+        return this.runFolderName;
+    }
+
+    /*
+     * Runs the MATLAB process and returns its exit code. In durable mode, the process is detached
+     * from the agent and its output is copied to the listener until it exits.
+     */
+    protected int join(ProcStarter matlabLauncher, Launcher launcher, TaskListener listener)
+            throws IOException, InterruptedException {
+        final FilePath workspace = getContext().get(FilePath.class);
+        // The session of an enclosing withMatlabSession block stays busy until the block ends, so
+        // waiting for the admission it holds would never end.
+        final MatlabSessionContext sessionContext = getContext().get(MatlabSessionContext.class);
+        final MatlabSession blockSession =
+                sessionContext == null ? null : sessionContext.getSession(workspace);
+        if (blockSession != null && blockSession.holdsLastAdmission()) {
+            throw new AbortException(Message.getValue("matlab.session.block.no.admission"));
+        }
+        try (MatlabAdmission.Permit permit = admitMatlab(workspace, listener);
+                MatlabLicensePools.Licenses licenses =
+                        acquireLicenses(this.licensePools, listener)) {
+            return joinAdmitted(matlabLauncher, launcher, listener);
+        }
+    }
+
+    private int joinAdmitted(ProcStarter matlabLauncher, Launcher launcher,
+            TaskListener listener) throws IOException, InterruptedException {
+        this.watchdog.mark(matlabLauncher);
+        this.watchdog.start();
+        if (this.durableProcess != null) {
+            this.durableProcess.launch(launcher, matlabLauncher, listener);
+            try {
+                return this.durableProcess.await(listener, this.watchdog);
+            } finally {
+                // The thread of a stopped step is interrupted and cannot call the agent.
+                if (!this.stopped) {
+                    this.durableProcess.archiveLog(getContext().get(Run.class), launcher,
+                            listener);
+                }
+            }
+        }
+        if (!this.watchdog.isEnabled()) {
+            return matlabLauncher.join();
+        }
+
+        matlabLauncher.stdout(this.watchdog.watch(listener.getLogger()));
+        final Proc proc = matlabLauncher.start();
+        while (proc.isAlive()) {
+            if (this.watchdog.isExpired(listener)) {
+                this.watchdog.killAll(launcher.getChannel());
+                proc.kill();
+                return 1;
+            }
+            Thread.sleep(WATCHDOG_INTERVAL_MILLIS);
+        }
+        return proc.join();
+    }
+
+    @Override
+    public boolean start() throws Exception {
+        this.runFolderName = getUniqueNameForRunnerFile();
+        if (isDetached()) {
+            // The folder must be known before start returns, so that it is saved with the step.
+            final FilePath workspace = getContext().get(FilePath.class);
+            final Launcher launcher = getContext().get(Launcher.class);
+            this.durableProcess = new DurableMatlabProcess(getContext().get(Run.class), workspace,
+                    getFilePathForUniqueFolder(launcher, this.runFolderName, workspace),
+                    this.logPolicy);
+        }
+        final Computer cmp = getContext().get(FilePath.class).toComputer();
+        submit(cmp == null ? "" : cmp.getName(), getContext().get(TaskListener.class),
+                () -> run());
+
+        //return false represents the asynchronous run. 
+        return false;
+    }
+
+    private void submit(String nodeName, TaskListener listener, Task body) {
+        final Authentication auth = Jenkins.getAuthentication();
+        this.task = MatlabStepExecutor.submit(nodeName, listener, () -> {
+            try (ACLContext ctx = ACL.as(auth)) {
+                final int res = body.call();
+                if (!this.stopped) {
+                    getContext().setResult((res != 0) ? Result.FAILURE
+                            : this.unstable ? Result.UNSTABLE : Result.SUCCESS);
+                    getContext().onSuccess(true);
+                }
+            } catch (Throwable t) {
+                if (!this.stopped) {
+                    getContext().onFailure(t);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void stop(Throwable cause) throws Exception {
+        this.stopped = true;
+        final Future<?> running = this.task;
+        if (running != null) {
+            running.cancel(true);
+        }
+        try {
+            // Processes started by MATLAB outside its process tree are not killed with it.
+            final Launcher launcher = getContext().get(Launcher.class);
+            if (launcher != null) {
+                this.watchdog.killAll(launcher.getChannel());
+            }
+        } catch (IOException e) {
+            // The agent is offline, nothing can be killed.
+        } finally {
+            getContext().onFailure(cause);
+        }
+    }
+
+    @Override
+    public void onResume() {
+        if (this.durableProcess == null) {
+            // The MATLAB process did not survive the restart of Jenkins.
+            getContext().onFailure(
+                    new AbortException(Message.getValue("matlab.step.resume.not.supported")));
+            return;
+        }
+        TaskListener resumeListener;
+        try {
+            resumeListener = getContext().get(TaskListener.class);
+        } catch (IOException | InterruptedException e) {
+            resumeListener = TaskListener.NULL;
+        }
+        submit(this.durableProcess.getNodeName(), resumeListener, () -> {
+            final TaskListener listener = getContext().get(TaskListener.class);
+            listener.getLogger().println(Message.getValue("matlab.durable.resumed"));
+            // Permits and license tokens are counted in memory, take them again for the running
+            // MATLAB.
+            final int exitCode;
+            try (MatlabAdmission.Permit permit =
+                    MatlabAdmission.reclaim(this.durableProcess.getNodeName());
+                    MatlabLicensePools.Licenses licenses =
+                            MatlabLicensePools.reclaim(this.licensePools)) {
+                exitCode = this.durableProcess.await(listener, this.watchdog);
+            }
+            if (!this.stopped) {
+                this.durableProcess.archiveLog(getContext().get(Run.class),
+                        getContext().get(Launcher.class), listener);
+            }
+            final FilePath runFolder = this.durableProcess.getFolder();
+            try {
+                return resume(exitCode, runFolder, listener);
+            } finally {
+                runFolder.deleteRecursive();
+            }
+        });
+    }
+
+    private interface Task {
+        int call() throws Exception;
+    }
+}
@@ -0,0 +1,90 @@
+package com.mathworks.ci;
+
+/**
+ * Copyright 2020 The MathWorks, Inc.
+ *
+ * Bounded thread pools running the MATLAB processes of Pipeline steps, so that waiting for MATLAB
+ * never blocks the thread executing the Pipeline. Each node has a pool of its own, as steps wait
+ * on their pool thread for the node limits and license tokens, and steps waiting for a busy node
+ * must not keep steps on other nodes from running. Steps beyond the pool size wait in a queue,
+ * which is reported in the build log.
+ *
+ * The pool size can be changed with the system property below.
+ *
+ * com.mathworks.ci.MatlabStepExecutor.maxThreads - Maximum number of MATLAB steps waited on at once per node.
+ *
+ */
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import hudson.FilePath;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.util.SystemProperties;
+
+public class MatlabStepExecutor {
+
+    static final String MAX_THREADS_PROPERTY = MatlabStepExecutor.class.getName() + ".maxThreads";
+
+    private static final int DEFAULT_MAX_THREADS = 64;
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private static final Map<String, ThreadPoolExecutor> EXECUTORS = new ConcurrentHashMap<>();
+
+    private MatlabStepExecutor() {
+
+    }
+
+    /*
+     * Runs the task on the pool of the node of the workspace.
+     */
+    static Future<?> submit(FilePath workspace, TaskListener listener, Runnable task) {
+        final Computer cmp = workspace == null ? null : workspace.toComputer();
+        return submit(cmp == null ? "" : cmp.getName(), listener, task);
+    }
+
+    /*
+     * Runs the task on the pool of the given node and reports in the build log if it has to wait
+     * for a pool thread.
+     */
+    static Future<?> submit(String nodeName, TaskListener listener, Runnable task) {
+        final ThreadPoolExecutor executor = getExecutor(nodeName);
+        return reportQueued(executor, executor.submit(task), nodeName, listener);
+    }
+
+    static <T> Future<T> submit(String nodeName, TaskListener listener, Callable<T> task) {
+        final ThreadPoolExecutor executor = getExecutor(nodeName);
+        return reportQueued(executor, executor.submit(task), nodeName, listener);
+    }
+
+    private static ThreadPoolExecutor getExecutor(String nodeName) {
+        return EXECUTORS.computeIfAbsent(nodeName, MatlabStepExecutor::createExecutor);
+    }
+
+    private static <T> Future<T> reportQueued(ThreadPoolExecutor executor, Future<T> future,
+            String nodeName, TaskListener listener) {
+        if (executor.getQueue().contains(future)) {
+            listener.getLogger().println(String.format(Message.getValue("matlab.step.queued"),
+                    executor.getMaximumPoolSize(), nodeName.isEmpty() ? "master" : nodeName));
+        }
+        return future;
+    }
+
+    private static ThreadPoolExecutor createExecutor(String nodeName) {
+        final int maxThreads =
+                Math.max(1, SystemProperties.getInteger(MAX_THREADS_PROPERTY, DEFAULT_MAX_THREADS));
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new NamingThreadFactory(new DaemonThreadFactory(),
+                        nodeName.isEmpty() ? "MATLAB step" : "MATLAB step " + nodeName));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
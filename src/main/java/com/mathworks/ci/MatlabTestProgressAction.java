@@ -0,0 +1,168 @@
+package com.mathworks.ci;
+
+/**
+ * Copyright 2020 The MathWorks, Inc.
+ *
+ * Progress of the MATLAB tests of a build, updated from the test events while the tests run and
+ * shown on the build page. The counts of all test steps of the build add up. Only the first
+ * failures are kept, with their diagnostics shortened, as the test artifacts hold the details.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import hudson.model.Action;
+import hudson.model.Run;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+
+public class MatlabTestProgressAction implements Action {
+
+    private static final int MAX_FAILURES = 100;
+    private static final int MAX_DIAGNOSTICS_LENGTH = 4000;
+
+    private int total;
+    private int passed;
+    private int failed;
+    private int incomplete;
+    private transient int openStreams;
+    private transient String currentTest;
+    private final List<Failure> failures = new ArrayList<>();
+
+    /*
+     * Returns the progress action of the run, adding it if the run does not have one yet.
+     */
+    static MatlabTestProgressAction forRun(Run<?, ?> run) {
+        synchronized (run) {
+            MatlabTestProgressAction action = run.getAction(MatlabTestProgressAction.class);
+            if (action == null) {
+                action = new MatlabTestProgressAction();
+                run.addAction(action);
+            }
+            return action;
+        }
+    }
+
+    /*
+     * Applies one line of the events file. Lines which are no valid event are skipped.
+     */
+    synchronized void onEvent(String line) {
+        final JSONObject event;
+        try {
+            event = JSONObject.fromObject(line);
+        } catch (JSONException e) {
+            return;
+        }
+        switch (event.optString("event")) {
+            case "suiteStarted":
+                this.total += event.optInt("count");
+                break;
+            case "testStarted":
+                this.currentTest = event.optString("name");
+                break;
+            case "testFinished":
+                onTestFinished(event);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void onTestFinished(JSONObject event) {
+        final String status = event.optString("status");
+        if ("failed".equals(status)) {
+            this.failed++;
+            if (this.failures.size() < MAX_FAILURES) {
+                this.failures.add(new Failure(event.optString("name"),
+                        event.optDouble("duration", 0), event.optString("diagnostics")));
+            }
+        } else if ("incomplete".equals(status)) {
+            this.incomplete++;
+        } else {
+            this.passed++;
+        }
+    }
+
+    synchronized void onStreamOpened() {
+        this.openStreams++;
+    }
+
+    synchronized void onStreamClosed() {
+        this.openStreams--;
+        this.currentTest = null;
+    }
+
+    public synchronized int getTotal() {
+        return this.total;
+    }
+
+    public synchronized int getFinished() {
+        return this.passed + this.failed + this.incomplete;
+    }
+
+    public synchronized int getPassed() {
+        return this.passed;
+    }
+
+    public synchronized int getFailed() {
+        return this.failed;
+    }
+
+    public synchronized int getIncomplete() {
+        return this.incomplete;
+    }
+
+    public synchronized boolean isRunning() {
+        return this.openStreams > 0;
+    }
+
+    public synchronized String getCurrentTest() {
+        return this.currentTest;
+    }
+
+    public synchronized List<Failure> getFailures() {
+        return Collections.unmodifiableList(new ArrayList<>(this.failures));
+    }
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return Message.getValue("matlab.tests.progress.display.name");
+    }
+
+    @Override
+    public String getUrlName() {
+        return null;
+    }
+
+    public static class Failure {
+        private final String name;
+        private final double duration;
+        private final String diagnostics;
+
+        Failure(String name, double duration, String diagnostics) {
+            this.name = name;
+            this.duration = duration;
+            this.diagnostics = diagnostics.length() > MAX_DIAGNOSTICS_LENGTH
+                    ? diagnostics.substring(0, MAX_DIAGNOSTICS_LENGTH) + "..."
+                    : diagnostics;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public double getDuration() {
+            return this.duration;
+        }
+
+        public String getDiagnostics() {
+            return this.diagnostics;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.mathworks.ci;
+
+/**
+ * Copyright 2020 The MathWorks, Inc.
+ *
+ * PDF test report of a build rendered after MATLAB has exited. The action is added once the
+ * report has been scheduled and serves the report from the build folder once it is rendered.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import javax.servlet.ServletException;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+import hudson.model.Run;
+import jenkins.model.RunAction2;
+
+public class MatlabTestReportAction implements RunAction2 {
+
+    private static final String URL_NAME = "matlabTestReport";
+
+    private Status status = Status.PENDING;
+    private transient Run<?, ?> run;
+
+    public enum Status {
+        PENDING, RENDERED, FAILED
+    }
+
+    synchronized void onFinished(boolean rendered) {
+        this.status = rendered ? Status.RENDERED : Status.FAILED;
+    }
+
+    public synchronized Status getStatus() {
+        return this.status;
+    }
+
+    public boolean isPending() {
+        return getStatus() == Status.PENDING;
+    }
+
+    public boolean isRendered() {
+        return getStatus() == Status.RENDERED;
+    }
+
+    @Override
+    public void onAttached(Run<?, ?> run) {
+        this.run = run;
+    }
+
+    @Override
+    public synchronized void onLoad(Run<?, ?> run) {
+        this.run = run;
+        // The rendering does not continue after a restart.
+        if (this.status == Status.PENDING) {
+            this.status = Status.FAILED;
+        }
+    }
+
+    /*
+     * Serves the rendered report.
+     */
+    public void doIndex(StaplerRequest req, StaplerResponse rsp)
+            throws IOException, ServletException {
+        final File report = new File(this.run.getRootDir(), DeferredTestReport.REPORT_FILE);
+        if (!isRendered() || !report.isFile()) {
+            rsp.sendError(StaplerResponse.SC_NOT_FOUND);
+            return;
+        }
+        rsp.serveFile(req, report.toURI().toURL());
+    }
+
+    @Override
+    public String getIconFileName() {
+        return isRendered() ? "document.png" : null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return Message.getValue("matlab.tests.report.display.name");
+    }
+
+    @Override
+    public String getUrlName() {
+        return URL_NAME;
+    }
+}
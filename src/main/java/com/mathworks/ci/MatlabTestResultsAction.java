@@ -0,0 +1,84 @@
+package com.mathworks.ci;
+
+/**
+ * Copyright 2020 The MathWorks, Inc.
+ *
+ * Results of the MATLAB tests of a build, published by the test steps without a separate junit
+ * step. The action holds the summary of the JUnit reports of all test steps of the build, read on
+ * the agents, and is shown on the build page.
+ *
+ */
+
+import java.io.IOException;
+import hudson.FilePath;
+import hudson.model.Action;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+
+public class MatlabTestResultsAction implements Action {
+
+    static final String JUNIT_RESULTS_FILE = "testResults.xml";
+    private static final String JUNIT_RESULTS_PATH = "JUnitResultsPath";
+
+    private final TestResultsSummary summary = new TestResultsSummary();
+
+    /*
+     * Returns the name-value pair argument passed to runMatlabCiTests.m, which writes the JUnit
+     * report to be published into the given build specific folder.
+     */
+    static String getInputArgs(FilePath folder) {
+        return "'" + JUNIT_RESULTS_PATH + "','"
+                + new FilePath(folder, JUNIT_RESULTS_FILE).getRemote().replaceAll("'", "''")
+                + "'";
+    }
+
+    /*
+     * Adds the results of the JUnit report to the action of the run. Failures are only reported,
+     * the tests have already run.
+     */
+    static void publish(Run<?, ?> run, FilePath junitResults, TaskListener listener)
+            throws InterruptedException {
+        try {
+            if (!junitResults.exists()) {
+                listener.getLogger().println(Message.getValue("matlab.tests.results.not.found"));
+                return;
+            }
+            final TestResultsSummary results = TestResultsSummary.read(junitResults);
+            listener.getLogger()
+                    .println(String.format(Message.getValue("matlab.tests.results.published"),
+                            results.getTotal(), results.getFailed(), results.getSkipped()));
+            final MatlabTestResultsAction action;
+            synchronized (run) {
+                MatlabTestResultsAction existing = run.getAction(MatlabTestResultsAction.class);
+                if (existing == null) {
+                    existing = new MatlabTestResultsAction();
+                    run.addAction(existing);
+                }
+                action = existing;
+            }
+            action.summary.add(results);
+        } catch (IOException e) {
+            listener.getLogger().println(
+                    Message.getValue("matlab.tests.results.not.published") + " " + e.getMessage());
+        }
+    }
+
+    public TestResultsSummary getSummary() {
+        return this.summary;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return Message.getValue("matlab.tests.results.display.name");
+    }
+
+    @Override
+    public String getUrlName() {
+        return null;
+    }
+}
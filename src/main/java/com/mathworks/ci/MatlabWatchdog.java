@@ -0,0 +1,142 @@
+package com.mathworks.ci;
+
+/**
+ * Copyright 2020 The MathWorks, Inc.
+ *
+ * Limits how long a MATLAB step may run in total and without producing any output. Both limits
+ * are in minutes, and a limit of 0 disables it. The total time counts from the start of MATLAB and
+ * is kept when a durable step is resumed.
+ *
+ * Processes started for a step carry a unique environment variable, so that killing the step
+ * also kills processes MATLAB started outside its own process tree, such as parallel pool workers.
+ *
+ */
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import hudson.Launcher.ProcStarter;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.util.ProcessTree;
+import jenkins.security.MasterToSlaveCallable;
+
+public class MatlabWatchdog implements Serializable {
+
+    private static final long serialVersionUID = 1684430829571713204L;
+
+    static final String COOKIE_VARIABLE = "MATLAB_CI_PROCESS_COOKIE";
+
+    // Length of a minute of the limits, shortened by tests so that they expire quickly.
+    static long minuteMillis = TimeUnit.MINUTES.toMillis(1);
+
+    private final int timeout;
+    private final int idleTimeout;
+    private final String cookie = UUID.randomUUID().toString();
+    private long startTime;
+    private transient volatile long lastOutputTime;
+
+    public MatlabWatchdog(int timeout, int idleTimeout) {
+        this.timeout = Math.max(0, timeout);
+        this.idleTimeout = Math.max(0, idleTimeout);
+    }
+
+    boolean isEnabled() {
+        return this.timeout > 0 || this.idleTimeout > 0;
+    }
+
+    void start() {
+        this.startTime = System.currentTimeMillis();
+        this.lastOutputTime = this.startTime;
+    }
+
+    /*
+     * Adds the environment variable identifying the processes of this step.
+     */
+    void mark(ProcStarter matlabLauncher) {
+        final String[] envs = matlabLauncher.envs();
+        final String[] marked = Arrays.copyOf(envs, envs.length + 1);
+        marked[envs.length] = COOKIE_VARIABLE + "=" + this.cookie;
+        matlabLauncher.envs(marked);
+    }
+
+    /*
+     * Returns a stream which records when MATLAB last wrote output.
+     */
+    OutputStream watch(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                onOutput();
+                out.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                onOutput();
+                out.write(b, off, len);
+            }
+        };
+    }
+
+    void onOutput() {
+        this.lastOutputTime = System.currentTimeMillis();
+    }
+
+    /*
+     * Reports an exceeded limit to the listener and returns whether MATLAB has to be stopped.
+     */
+    boolean isExpired(TaskListener listener) {
+        final long now = System.currentTimeMillis();
+        if (this.startTime == 0) {
+            // Resumed before the start time was saved.
+            this.startTime = now;
+        }
+        if (this.lastOutputTime == 0) {
+            // Resumed after a restart, idle time counts from now.
+            this.lastOutputTime = now;
+        }
+        if (this.timeout > 0 && now - this.startTime > this.timeout * minuteMillis) {
+            listener.getLogger().println(
+                    String.format(Message.getValue("matlab.timeout.exceeded"), this.timeout));
+            return true;
+        }
+        if (this.idleTimeout > 0
+                && now - this.lastOutputTime > this.idleTimeout * minuteMillis) {
+            listener.getLogger().println(
+                    String.format(Message.getValue("matlab.timeout.idle"), this.idleTimeout));
+            return true;
+        }
+        return false;
+    }
+
+    /*
+     * Kills every process of this step on the node of the channel.
+     */
+    void killAll(VirtualChannel channel) throws IOException, InterruptedException {
+        if (channel != null) {
+            channel.call(new KillAll(this.cookie));
+        }
+    }
+
+    private static class KillAll extends MasterToSlaveCallable<Void, InterruptedException> {
+        private static final long serialVersionUID = -7519049216815232915L;
+
+        private final String cookie;
+
+        KillAll(String cookie) {
+            this.cookie = cookie;
+        }
+
+        @Override
+        public Void call() throws InterruptedException {
+            ProcessTree.get().killAll(Collections.singletonMap(COOKIE_VARIABLE, this.cookie));
+            return null;
+        }
+    }
+}
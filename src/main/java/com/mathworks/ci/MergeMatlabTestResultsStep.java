@@ -0,0 +1,116 @@
+package com.mathworks.ci;
+
+/**
+ * Copyright 2020 The MathWorks, Inc.
+ *
+ * Pipeline step which merges the test artifacts of a test run split across several builds with
+ * the shardIndex and shardCount options of runMATLABTests. Each artifact type takes an Ant style
+ * pattern of the files to merge and the path of the merged file.
+ *
+ */
+
+import java.util.Set;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import com.google.common.collect.ImmutableSet;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+
+public class MergeMatlabTestResultsStep extends Step {
+
+    private String testResultsTAP;
+    private String testResultsTAPFiles;
+    private String testResultsJUnit;
+    private String testResultsJUnitFiles;
+    private String codeCoverageCobertura;
+    private String codeCoverageCoberturaFiles;
+
+    @DataBoundConstructor
+    public MergeMatlabTestResultsStep() {
+
+    }
+
+    public String getTestResultsTAP() {
+        return testResultsTAP;
+    }
+
+    @DataBoundSetter
+    public void setTestResultsTAP(String testResultsTAP) {
+        this.testResultsTAP = testResultsTAP;
+    }
+
+    public String getTestResultsTAPFiles() {
+        return testResultsTAPFiles;
+    }
+
+    @DataBoundSetter
+    public void setTestResultsTAPFiles(String testResultsTAPFiles) {
+        this.testResultsTAPFiles = testResultsTAPFiles;
+    }
+
+    public String getTestResultsJUnit() {
+        return testResultsJUnit;
+    }
+
+    @DataBoundSetter
+    public void setTestResultsJUnit(String testResultsJUnit) {
+        this.testResultsJUnit = testResultsJUnit;
+    }
+
+    public String getTestResultsJUnitFiles() {
+        return testResultsJUnitFiles;
+    }
+
+    @DataBoundSetter
+    public void setTestResultsJUnitFiles(String testResultsJUnitFiles) {
+        this.testResultsJUnitFiles = testResultsJUnitFiles;
+    }
+
+    public String getCodeCoverageCobertura() {
+        return codeCoverageCobertura;
+    }
+
+    @DataBoundSetter
+    public void setCodeCoverageCobertura(String codeCoverageCobertura) {
+        this.codeCoverageCobertura = codeCoverageCobertura;
+    }
+
+    public String getCodeCoverageCoberturaFiles() {
+        return codeCoverageCoberturaFiles;
+    }
+
+    @DataBoundSetter
+    public void setCodeCoverageCoberturaFiles(String codeCoverageCoberturaFiles) {
+        this.codeCoverageCoberturaFiles = codeCoverageCoberturaFiles;
+    }
+
+    @Override
+    public StepExecution start(StepContext context) throws Exception {
+        return new MergeMatlabTestResultsStepExecution(context, this);
+    }
+
+    @Extension
+    public static class MergeTestResultsStepDescriptor extends StepDescriptor {
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return ImmutableSet.of(TaskListener.class, FilePath.class, Run.class);
+        }
+
+        @Override
+        public String getFunctionName() {
+            return Message.getValue("matlab.merge.results.build.step.name");
+        }
+
+        @Override
+        public String getDisplayName() {
+            return Message.getValue("matlab.merge.results.step.display.name");
+        }
+    }
+}
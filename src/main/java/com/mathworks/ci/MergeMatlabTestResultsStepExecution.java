@@ -0,0 +1,144 @@
+package com.mathworks.ci;
+
+/**
+ * Copyright 2020 The MathWorks, Inc.
+ *
+ * Merges the result and coverage files on a background thread, as large reports take a while to
+ * merge and would otherwise block the thread executing the Pipeline.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.tools.ant.DirectoryScanner;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.SynchronousNonBlockingStepExecution;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+public class MergeMatlabTestResultsStepExecution
+        extends SynchronousNonBlockingStepExecution<Boolean> {
+
+    private static final long serialVersionUID = -4630934276613651021L;
+
+    private final List<MergeRequest> requests = new ArrayList<>();
+
+    public MergeMatlabTestResultsStepExecution(StepContext context,
+            MergeMatlabTestResultsStep step) {
+        super(context);
+        addRequest(Format.JUNIT, step.getTestResultsJUnitFiles(), step.getTestResultsJUnit());
+        addRequest(Format.TAP, step.getTestResultsTAPFiles(), step.getTestResultsTAP());
+        addRequest(Format.COBERTURA, step.getCodeCoverageCoberturaFiles(),
+                step.getCodeCoverageCobertura());
+    }
+
+    private void addRequest(Format format, String pattern, String target) {
+        if (Util.fixEmptyAndTrim(pattern) != null && Util.fixEmptyAndTrim(target) != null) {
+            this.requests.add(new MergeRequest(format, pattern.trim(), target.trim()));
+        }
+    }
+
+    @Override
+    protected Boolean run() throws Exception {
+        final FilePath workspace = getContext().get(FilePath.class);
+        final TaskListener listener = getContext().get(TaskListener.class);
+
+        // Merge on the agent where the artifacts were written.
+        workspace.act(new MergeFiles(this.requests, listener));
+        return true;
+    }
+
+    private enum Format {
+        JUNIT, TAP, COBERTURA;
+
+        void merge(List<File> files, File target) throws IOException {
+            switch (this) {
+                case JUNIT:
+                    TestResultsMerger.mergeJUnit(files, target);
+                    break;
+                case TAP:
+                    TestResultsMerger.mergeTAP(files, target);
+                    break;
+                default:
+                    TestResultsMerger.mergeCobertura(files, target);
+                    break;
+            }
+        }
+    }
+
+    private static class MergeRequest implements Serializable {
+        private static final long serialVersionUID = 5017404564302167410L;
+
+        private final Format format;
+        private final String pattern;
+        private final String target;
+
+        MergeRequest(Format format, String pattern, String target) {
+            this.format = format;
+            this.pattern = pattern;
+            this.target = target;
+        }
+    }
+
+    private static class MergeFiles extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 8224806187526330148L;
+
+        private final List<MergeRequest> requests;
+        private final TaskListener listener;
+
+        MergeFiles(List<MergeRequest> requests, TaskListener listener) {
+            this.requests = requests;
+            this.listener = listener;
+        }
+
+        @Override
+        public Void invoke(File workspace, VirtualChannel channel)
+                throws IOException, InterruptedException {
+            for (MergeRequest request : this.requests) {
+                final File target = new File(workspace, request.target);
+                final List<File> files = findFiles(workspace, request.pattern, target);
+                if (files.isEmpty()) {
+                    this.listener.getLogger().println(
+                            Message.getValue("matlab.merge.results.no.files") + " "
+                                    + request.pattern);
+                    continue;
+                }
+                final File parent = target.getParentFile();
+                if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                    throw new IOException("Unable to create folder " + parent);
+                }
+                request.format.merge(files, target);
+                this.listener.getLogger()
+                        .println(String.format(Message.getValue("matlab.merge.results.merged"),
+                                files.size(), request.target));
+            }
+            return null;
+        }
+
+        /*
+         * Returns the files matching the pattern in a stable order, so that the merged reports
+         * list the shards in the same order on every run.
+         */
+        private List<File> findFiles(File workspace, String pattern, File target) {
+            final DirectoryScanner scanner =
+                    Util.createFileSet(workspace, pattern).getDirectoryScanner();
+            final String[] names = scanner.getIncludedFiles();
+            Arrays.sort(names);
+            final List<File> files = new ArrayList<>();
+            for (String name : names) {
+                final File file = new File(workspace, name);
+                if (!file.getAbsoluteFile().equals(target.getAbsoluteFile())) {
+                    files.add(file);
+                }
+            }
+            return files;
+        }
+    }
+}
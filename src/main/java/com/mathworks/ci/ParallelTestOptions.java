@@ -0,0 +1,50 @@
+package com.mathworks.ci;
+
+/**
+ * Copyright 2020 The MathWorks, Inc.
+ *
+ * Options to run the test suite in parallel on a pool of MATLAB workers. Without an explicit
+ * worker count, the pool gets one worker per processor core of the agent running the tests.
+ *
+ */
+
+import java.io.IOException;
+import hudson.Launcher;
+import hudson.remoting.VirtualChannel;
+import jenkins.security.MasterToSlaveCallable;
+
+public class ParallelTestOptions {
+
+    private static final String USE_PARALLEL = "UseParallel";
+    private static final String WORKER_COUNT = "WorkerCount";
+
+    private ParallelTestOptions() {
+
+    }
+
+    /*
+     * Returns the name-value pair arguments passed to runMatlabCiTests.m.
+     */
+    static String getInputArgs(Launcher launcher, int workerCount)
+            throws IOException, InterruptedException {
+        final int workers = workerCount > 0 ? workerCount : getCoreCount(launcher);
+        return "'" + USE_PARALLEL + "',true,'" + WORKER_COUNT + "'," + workers;
+    }
+
+    private static int getCoreCount(Launcher launcher) throws IOException, InterruptedException {
+        final VirtualChannel channel = launcher.getChannel();
+        if (channel == null) {
+            return 0;
+        }
+        return channel.call(new GetCoreCount());
+    }
+
+    private static class GetCoreCount extends MasterToSlaveCallable<Integer, IOException> {
+        private static final long serialVersionUID = 4310255317425542963L;
+
+        @Override
+        public Integer call() {
+            return Runtime.getRuntime().availableProcessors();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.mathworks.ci;
+
+/**
+ * Copyright 2020 The MathWorks, Inc.
+ *  
+ */
+
+import java.util.Set;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import com.google.common.collect.ImmutableSet;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+
+public class PreLaunchMatlabStep extends Step {
+
+    private int gracePeriod;
+
+    @DataBoundConstructor
+    public PreLaunchMatlabStep() {
+
+    }
+
+    public int getGracePeriod() {
+        return this.gracePeriod;
+    }
+
+    @DataBoundSetter
+    public void setGracePeriod(int gracePeriod) {
+        this.gracePeriod = gracePeriod;
+    }
+
+    @Override
+    public StepExecution start(StepContext context) throws Exception {
+        return new PreLaunchMatlabStepExecution(context, getGracePeriod());
+    }
+
+    @Extension
+    public static class PreLaunchMatlabDescriptor extends StepDescriptor {
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return ImmutableSet.of(TaskListener.class, FilePath.class, Launcher.class,
+                    EnvVars.class, Run.class);
+        }
+
+        @Override
+        public String getFunctionName() {
+            return Message.getValue("matlab.prelaunch.build.step.name");
+        }
+
+        @Override
+        public String getDisplayName() {
+            return Message.getValue("matlab.prelaunch.step.display.name");
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.mathworks.ci;
+
+/**
+ * Copyright 2020 The MathWorks, Inc.
+ *
+ * Starts a MATLAB session in the background and completes right away, so that MATLAB starts
+ * while the build checks out its sources. The next runMATLABCommand or runMATLABTests step on the
+ * node which uses the same MATLAB runs in that session.
+ *
+ */
+
+import java.util.concurrent.TimeUnit;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+
+public class PreLaunchMatlabStepExecution extends StepExecution implements MatlabBuild {
+
+    private static final long serialVersionUID = 2268307950167442741L;
+
+    private static final int DEFAULT_GRACE_PERIOD_MINUTES = 10;
+
+    private final int gracePeriod;
+
+    public PreLaunchMatlabStepExecution(StepContext context, int gracePeriod) {
+        super(context);
+        this.gracePeriod = gracePeriod > 0 ? gracePeriod : DEFAULT_GRACE_PERIOD_MINUTES;
+    }
+
+    @Override
+    public boolean start() throws Exception {
+        final Launcher launcher = getContext().get(Launcher.class);
+        final FilePath workspace = getContext().get(FilePath.class);
+        final TaskListener listener = getContext().get(TaskListener.class);
+        final EnvVars env = getContext().get(EnvVars.class);
+
+        listener.getLogger().println(
+                String.format(Message.getValue("matlab.prelaunch.starting"), this.gracePeriod));
+        MatlabSessionPool.getInstance().preLaunch(this, getContext().get(Run.class), workspace,
+                launcher, env, TimeUnit.MINUTES.toMillis(this.gracePeriod));
+
+        getContext().onSuccess(null);
+        return true;
+    }
+
+    @Override
+    public void stop(Throwable cause) throws Exception {
+        getContext().onFailure(cause);
+    }
+}
@@ -103,15 +103,16 @@ public class RunMatlabCommandBuilder extends Builder implements SimpleBuildStep,
         // Output Console
         
 
-        buildResult = execMatlabCommand(workspace, launcher, listener, getEnv());
+        buildResult = execMatlabCommand(build, workspace, launcher, listener, getEnv());
 
         if (buildResult != 0) {
             build.setResult(Result.FAILURE);
         }
     }
 
-    private synchronized int execMatlabCommand(FilePath workspace, Launcher launcher,
-            TaskListener listener, EnvVars envVars) throws IOException, InterruptedException {
+    private synchronized int execMatlabCommand(Run<?, ?> build, FilePath workspace,
+            Launcher launcher, TaskListener listener, EnvVars envVars)
+            throws IOException, InterruptedException {
         final String uniqueTmpFldrName = getUniqueNameForRunnerFile();
         final String uniqueCommandFile =
                 "command_" + getUniqueNameForRunnerFile().replaceAll("-", "_");
@@ -123,12 +124,29 @@ public class RunMatlabCommandBuilder extends Builder implements SimpleBuildStep,
         ProcStarter matlabLauncher;
 
         try {
+            // Run the command in a warm MATLAB session when one is available.
+            final MatlabSession session =
+                    leaseMatlabSession(build, workspace, launcher, listener, envVars);
+            if (session != null) {
+                listener.getLogger().println(
+                        "#################### Starting command output ####################");
+                try {
+                    return session.run(uniqeTmpFolderPath, uniqueCommandFile, envVars,
+                            listener);
+                } finally {
+                    MatlabSessionPool.getInstance().release(session);
+                }
+            }
+
             matlabLauncher = getProcessToRunMatlabCommand(workspace, launcher, listener, envVars,
                     uniqueCommandFile, uniqueTmpFldrName);
             launcher.launch().pwd(uniqeTmpFolderPath).envs(envVars);
             listener.getLogger()
                     .println("#################### Starting command output ####################");
-            return matlabLauncher.pwd(uniqeTmpFolderPath).join();
+            try (MatlabAdmission.Permit permit = admitMatlab(workspace, listener);
+                    MatlabLicensePools.Licenses licenses = acquireLicenses(null, listener)) {
+                return matlabLauncher.pwd(uniqeTmpFolderPath).join();
+            }
 
         } catch (Exception e) {
             listener.getLogger().println(e.getMessage());
@@ -11,6 +11,7 @@ import org.jenkinsci.plugins.workflow.steps.StepContext;
 import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
 import org.jenkinsci.plugins.workflow.steps.StepExecution;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import com.google.common.collect.ImmutableSet;
 import hudson.EnvVars;
 import hudson.Extension;
@@ -23,6 +24,12 @@ public class RunMatlabCommandStep extends Step {
 
     
     private String command;
+    private boolean durable;
+    private int timeout;
+    private int idleTimeout;
+    private String licensePools;
+    private String logPolicy;
+    private int logLimit;
 
     @DataBoundConstructor
     public RunMatlabCommandStep(String command) {
@@ -34,9 +41,69 @@ public class RunMatlabCommandStep extends Step {
         return this.command;
     }
 
+    public boolean getDurable() {
+        return this.durable;
+    }
+
+    @DataBoundSetter
+    public void setDurable(boolean durable) {
+        this.durable = durable;
+    }
+
+    public int getTimeout() {
+        return this.timeout;
+    }
+
+    @DataBoundSetter
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    public int getIdleTimeout() {
+        return this.idleTimeout;
+    }
+
+    @DataBoundSetter
+    public void setIdleTimeout(int idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public String getLicensePools() {
+        return this.licensePools;
+    }
+
+    @DataBoundSetter
+    public void setLicensePools(String licensePools) {
+        this.licensePools = licensePools;
+    }
+
+    public String getLogPolicy() {
+        return this.logPolicy;
+    }
+
+    @DataBoundSetter
+    public void setLogPolicy(String logPolicy) {
+        this.logPolicy = logPolicy;
+    }
+
+    public int getLogLimit() {
+        return this.logLimit;
+    }
+
+    @DataBoundSetter
+    public void setLogLimit(int logLimit) {
+        this.logLimit = logLimit;
+    }
+
     @Override
     public StepExecution start(StepContext context) throws Exception {
-        return new MatlabCommandStepExecution(context, getCommand());
+        final MatlabCommandStepExecution execution =
+                new MatlabCommandStepExecution(context, getCommand());
+        execution.setDurable(getDurable());
+        execution.setTimeouts(getTimeout(), getIdleTimeout());
+        execution.setLicensePools(getLicensePools());
+        execution.setLogPolicy(MatlabLogPolicy.parse(getLogPolicy(), getLogLimit()));
+        return execution;
     }
 
     @Extension
@@ -54,6 +54,33 @@ public class RunMatlabTestsBuilder extends Builder implements SimpleBuildStep, M
     private Artifact stmResultsArtifact = new NullArtifact();
     private Artifact modelCoverageArtifact = new NullArtifact();
     private Artifact pdfReportArtifact = new NullArtifact();
+
+    private String shardIndex;
+    private String shardCount;
+
+    private boolean useParallel;
+    private int workerCount;
+
+    private boolean selectAffectedTests;
+    private int fullRunInterval;
+
+    private boolean reportProgress;
+
+    private int failFast;
+
+    private int retryFailed;
+
+    private String sourceFolder;
+    private String selectByFolder;
+    private String excludeFolders;
+    private String coverageSourceFolder;
+    private String coverageExcludeFolders;
+
+    private boolean publishTestResults;
+
+    private boolean convertResultsOnAgent;
+
+    private boolean deferPdfReport;
    
     @DataBoundConstructor
     public RunMatlabTestsBuilder() {
@@ -94,6 +121,159 @@ public class RunMatlabTestsBuilder extends Builder implements SimpleBuildStep, M
         this.pdfReportArtifact = pdfReportArtifact;
     }
     
+    @DataBoundSetter
+    public void setShardIndex(String shardIndex) {
+        this.shardIndex = shardIndex;
+    }
+
+    @DataBoundSetter
+    public void setShardCount(String shardCount) {
+        this.shardCount = shardCount;
+    }
+
+    public String getShardIndex() {
+        return this.shardIndex;
+    }
+
+    public String getShardCount() {
+        return this.shardCount;
+    }
+
+    @DataBoundSetter
+    public void setUseParallel(boolean useParallel) {
+        this.useParallel = useParallel;
+    }
+
+    @DataBoundSetter
+    public void setWorkerCount(int workerCount) {
+        this.workerCount = workerCount;
+    }
+
+    public boolean getUseParallel() {
+        return this.useParallel;
+    }
+
+    public int getWorkerCount() {
+        return this.workerCount;
+    }
+
+    @DataBoundSetter
+    public void setSelectAffectedTests(boolean selectAffectedTests) {
+        this.selectAffectedTests = selectAffectedTests;
+    }
+
+    @DataBoundSetter
+    public void setFullRunInterval(int fullRunInterval) {
+        this.fullRunInterval = fullRunInterval;
+    }
+
+    public boolean getSelectAffectedTests() {
+        return this.selectAffectedTests;
+    }
+
+    public int getFullRunInterval() {
+        return this.fullRunInterval;
+    }
+
+    @DataBoundSetter
+    public void setReportProgress(boolean reportProgress) {
+        this.reportProgress = reportProgress;
+    }
+
+    public boolean getReportProgress() {
+        return this.reportProgress;
+    }
+
+    @DataBoundSetter
+    public void setFailFast(int failFast) {
+        this.failFast = failFast;
+    }
+
+    public int getFailFast() {
+        return this.failFast;
+    }
+
+    @DataBoundSetter
+    public void setRetryFailed(int retryFailed) {
+        this.retryFailed = retryFailed;
+    }
+
+    public int getRetryFailed() {
+        return this.retryFailed;
+    }
+
+    @DataBoundSetter
+    public void setSourceFolder(String sourceFolder) {
+        this.sourceFolder = sourceFolder;
+    }
+
+    @DataBoundSetter
+    public void setSelectByFolder(String selectByFolder) {
+        this.selectByFolder = selectByFolder;
+    }
+
+    @DataBoundSetter
+    public void setExcludeFolders(String excludeFolders) {
+        this.excludeFolders = excludeFolders;
+    }
+
+    public String getSourceFolder() {
+        return this.sourceFolder;
+    }
+
+    public String getSelectByFolder() {
+        return this.selectByFolder;
+    }
+
+    public String getExcludeFolders() {
+        return this.excludeFolders;
+    }
+
+    @DataBoundSetter
+    public void setCoverageSourceFolder(String coverageSourceFolder) {
+        this.coverageSourceFolder = coverageSourceFolder;
+    }
+
+    @DataBoundSetter
+    public void setCoverageExcludeFolders(String coverageExcludeFolders) {
+        this.coverageExcludeFolders = coverageExcludeFolders;
+    }
+
+    public String getCoverageSourceFolder() {
+        return this.coverageSourceFolder;
+    }
+
+    public String getCoverageExcludeFolders() {
+        return this.coverageExcludeFolders;
+    }
+
+    @DataBoundSetter
+    public void setPublishTestResults(boolean publishTestResults) {
+        this.publishTestResults = publishTestResults;
+    }
+
+    public boolean getPublishTestResults() {
+        return this.publishTestResults;
+    }
+
+    @DataBoundSetter
+    public void setConvertResultsOnAgent(boolean convertResultsOnAgent) {
+        this.convertResultsOnAgent = convertResultsOnAgent;
+    }
+
+    public boolean getConvertResultsOnAgent() {
+        return this.convertResultsOnAgent;
+    }
+
+    @DataBoundSetter
+    public void setDeferPdfReport(boolean deferPdfReport) {
+        this.deferPdfReport = deferPdfReport;
+    }
+
+    public boolean getDeferPdfReport() {
+        return this.deferPdfReport;
+    }
+
     public String getTapReportFilePath() {
         return this.getTapArtifact().getFilePath();
     }      
@@ -226,38 +406,150 @@ public class RunMatlabTestsBuilder extends Builder implements SimpleBuildStep, M
         // Invoke MATLAB command and transfer output to standard
         // Output Console
 
-        buildResult = execMatlabCommand(workspace, launcher, listener, getEnv());
+        final TestRun testRun = execMatlabCommand(build, workspace, launcher, listener, getEnv());
+        buildResult = testRun.exitCode;
+
+        // Keep the test durations of this run for balancing later sharded runs.
+        if (getJunitReportFilePath() != null) {
+            TestDurationStore.recordResults(build, workspace.child(getJunitReportFilePath()),
+                    listener);
+        }
 
         if (buildResult != 0) {
             build.setResult(Result.FAILURE);
+        } else if (testRun.flaky) {
+            // Tests passed only when run again.
+            build.setResult(Result.UNSTABLE);
         }
     }
 
-    private synchronized int execMatlabCommand(FilePath workspace, Launcher launcher,
-            TaskListener listener, EnvVars envVars) throws IOException, InterruptedException {
+    private synchronized TestRun execMatlabCommand(Run<?, ?> build, FilePath workspace,
+            Launcher launcher, TaskListener listener, EnvVars envVars)
+            throws IOException, InterruptedException {
         final String uniqueTmpFldrName = getUniqueNameForRunnerFile();
+        final FilePath uniqueTmpFolder =
+                getFilePathForUniqueFolder(launcher, uniqueTmpFldrName, workspace);
+        final TestImpactSelection selection =
+                getSelectAffectedTests() ? new TestImpactSelection(getFullRunInterval()) : null;
+        int exitCode = 1;
+        boolean flaky = false;
         ProcStarter matlabLauncher;
+        TestEventStream events = null;
+        FilePath reportFolder = null;
         try {
+            // MATLAB test runner is shared by all builds on the node.
+            final FilePath runnerFolder = getTestRunnerFolder(workspace, launcher);
+            final List<String> runArgs = new ArrayList<String>();
+
+            final TestShard shard = TestShard.parse(envVars.expand(getShardIndex()),
+                    envVars.expand(getShardCount()));
+            if (shard != null) {
+                runArgs.add(shard.getInputArgs());
+                // Balance the shards by the durations of earlier runs when they are known.
+                final FilePath durationsFile =
+                        TestDurationStore.writeDurations(build, uniqueTmpFolder);
+                if (durationsFile != null) {
+                    runArgs.add(TestShard.getDurationsArg(durationsFile));
+                }
+            }
+            if (getUseParallel()) {
+                runArgs.add(ParallelTestOptions.getInputArgs(launcher, getWorkerCount()));
+            }
+            if (getFailFast() > 0) {
+                runArgs.add("'FailFast'," + getFailFast());
+            }
+            final String folderArgs = TestFolderOptions.getInputArgs(getSourceFolder(),
+                    getSelectByFolder(), getExcludeFolders());
+            if (folderArgs != null) {
+                runArgs.add(folderArgs);
+            }
+            // Run failed tests again in the same session.
+            if (getRetryFailed() > 0) {
+                runArgs.add(TestRetries.getInputArgs(getRetryFailed(), uniqueTmpFolder));
+            }
+            // Published results are read from a JUnit report.
+            if (getPublishTestResults() && getJunitReportFilePath() == null) {
+                runArgs.add(MatlabTestResultsAction.getInputArgs(uniqueTmpFolder));
+            }
+            // Let Jenkins write the TAP and JUnit reports after MATLAB has exited.
+            final boolean convertResults = getConvertResultsOnAgent()
+                    && (getTapReportFilePath() != null || getJunitReportFilePath() != null
+                            || getPublishTestResults());
+            if (convertResults) {
+                runArgs.add(TestResultsConverter.getInputArgs(uniqueTmpFolder));
+            }
+            // Render the PDF test report after MATLAB has exited.
+            if (getDeferPdfReport() && getPdfReportFilePath() != null) {
+                reportFolder = DeferredTestReport.getFolder(uniqueTmpFolder);
+                runArgs.add(DeferredTestReport.getInputArgs(reportFolder));
+            }
+            // Run only the tests affected by changed files.
+            if (selection != null) {
+                runArgs.add(selection.prepare(build, uniqueTmpFolder, listener));
+            }
+            // Show the progress of the tests on the build page while they run.
+            if (getReportProgress()) {
+                runArgs.add(TestEventStream.getInputArgs(uniqueTmpFolder));
+                events = TestEventStream.follow(build, uniqueTmpFolder);
+            }
+
             matlabLauncher = getProcessToRunMatlabCommand(workspace, launcher, listener, envVars,
-                    constructCommandForTest(getInputArguments()), uniqueTmpFldrName);
-            
-            // Copy MATLAB scratch file into the workspace.
-            FilePath targetWorkspace = new FilePath(launcher.getChannel(), workspace.getRemote());
-            copyFileInWorkspace(MatlabBuilderConstants.MATLAB_TESTS_RUNNER_RESOURCE,
-                    MatlabBuilderConstants.MATLAB_TESTS_RUNNER_TARGET_FILE, targetWorkspace);
-
-            return matlabLauncher.pwd(workspace).join();
+                    addFolderToPath(runnerFolder,
+                            constructCommandForTest(getInputArguments(runArgs))),
+                    uniqueTmpFldrName);
+
+            try (MatlabAdmission.Permit permit = admitMatlab(workspace, listener);
+                    MatlabLicensePools.Licenses licenses = acquireLicenses(null, listener)) {
+                exitCode = matlabLauncher.pwd(workspace).join();
+            }
         } catch (Exception e) {
             listener.getLogger().println(e.getMessage());
-            return 1;
         } finally {
+            if (events != null) {
+                events.close();
+            }
+            final FilePath junitResults = getJunitReportFilePath() != null
+                    ? workspace.child(getJunitReportFilePath())
+                    : getPublishTestResults() ? new FilePath(uniqueTmpFolder,
+                            MatlabTestResultsAction.JUNIT_RESULTS_FILE) : null;
+            if (getConvertResultsOnAgent()) {
+                TestResultsConverter.convert(uniqueTmpFolder,
+                        getTapReportFilePath() == null ? null
+                                : workspace.child(getTapReportFilePath()),
+                        junitResults, listener);
+            }
+            if (getRetryFailed() > 0) {
+                flaky = TestRetries.record(uniqueTmpFolder, junitResults, listener);
+            }
+            if (getPublishTestResults()) {
+                MatlabTestResultsAction.publish(build, junitResults, listener);
+            }
+            if (reportFolder != null) {
+                DeferredTestReport.schedule(build, this, envVars, reportFolder, listener);
+            }
+            if (selection != null) {
+                selection.update(build, uniqueTmpFolder, listener);
+            }
+
             // Cleanup the runner File from tmp directory
-            FilePath matlabRunnerScript =
-                    getFilePathForUniqueFolder(launcher, uniqueTmpFldrName, workspace);
-            if (matlabRunnerScript.exists()) {
-                matlabRunnerScript.deleteRecursive();
+            if (uniqueTmpFolder.exists()) {
+                uniqueTmpFolder.deleteRecursive();
             }
         }
+        return new TestRun(exitCode, flaky);
+    }
+
+    /*
+     * Outcome of one run of the tests. Tests are flaky if they failed but passed when run again.
+     */
+    private static class TestRun {
+        private final int exitCode;
+        private final boolean flaky;
+
+        TestRun(int exitCode, boolean flaky) {
+            this.exitCode = exitCode;
+            this.flaky = flaky;
+        }
     }
 
     public String constructCommandForTest(String inputArguments) {
@@ -268,7 +560,7 @@ public class RunMatlabTestsBuilder extends Builder implements SimpleBuildStep, M
     }
 
     // Concatenate the input arguments
-    private String getInputArguments() {
+    private String getInputArguments(List<String> runArgs) {
 
         final List<String> inputArgsList = new ArrayList<String>();
         final Map<String,String> args = new HashMap<String,String>();
@@ -284,6 +576,16 @@ public class RunMatlabTestsBuilder extends Builder implements SimpleBuildStep, M
 
         args.forEach((key, val) -> inputArgsList.add("'" + key + "'" + "," + "'" + val + "'"));
 
+        // Measure code coverage only in the given folders.
+        final String coverageArgs = getCoberturaReportFilePath() == null ? null
+                : TestFolderOptions.getCoverageInputArgs(getCoverageSourceFolder(),
+                        getCoverageExcludeFolders());
+        if (coverageArgs != null) {
+            inputArgsList.add(coverageArgs);
+        }
+
+        inputArgsList.addAll(runArgs);
+
         return String.join(",", inputArgsList);
     }
 
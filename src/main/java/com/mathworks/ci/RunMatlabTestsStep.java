@@ -1,11 +1,4 @@
 package com.mathworks.ci;
-/**
- * Copyright 2020 The MathWorks, Inc.
- *  
- */
-import java.io.IOException;
-import java.io.InputStream;
-
 /**
  * Copyright 2020 The MathWorks, Inc.
  *  
@@ -39,6 +32,29 @@ public class RunMatlabTestsStep extends Step {
     private String codeCoverageCobertura;
     private String testResultsSimulinkTest;
     private String modelCoverageCobertura;
+    private String shardIndex;
+    private String shardCount;
+    private boolean useParallel;
+    private int workerCount;
+    private boolean selectAffectedTests;
+    private int fullRunInterval;
+    private boolean durable;
+    private int timeout;
+    private int idleTimeout;
+    private String licensePools;
+    private String logPolicy;
+    private int logLimit;
+    private boolean reportProgress;
+    private int failFast;
+    private int retryFailed;
+    private String sourceFolder;
+    private String selectByFolder;
+    private String excludeFolders;
+    private String coverageSourceFolder;
+    private String coverageExcludeFolders;
+    private boolean publishTestResults;
+    private boolean convertResultsOnAgent;
+    private boolean deferPdfReport;
   
 
     @DataBoundConstructor
@@ -101,17 +117,237 @@ public class RunMatlabTestsStep extends Step {
         this.modelCoverageCobertura = modelCoverageCobertura;
     }
 
+    public String getShardIndex() {
+        return shardIndex;
+    }
+
+    @DataBoundSetter
+    public void setShardIndex(String shardIndex) {
+        this.shardIndex = shardIndex;
+    }
+
+    public String getShardCount() {
+        return shardCount;
+    }
+
+    @DataBoundSetter
+    public void setShardCount(String shardCount) {
+        this.shardCount = shardCount;
+    }
+
+
+    public boolean getUseParallel() {
+        return useParallel;
+    }
+
+    @DataBoundSetter
+    public void setUseParallel(boolean useParallel) {
+        this.useParallel = useParallel;
+    }
+
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    @DataBoundSetter
+    public void setWorkerCount(int workerCount) {
+        this.workerCount = workerCount;
+    }
+
+    public boolean getSelectAffectedTests() {
+        return selectAffectedTests;
+    }
+
+    @DataBoundSetter
+    public void setSelectAffectedTests(boolean selectAffectedTests) {
+        this.selectAffectedTests = selectAffectedTests;
+    }
+
+    public int getFullRunInterval() {
+        return fullRunInterval;
+    }
+
+    @DataBoundSetter
+    public void setFullRunInterval(int fullRunInterval) {
+        this.fullRunInterval = fullRunInterval;
+    }
+
+    public boolean getDurable() {
+        return durable;
+    }
+
+    @DataBoundSetter
+    public void setDurable(boolean durable) {
+        this.durable = durable;
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    @DataBoundSetter
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    public int getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    @DataBoundSetter
+    public void setIdleTimeout(int idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public String getLicensePools() {
+        return licensePools;
+    }
+
+    @DataBoundSetter
+    public void setLicensePools(String licensePools) {
+        this.licensePools = licensePools;
+    }
+
+    public boolean getReportProgress() {
+        return reportProgress;
+    }
+
+    @DataBoundSetter
+    public void setReportProgress(boolean reportProgress) {
+        this.reportProgress = reportProgress;
+    }
+
+    public int getFailFast() {
+        return failFast;
+    }
+
+    @DataBoundSetter
+    public void setFailFast(int failFast) {
+        this.failFast = failFast;
+    }
+
+    public int getRetryFailed() {
+        return retryFailed;
+    }
+
+    @DataBoundSetter
+    public void setRetryFailed(int retryFailed) {
+        this.retryFailed = retryFailed;
+    }
+
+    public String getSourceFolder() {
+        return sourceFolder;
+    }
+
+    @DataBoundSetter
+    public void setSourceFolder(String sourceFolder) {
+        this.sourceFolder = sourceFolder;
+    }
+
+    public String getSelectByFolder() {
+        return selectByFolder;
+    }
+
+    @DataBoundSetter
+    public void setSelectByFolder(String selectByFolder) {
+        this.selectByFolder = selectByFolder;
+    }
+
+    public String getExcludeFolders() {
+        return excludeFolders;
+    }
+
+    @DataBoundSetter
+    public void setExcludeFolders(String excludeFolders) {
+        this.excludeFolders = excludeFolders;
+    }
+
+    public String getCoverageSourceFolder() {
+        return coverageSourceFolder;
+    }
+
+    @DataBoundSetter
+    public void setCoverageSourceFolder(String coverageSourceFolder) {
+        this.coverageSourceFolder = coverageSourceFolder;
+    }
+
+    public String getCoverageExcludeFolders() {
+        return coverageExcludeFolders;
+    }
+
+    @DataBoundSetter
+    public void setCoverageExcludeFolders(String coverageExcludeFolders) {
+        this.coverageExcludeFolders = coverageExcludeFolders;
+    }
+
+    public boolean getPublishTestResults() {
+        return publishTestResults;
+    }
+
+    @DataBoundSetter
+    public void setPublishTestResults(boolean publishTestResults) {
+        this.publishTestResults = publishTestResults;
+    }
+
+    public boolean getConvertResultsOnAgent() {
+        return convertResultsOnAgent;
+    }
+
+    @DataBoundSetter
+    public void setConvertResultsOnAgent(boolean convertResultsOnAgent) {
+        this.convertResultsOnAgent = convertResultsOnAgent;
+    }
+
+    public boolean getDeferPdfReport() {
+        return deferPdfReport;
+    }
+
+    @DataBoundSetter
+    public void setDeferPdfReport(boolean deferPdfReport) {
+        this.deferPdfReport = deferPdfReport;
+    }
+
+    public String getLogPolicy() {
+        return this.logPolicy;
+    }
+
+    @DataBoundSetter
+    public void setLogPolicy(String logPolicy) {
+        this.logPolicy = logPolicy;
+    }
+
+    public int getLogLimit() {
+        return this.logLimit;
+    }
+
+    @DataBoundSetter
+    public void setLogLimit(int logLimit) {
+        this.logLimit = logLimit;
+    }
 
     @Override
     public StepExecution start(StepContext context) throws Exception {
-        Launcher launcher = context.get(Launcher.class);
-        FilePath workspace = context.get(FilePath.class);
-        
-        //Copy Scratch file needed to run MATLAB tests in workspace
-        FilePath targetWorkspace = new FilePath(launcher.getChannel(), workspace.getRemote());
-        copyScratchFileInWorkspace(MatlabBuilderConstants.MATLAB_TESTS_RUNNER_RESOURCE,
-                MatlabBuilderConstants.MATLAB_TESTS_RUNNER_TARGET_FILE, targetWorkspace);
-        return new MatlabRunTestsStepExecution(context,constructCommandForTest(getInputArgs()));
+        final EnvVars env = context.get(EnvVars.class);
+        final TestShard shard =
+                TestShard.parse(env.expand(getShardIndex()), env.expand(getShardCount()));
+        final MatlabRunTestsStepExecution execution = new MatlabRunTestsStepExecution(context,
+                constructCommandForTest(getInputArgs(shard)), shard,
+                getTestResultsJUnit(), getSelectAffectedTests()
+                        ? new TestImpactSelection(getFullRunInterval())
+                        : null);
+        execution.setDurable(getDurable());
+        execution.setTimeouts(getTimeout(), getIdleTimeout());
+        execution.setLicensePools(getLicensePools());
+        execution.setLogPolicy(MatlabLogPolicy.parse(getLogPolicy(), getLogLimit()));
+        execution.setReportProgress(getReportProgress());
+        execution.setRetryFailed(getRetryFailed());
+        execution.setUseParallel(getUseParallel(), getWorkerCount());
+        execution.setPublishTestResults(getPublishTestResults());
+        execution.setConvertResults(getConvertResultsOnAgent() && (getTestResultsTAP() != null
+                || getTestResultsJUnit() != null || getPublishTestResults()),
+                getTestResultsTAP());
+        execution.setDeferPdfReport(getDeferPdfReport() && getTestResultsPDF() != null);
+        return execution;
     }
     
     @Extension
@@ -142,7 +378,7 @@ public class RunMatlabTestsStep extends Step {
     }
 
     
-    private String getInputArgs() {
+    private String getInputArgs(TestShard shard) {
         final List<String> inputArgs = new ArrayList<>();
         final Map<String, String> args = getMatlabArgs();
 
@@ -152,6 +388,27 @@ public class RunMatlabTestsStep extends Step {
             }
         });
 
+        if (shard != null) {
+            inputArgs.add(shard.getInputArgs());
+        }
+
+        if (getFailFast() > 0) {
+            inputArgs.add("'FailFast'," + getFailFast());
+        }
+
+        final String folderArgs = TestFolderOptions.getInputArgs(getSourceFolder(),
+                getSelectByFolder(), getExcludeFolders());
+        if (folderArgs != null) {
+            inputArgs.add(folderArgs);
+        }
+
+        final String coverageArgs = getCodeCoverageCobertura() == null ? null
+                : TestFolderOptions.getCoverageInputArgs(getCoverageSourceFolder(),
+                        getCoverageExcludeFolders());
+        if (coverageArgs != null) {
+            inputArgs.add(coverageArgs);
+        }
+
         if (inputArgs.isEmpty()) {
             return "";
         }
@@ -169,17 +426,4 @@ public class RunMatlabTestsStep extends Step {
         args.put("CoberturaModelCoveragePath", getModelCoverageCobertura());
         return args;
     }
-    
-    /*
-     * Method to copy given file from source to target node specific workspace.
-     */
-    private void copyScratchFileInWorkspace(String sourceFile, String targetFile, FilePath targetWorkspace)
-            throws IOException, InterruptedException {
-        final ClassLoader classLoader = getClass().getClassLoader();
-        FilePath targetFilePath = new FilePath(targetWorkspace, targetFile);
-        InputStream in = classLoader.getResourceAsStream(sourceFile);
-        targetFilePath.copyFrom(in);
-        // set executable permission
-        targetFilePath.chmod(0755);
-    }
 }
@@ -0,0 +1,119 @@
+package com.mathworks.ci;
+
+/**
+ * Copyright 2020 The MathWorks, Inc.
+ *
+ * Materializes plugin resources such as the MATLAB runner scripts once per node. The resources are
+ * written into a folder of the node specific tmp directory named after the hash of their content,
+ * so all executors of the node share the same copy and a plugin update simply results in a new
+ * folder. A marker file written last tells whether the folder is complete.
+ *
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.IOUtils;
+import hudson.FilePath;
+
+public class RunnerScriptCache {
+
+    private static final String CACHE_FOLDER_PREFIX = "matlab_ci_";
+    private static final String COMPLETE_MARKER = ".complete";
+    private static final int HASH_LENGTH = 16;
+
+    private static final Map<List<String>, ResourceBundle> BUNDLES = new ConcurrentHashMap<>();
+
+    /*
+     * Returns the folder in the given tmp directory which holds the given resources, writing the
+     * resources first if the node does not have them yet.
+     */
+    static FilePath getFolder(FilePath tmpFolder, String... resources)
+            throws IOException, InterruptedException {
+        final ResourceBundle bundle;
+        try {
+            bundle = BUNDLES.computeIfAbsent(Arrays.asList(resources), ResourceBundle::load);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        final FilePath folder = new FilePath(tmpFolder, CACHE_FOLDER_PREFIX + bundle.hash);
+        if (new FilePath(folder, COMPLETE_MARKER).exists()) {
+            return folder;
+        }
+
+        // Write into a private folder first and publish it by renaming, so that concurrent builds
+        // never see a partially written folder.
+        final FilePath staging = new FilePath(tmpFolder,
+                CACHE_FOLDER_PREFIX + bundle.hash + "_" + UUID.randomUUID().toString());
+        staging.mkdirs();
+        try {
+            for (Map.Entry<String, byte[]> resource : bundle.contents.entrySet()) {
+                final FilePath target = new FilePath(staging, resource.getKey());
+                target.copyFrom(new ByteArrayInputStream(resource.getValue()));
+                // set executable permission
+                target.chmod(0755);
+            }
+            new FilePath(staging, COMPLETE_MARKER).touch(System.currentTimeMillis());
+            staging.renameTo(folder);
+        } catch (IOException e) {
+            // Another build may have published the same folder in the meantime.
+            if (!new FilePath(folder, COMPLETE_MARKER).exists()) {
+                throw e;
+            }
+        } finally {
+            if (staging.exists()) {
+                staging.deleteRecursive();
+            }
+        }
+        return folder;
+    }
+
+    private static class ResourceBundle {
+        private final Map<String, byte[]> contents;
+        private final String hash;
+
+        private ResourceBundle(Map<String, byte[]> contents, String hash) {
+            this.contents = contents;
+            this.hash = hash;
+        }
+
+        private static ResourceBundle load(List<String> resources) {
+            final ClassLoader classLoader = RunnerScriptCache.class.getClassLoader();
+            final Map<String, byte[]> contents = new LinkedHashMap<>();
+            try {
+                final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                for (String resource : resources) {
+                    final byte[] content;
+                    try (InputStream in = classLoader.getResourceAsStream(resource)) {
+                        if (in == null) {
+                            throw new IOException("Resource not found: " + resource);
+                        }
+                        content = IOUtils.toByteArray(in);
+                    }
+                    final String fileName = resource.substring(resource.lastIndexOf('/') + 1);
+                    contents.put(fileName, content);
+                    digest.update(fileName.getBytes("UTF-8"));
+                    digest.update(content);
+                }
+                final String hash =
+                        Hex.encodeHexString(digest.digest()).substring(0, HASH_LENGTH);
+                return new ResourceBundle(contents, hash);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.mathworks.ci;
+
+/**
+ * Copyright 2020 The MathWorks, Inc.
+ * 
+ * Remembers the scratch folder of each computer so that MATLAB steps do not have to ask the agent
+ * for its tmp directory on every run. The folder configured in the MATLAB node property takes
+ * precedence. Cached folders are forgotten when an agent goes offline or connects again.
+ * 
+ */
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.slaves.ComputerListener;
+import hudson.slaves.OfflineCause;
+import jenkins.security.MasterToSlaveCallable;
+
+public class ScratchFolderCache {
+
+    private static final Map<String, String> TMP_FOLDERS = new ConcurrentHashMap<>();
+
+    static String getScratchFolder(Computer cmp) throws IOException, InterruptedException {
+        final Node node = cmp.getNode();
+        if (node != null) {
+            final MatlabNodeProperty property =
+                    node.getNodeProperties().get(MatlabNodeProperty.class);
+            if (property != null && property.getScratchFolder() != null) {
+                return property.getScratchFolder();
+            }
+        }
+
+        String tmpDir = TMP_FOLDERS.get(cmp.getName());
+        if (tmpDir == null) {
+            final VirtualChannel channel = cmp.getChannel();
+            if (channel == null) {
+                throw new IOException(Message.getValue("build.workspace.computer.not.found"));
+            }
+            tmpDir = channel.call(new GetTmpDir());
+            TMP_FOLDERS.put(cmp.getName(), tmpDir);
+        }
+        return tmpDir;
+    }
+
+    static void invalidate(Computer cmp) {
+        TMP_FOLDERS.remove(cmp.getName());
+    }
+
+    private static class GetTmpDir extends MasterToSlaveCallable<String, IOException> {
+        private static final long serialVersionUID = 3326846436227335853L;
+
+        @Override
+        public String call() throws IOException {
+            return System.getProperty("java.io.tmpdir");
+        }
+    }
+
+    @Extension
+    public static class CacheInvalidator extends ComputerListener {
+
+        @Override
+        public void onOnline(Computer c, TaskListener listener) {
+            invalidate(c);
+        }
+
+        @Override
+        public void onOffline(Computer c, OfflineCause cause) {
+            invalidate(c);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.mathworks.ci;
+
+/**
+ * Copyright 2020 The MathWorks, Inc.
+ *
+ * Per job store of test durations measured in earlier builds. Durations are read from the JUnit
+ * results of each run and kept in a small text file in the job folder on the controller. Sharded
+ * test runs pass them to the test runner so that tests can be split by duration instead of count.
+ *
+ * All shards of a build must split the suite the same way, so every build reads one snapshot of
+ * the store taken when its first shard starts, unaffected by shards which finish meanwhile. The
+ * snapshot is kept in the build folder, so that it survives a restart of the controller.
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import hudson.FilePath;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.util.AtomicFileWriter;
+import jenkins.MasterToSlaveFileCallable;
+
+public class TestDurationStore {
+
+    private static final String STORE_FILE = "matlabTestDurations.txt";
+    private static final String SNAPSHOT_FILE = "matlabTestDurationsSnapshot.txt";
+    private static final String DURATIONS_FILE = "testDurations.txt";
+
+    // Weight of the latest measurement, older measurements decay geometrically.
+    private static final double SMOOTHING = 0.5;
+
+    private static final Map<File, TestDurationStore> STORES = new ConcurrentHashMap<>();
+    private static final Object SNAPSHOT_LOCK = new Object();
+
+    private final File storeFile;
+    private Map<String, Double> durations;
+
+    private TestDurationStore(File jobDir) {
+        this.storeFile = new File(jobDir, STORE_FILE);
+    }
+
+    /*
+     * Returns the store of the job the run belongs to. Runs of a multi-configuration project
+     * share the store of the project, so that shards running as configurations agree.
+     */
+    static TestDurationStore forRun(Run<?, ?> run) {
+        final Job<?, ?> job = getJob(run);
+        return STORES.computeIfAbsent(job.getRootDir(), TestDurationStore::new);
+    }
+
+    static Job<?, ?> getJob(Run<?, ?> run) {
+        final Job<?, ?> job = run.getParent();
+        if (job.getParent() instanceof Job) {
+            return (Job<?, ?>) job.getParent();
+        }
+        return job;
+    }
+
+    /*
+     * Returns the build whose shards split the suite together. Runs of a multi-configuration
+     * project belong to the build of the project with the same number.
+     */
+    static Run<?, ?> getBuild(Run<?, ?> run) {
+        final Job<?, ?> job = run.getParent();
+        if (job.getParent() instanceof Job) {
+            final Run<?, ?> build = ((Job<?, ?>) job.getParent()).getBuildByNumber(run.getNumber());
+            if (build != null) {
+                return build;
+            }
+        }
+        return run;
+    }
+
+    /*
+     * Writes the durations known when the build started into the given folder on the node and
+     * returns the file, or null if there are no durations yet.
+     */
+    static FilePath writeDurations(Run<?, ?> run, FilePath folder)
+            throws IOException, InterruptedException {
+        final Map<String, Double> snapshot = getSnapshot(run);
+        if (snapshot.isEmpty()) {
+            return null;
+        }
+        final FilePath durationsFile = new FilePath(folder, DURATIONS_FILE);
+        durationsFile.write(format(snapshot), "UTF-8");
+        return durationsFile;
+    }
+
+    /*
+     * Reads the durations from the JUnit results of a run and adds them to the store. Failures
+     * are only reported, they must not affect the result of the build.
+     */
+    static void recordResults(Run<?, ?> run, FilePath junitResults, TaskListener listener)
+            throws InterruptedException {
+        try {
+            if (!junitResults.exists()) {
+                return;
+            }
+            final Map<String, Double> measured = junitResults.act(new ReadTestDurations());
+            if (!measured.isEmpty()) {
+                forRun(run).record(measured);
+            }
+        } catch (IOException e) {
+            listener.getLogger().println(
+                    Message.getValue("matlab.tests.durations.not.recorded") + " " + e.getMessage());
+        }
+    }
+
+    /*
+     * Returns the snapshot of the build, taking it from the store for the first shard. An empty
+     * snapshot is kept as well, so that no shard balances by durations recorded meanwhile.
+     */
+    private static Map<String, Double> getSnapshot(Run<?, ?> run) throws IOException {
+        final File snapshotFile = new File(getBuild(run).getRootDir(), SNAPSHOT_FILE);
+        synchronized (SNAPSHOT_LOCK) {
+            if (snapshotFile.exists()) {
+                try (BufferedReader reader =
+                        Files.newBufferedReader(snapshotFile.toPath(), StandardCharsets.UTF_8)) {
+                    return parse(reader);
+                }
+            }
+            final Map<String, Double> snapshot = forRun(run).getDurations();
+            write(snapshotFile, snapshot);
+            return snapshot;
+        }
+    }
+
+    private synchronized Map<String, Double> getDurations() {
+        return Collections.unmodifiableMap(new TreeMap<>(load()));
+    }
+
+    private synchronized void record(Map<String, Double> measured) throws IOException {
+        final Map<String, Double> stored = load();
+        measured.forEach((name, duration) -> stored.merge(name, duration,
+                (old, latest) -> (1 - SMOOTHING) * old + SMOOTHING * latest));
+
+        write(this.storeFile, stored);
+    }
+
+    private static void write(File file, Map<String, Double> durations) throws IOException {
+        final AtomicFileWriter writer = new AtomicFileWriter(file.toPath(), StandardCharsets.UTF_8);
+        try {
+            writer.write(format(new TreeMap<>(durations)));
+            writer.commit();
+        } finally {
+            writer.abort();
+        }
+    }
+
+    private Map<String, Double> load() {
+        if (this.durations == null) {
+            this.durations = new HashMap<>();
+            if (this.storeFile.exists()) {
+                try (BufferedReader reader =
+                        Files.newBufferedReader(this.storeFile.toPath(), StandardCharsets.UTF_8)) {
+                    this.durations.putAll(parse(reader));
+                } catch (IOException e) {
+                    // A broken store only costs balance, it is rewritten by the next run.
+                }
+            }
+        }
+        return this.durations;
+    }
+
+    /*
+     * One test per line, the duration in seconds followed by a tab and the test name.
+     */
+    private static String format(Map<String, Double> durations) {
+        final StringBuilder sb = new StringBuilder();
+        durations.forEach((name, duration) -> sb
+                .append(String.format(Locale.ROOT, "%.3f", duration)).append('\t').append(name)
+                .append('\n'));
+        return sb.toString();
+    }
+
+    private static Map<String, Double> parse(BufferedReader reader) throws IOException {
+        final Map<String, Double> durations = new HashMap<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            final int tab = line.indexOf('\t');
+            if (tab > 0) {
+                try {
+                    durations.put(line.substring(tab + 1),
+                            Double.parseDouble(line.substring(0, tab)));
+                } catch (NumberFormatException e) {
+                    // Skip malformed lines.
+                }
+            }
+        }
+        return durations;
+    }
+
+    /*
+     * Collects the time of every test case of a JUnit report, keyed by the test name MATLAB uses
+     * for the element of the test suite.
+     */
+    private static class ReadTestDurations
+            extends MasterToSlaveFileCallable<HashMap<String, Double>> {
+        private static final long serialVersionUID = -1806651398440592917L;
+
+        @Override
+        public HashMap<String, Double> invoke(File junitResults, VirtualChannel channel)
+                throws IOException, InterruptedException {
+            final HashMap<String, Double> durations = new HashMap<>();
+            final XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            try (InputStream in = Files.newInputStream(junitResults.toPath())) {
+                final XMLStreamReader reader = factory.createXMLStreamReader(in);
+                while (reader.hasNext()) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT
+                            && reader.getLocalName().equals("testcase")) {
+                        final String className = reader.getAttributeValue(null, "classname");
+                        final String name = reader.getAttributeValue(null, "name");
+                        final String time = reader.getAttributeValue(null, "time");
+                        if (name == null || time == null) {
+                            continue;
+                        }
+                        final String testName = className == null || className.isEmpty() ? name
+                                : className + "/" + name;
+                        try {
+                            durations.put(testName, Double.parseDouble(time));
+                        } catch (NumberFormatException e) {
+                            // Skip test cases without a valid time.
+                        }
+                    }
+                }
+                reader.close();
+            } catch (XMLStreamException e) {
+                throw new IOException(e);
+            }
+            return durations;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.mathworks.ci;
+
+/**
+ * Copyright 2020 The MathWorks, Inc.
+ *
+ * Follows the test events which runMatlabCiTests.m writes while the tests run. The events files in
+ * the build specific folder on the node hold one JSON object per line, MATLAB writes one file and
+ * each parallel worker a file of its own. A task running on the node reads the lines appended to
+ * the files every second and pushes the complete ones to the controller, where they are passed on
+ * to the test progress action of the build, so only new events cross the channel.
+ *
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import hudson.FilePath;
+import hudson.model.Run;
+import hudson.remoting.RemoteOutputStream;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+public class TestEventStream implements AutoCloseable {
+
+    private static final String EVENTS_PREFIX = "testEvents";
+    private static final String EVENTS_EXTENSION = ".ndjson";
+    static final String EVENTS_FILE = EVENTS_PREFIX + EVENTS_EXTENSION;
+    private static final String STOP_FILE = EVENTS_PREFIX + ".stop";
+    private static final String TEST_EVENTS_PATH = "TestEventsPath";
+    private static final long POLL_INTERVAL_MILLIS = 1000;
+    private static final long STOP_TIMEOUT_SECONDS = 30;
+
+    private final FilePath folder;
+    private final MatlabTestProgressAction progress;
+    private Future<Void> tail;
+
+    private TestEventStream(FilePath folder, MatlabTestProgressAction progress) {
+        this.folder = folder;
+        this.progress = progress;
+    }
+
+    /*
+     * Returns the name-value pair argument passed to runMatlabCiTests.m, which writes the events
+     * into the given build specific folder.
+     */
+    static String getInputArgs(FilePath folder) {
+        return "'" + TEST_EVENTS_PATH + "','"
+                + new FilePath(folder, EVENTS_FILE).getRemote().replaceAll("'", "''") + "'";
+    }
+
+    /*
+     * Returns the events files in the folder, the one written by MATLAB and those written by its
+     * parallel workers, in the order of their names.
+     */
+    static File[] listEventsFiles(File folder) {
+        final File[] files = folder.listFiles((dir, name) -> name.startsWith(EVENTS_PREFIX)
+                && name.endsWith(EVENTS_EXTENSION));
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files);
+        return files;
+    }
+
+    /*
+     * Starts following the events written into the given folder until the stream is closed.
+     */
+    static TestEventStream follow(Run<?, ?> run, FilePath folder)
+            throws IOException, InterruptedException {
+        folder.mkdirs();
+        final TestEventStream stream =
+                new TestEventStream(folder, MatlabTestProgressAction.forRun(run));
+        stream.progress.onStreamOpened();
+        stream.tail = folder.actAsync(
+                new Tail(new RemoteOutputStream(new EventLines(stream.progress))));
+        return stream;
+    }
+
+    /*
+     * Stops following the events once MATLAB has exited, after the remaining ones have been
+     * pushed.
+     */
+    @Override
+    public void close() {
+        try {
+            new FilePath(this.folder, STOP_FILE).touch(System.currentTimeMillis());
+            this.tail.get(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (IOException | ExecutionException e) {
+            // The progress is for information only, the results are in the test artifacts.
+        } catch (TimeoutException e) {
+            this.tail.cancel(true);
+        } catch (InterruptedException e) {
+            this.tail.cancel(true);
+            Thread.currentThread().interrupt();
+        } finally {
+            this.progress.onStreamClosed();
+        }
+    }
+
+    /*
+     * Passes each line written to the stream on to the test progress action.
+     */
+    private static class EventLines extends OutputStream {
+        private final MatlabTestProgressAction progress;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        EventLines(MatlabTestProgressAction progress) {
+            this.progress = progress;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            if (b == '\n') {
+                this.progress.onEvent(new String(this.line.toByteArray(), StandardCharsets.UTF_8));
+                this.line.reset();
+            } else {
+                this.line.write(b);
+            }
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            int lineStart = off;
+            for (int i = off; i < off + len; i++) {
+                if (b[i] == '\n') {
+                    this.line.write(b, lineStart, i - lineStart);
+                    write('\n');
+                    lineStart = i + 1;
+                }
+            }
+            this.line.write(b, lineStart, off + len - lineStart);
+        }
+    }
+
+    /*
+     * Runs on the node and pushes the complete lines appended to the events files until the stop
+     * file appears. A line still being written is pushed once it is complete.
+     */
+    private static class Tail extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = -2880624389604451763L;
+
+        private final OutputStream out;
+
+        Tail(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public Void invoke(File folder, VirtualChannel channel)
+                throws IOException, InterruptedException {
+            final Map<File, Long> offsets = new HashMap<>();
+            final File stopFile = new File(folder, STOP_FILE);
+            try {
+                while (true) {
+                    // Checked before reading, so that the last read sees every event.
+                    final boolean stopping = stopFile.exists();
+                    for (File eventsFile : listEventsFiles(folder)) {
+                        offsets.put(eventsFile,
+                                push(eventsFile, offsets.getOrDefault(eventsFile, 0L)));
+                    }
+                    this.out.flush();
+                    if (stopping) {
+                        return null;
+                    }
+                    Thread.sleep(POLL_INTERVAL_MILLIS);
+                }
+            } finally {
+                this.out.close();
+            }
+        }
+
+        private long push(File eventsFile, long offset) throws IOException {
+            final byte[] appended;
+            try (RandomAccessFile file = new RandomAccessFile(eventsFile, "r")) {
+                if (file.length() <= offset) {
+                    return offset;
+                }
+                file.seek(offset);
+                appended = new byte[(int) (file.length() - offset)];
+                file.readFully(appended);
+            }
+            int end = appended.length;
+            while (end > 0 && appended[end - 1] != '\n') {
+                end--;
+            }
+            this.out.write(appended, 0, end);
+            return offset + end;
+        }
+    }
+}
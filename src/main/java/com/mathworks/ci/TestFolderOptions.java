@@ -0,0 +1,85 @@
+package com.mathworks.ci;
+
+/**
+ * Copyright 2020 The MathWorks, Inc.
+ *
+ * Options to limit the folders in which the test runner looks for tests. Source folders are put
+ * on the MATLAB path with their subfolders. Tests are discovered only in the selected folders, or
+ * in the whole workspace if none are selected, skipping the excluded folders. Each option holds
+ * folders relative to the workspace separated by semicolons, and excluded folders may contain
+ * '*' to match any characters of a folder name.
+ *
+ * Code coverage is measured for the coverage source folders, or the source folders if none are
+ * given, skipping the coverage excluded folders, so that tests and third-party code are not
+ * instrumented.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestFolderOptions {
+
+    private static final String SOURCE_FOLDER = "SourceFolder";
+    private static final String SELECT_BY_FOLDER = "SelectByFolder";
+    private static final String EXCLUDE_FOLDERS = "ExcludeFolders";
+    private static final String COVERAGE_SOURCE_FOLDER = "CoverageSourceFolder";
+    private static final String COVERAGE_EXCLUDE_FOLDERS = "CoverageExcludeFolders";
+
+    private TestFolderOptions() {
+
+    }
+
+    /*
+     * Returns the name-value pair arguments passed to runMatlabCiTests.m, or null if no folders are
+     * specified.
+     */
+    static String getInputArgs(String sourceFolder, String selectByFolder,
+            String excludeFolders) {
+        final List<String> args = new ArrayList<>();
+        addCellArg(args, SOURCE_FOLDER, sourceFolder);
+        addCellArg(args, SELECT_BY_FOLDER, selectByFolder);
+        addCellArg(args, EXCLUDE_FOLDERS, excludeFolders);
+        return args.isEmpty() ? null : String.join(",", args);
+    }
+
+    /*
+     * Returns the name-value pair arguments limiting the code coverage to the given folders, or
+     * null if no folders are specified.
+     */
+    static String getCoverageInputArgs(String coverageSourceFolder,
+            String coverageExcludeFolders) {
+        final List<String> args = new ArrayList<>();
+        addCellArg(args, COVERAGE_SOURCE_FOLDER, coverageSourceFolder);
+        addCellArg(args, COVERAGE_EXCLUDE_FOLDERS, coverageExcludeFolders);
+        return args.isEmpty() ? null : String.join(",", args);
+    }
+
+    /*
+     * Adds the folders as a cell array of character vectors.
+     */
+    static void addCellArg(List<String> args, String name, String folders) {
+        final List<String> values = split(folders);
+        if (values.isEmpty()) {
+            return;
+        }
+        final List<String> quoted = new ArrayList<>();
+        for (String value : values) {
+            quoted.add("'" + value.replaceAll("'", "''") + "'");
+        }
+        args.add("'" + name + "',{" + String.join(",", quoted) + "}");
+    }
+
+    static List<String> split(String folders) {
+        final List<String> values = new ArrayList<>();
+        if (folders == null) {
+            return values;
+        }
+        for (String folder : folders.split(";")) {
+            if (!folder.trim().isEmpty()) {
+                values.add(folder.trim());
+            }
+        }
+        return values;
+    }
+}
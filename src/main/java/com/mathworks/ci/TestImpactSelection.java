@@ -0,0 +1,282 @@
+package com.mathworks.ci;
+
+/**
+ * Copyright 2020 The MathWorks, Inc.
+ *
+ * Runs only the tests affected by the files changed since the last successful build. Changed
+ * files are taken from the SCM changelogs of the builds since then and mapped to test files with
+ * an index of the files each test file depends on. The index is written by the test runner during
+ * full runs and kept in the job folder on the controller.
+ *
+ * All tests run when there is no index or no successful build yet, when the index misses tests
+ * whose file the test runner could not find, when the changes cannot be determined, and every
+ * fullRunInterval builds so that the index stays current. File paths are
+ * relative to the workspace, which is expected to be the root of the checked out repository.
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import hudson.FilePath;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.scm.ChangeLogSet;
+import hudson.util.AtomicFileWriter;
+import jenkins.scm.RunWithSCM;
+
+public class TestImpactSelection implements Serializable {
+
+    private static final long serialVersionUID = -6219547096155383651L;
+
+    private static final int DEFAULT_FULL_RUN_INTERVAL = 20;
+
+    private static final String INDEX_FILE = "matlabTestDependencies.txt";
+    private static final String BUILD_HEADER = "#build ";
+    private static final String UNRESOLVED_HEADER = "#unresolved";
+    private static final String TEST_FILES_LIST = "testFiles.txt";
+    private static final String DEPENDENCIES_FILE = "testDependencies.txt";
+    private static final String TEST_FILES_LIST_PATH = "TestFilesListPath";
+    private static final String DEPENDENCY_INDEX_PATH = "DependencyIndexPath";
+
+    private static final Map<File, Index> INDEXES = new ConcurrentHashMap<>();
+
+    private final int fullRunInterval;
+
+    public TestImpactSelection(int fullRunInterval) {
+        this.fullRunInterval =
+                fullRunInterval > 0 ? fullRunInterval : DEFAULT_FULL_RUN_INTERVAL;
+    }
+
+    /*
+     * Decides whether all tests or only the affected tests run and returns the name-value pair
+     * argument passing that decision to runMatlabCiTests.m. Files for the test runner are written
+     * to the given build specific folder on the node.
+     */
+    String prepare(Run<?, ?> run, FilePath folder, TaskListener listener)
+            throws IOException, InterruptedException {
+        final Index index = getIndex(run);
+        final int indexBuild = index.getBuildNumber();
+        final Set<String> changedFiles = getChangedFiles(run);
+        final String reason;
+        if (indexBuild < 0) {
+            reason = "matlab.tests.selection.full.no.index";
+        } else if (run.getNumber() - indexBuild >= this.fullRunInterval
+                || indexBuild >= run.getNumber()) {
+            // An index written by this build comes from another shard which ran all tests.
+            reason = "matlab.tests.selection.full.periodic";
+        } else if (!index.isComplete()) {
+            reason = "matlab.tests.selection.full.unresolved";
+        } else if (changedFiles == null || changedFiles.isEmpty()) {
+            reason = "matlab.tests.selection.full.no.changes";
+        } else {
+            reason = null;
+        }
+
+        if (reason != null) {
+            listener.getLogger().println(Message.getValue(reason));
+            return "'" + DEPENDENCY_INDEX_PATH + "','"
+                    + quote(new FilePath(folder, DEPENDENCIES_FILE)) + "'";
+        }
+
+        final Set<String> testFiles = index.getAffectedTestFiles(changedFiles);
+        listener.getLogger().println(String.format(
+                Message.getValue("matlab.tests.selection.affected"), testFiles.size(),
+                changedFiles.size()));
+        final FilePath testFilesList = new FilePath(folder, TEST_FILES_LIST);
+        testFilesList.write(String.join("\n", testFiles) + "\n", "UTF-8");
+        return "'" + TEST_FILES_LIST_PATH + "','" + quote(testFilesList) + "'";
+    }
+
+    /*
+     * Stores the index written by the test runner during a full run. Failures are only reported,
+     * they must not affect the result of the build.
+     */
+    void update(Run<?, ?> run, FilePath folder, TaskListener listener)
+            throws InterruptedException {
+        final FilePath dependencies = new FilePath(folder, DEPENDENCIES_FILE);
+        try {
+            if (!dependencies.exists()) {
+                return;
+            }
+            try (InputStream in = dependencies.read()) {
+                getIndex(run).replace(in, run.getNumber());
+            }
+        } catch (IOException e) {
+            listener.getLogger().println(
+                    Message.getValue("matlab.tests.selection.index.not.updated") + " "
+                            + e.getMessage());
+        }
+    }
+
+    private static Index getIndex(Run<?, ?> run) {
+        final Job<?, ?> job = TestDurationStore.getJob(run);
+        return INDEXES.computeIfAbsent(job.getRootDir(), Index::new);
+    }
+
+    /*
+     * Returns the files changed in this build and in all builds since the last successful one,
+     * or null if they cannot be determined.
+     */
+    private static Set<String> getChangedFiles(Run<?, ?> run) {
+        final Run<?, ?> lastSuccessful = run.getParent().getLastSuccessfulBuild();
+        if (lastSuccessful == null) {
+            return null;
+        }
+        final Set<String> changedFiles = new TreeSet<>();
+        for (Run<?, ?> r = run; r != null && r.getNumber() > lastSuccessful.getNumber();
+                r = r.getPreviousBuild()) {
+            if (!(r instanceof RunWithSCM)) {
+                return null;
+            }
+            for (ChangeLogSet<? extends ChangeLogSet.Entry> changeSet : ((RunWithSCM<?, ?>) r)
+                    .getChangeSets()) {
+                for (ChangeLogSet.Entry entry : changeSet) {
+                    changedFiles.addAll(entry.getAffectedPaths());
+                }
+            }
+        }
+        return changedFiles;
+    }
+
+    private static String quote(FilePath file) {
+        return file.getRemote().replaceAll("'", "''");
+    }
+
+    /*
+     * Test files with the files they depend on. Each line of the index file holds a test file
+     * followed by its dependencies, separated by tabs. An index is incomplete when the test
+     * runner could not find the file of some test, which then would never be selected.
+     */
+    private static class Index {
+        private final File indexFile;
+        private boolean loaded;
+        private int buildNumber = -1;
+        private boolean complete = true;
+        private Map<String, List<String>> dependencies = Collections.emptyMap();
+
+        Index(File jobDir) {
+            this.indexFile = new File(jobDir, INDEX_FILE);
+        }
+
+        synchronized int getBuildNumber() {
+            load();
+            return this.buildNumber;
+        }
+
+        synchronized boolean isComplete() {
+            load();
+            return this.complete;
+        }
+
+        synchronized Set<String> getAffectedTestFiles(Set<String> changedFiles) {
+            load();
+            final Set<String> knownFiles = new TreeSet<>();
+            final Set<String> testFiles = new TreeSet<>();
+            this.dependencies.forEach((testFile, files) -> {
+                knownFiles.addAll(files);
+                for (String file : files) {
+                    if (changedFiles.contains(file)) {
+                        testFiles.add(testFile);
+                        break;
+                    }
+                }
+            });
+            // New files may be new tests, the test runner skips them if they are not.
+            for (String file : changedFiles) {
+                if (!knownFiles.contains(file) && !this.dependencies.containsKey(file)
+                        && (file.endsWith(".m") || file.endsWith(".mlx"))) {
+                    testFiles.add(file);
+                }
+            }
+            return testFiles;
+        }
+
+        private void load() {
+            if (this.loaded) {
+                return;
+            }
+            this.loaded = true;
+            if (!this.indexFile.exists()) {
+                return;
+            }
+            try (InputStream in = Files.newInputStream(this.indexFile.toPath())) {
+                parse(in);
+            } catch (IOException | NumberFormatException e) {
+                // A broken index results in a full run which writes a new one.
+                this.buildNumber = -1;
+                this.complete = true;
+                this.dependencies = Collections.emptyMap();
+            }
+        }
+
+        private void parse(InputStream in) throws IOException {
+            final Map<String, List<String>> parsed = new HashMap<>();
+            int number = -1;
+            boolean resolved = true;
+            final BufferedReader reader =
+                    new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(BUILD_HEADER)) {
+                    number = Integer.parseInt(line.substring(BUILD_HEADER.length()).trim());
+                } else if (line.equals(UNRESOLVED_HEADER)) {
+                    resolved = false;
+                } else if (!line.isEmpty()) {
+                    final String[] files = line.split("\t");
+                    final List<String> testDependencies = new ArrayList<>(files.length);
+                    Collections.addAll(testDependencies, files);
+                    parsed.put(files[0], testDependencies);
+                }
+            }
+            this.dependencies = parsed;
+            this.buildNumber = number;
+            this.complete = resolved;
+        }
+
+        /*
+         * Replaces the index with the one written in the given build. Shards of the same build
+         * each write the dependencies of their own tests, which are combined.
+         */
+        synchronized void replace(InputStream in, int number) throws IOException {
+            load();
+            final boolean sameBuild = this.buildNumber == number;
+            final Map<String, List<String>> previous =
+                    sameBuild ? this.dependencies : Collections.emptyMap();
+            final boolean previousComplete = !sameBuild || this.complete;
+            parse(in);
+            previous.forEach(this.dependencies::putIfAbsent);
+            this.buildNumber = number;
+            this.complete &= previousComplete;
+
+            final AtomicFileWriter writer =
+                    new AtomicFileWriter(this.indexFile.toPath(), StandardCharsets.UTF_8);
+            try {
+                writer.write(BUILD_HEADER + number + "\n");
+                if (!this.complete) {
+                    writer.write(UNRESOLVED_HEADER + "\n");
+                }
+                for (List<String> files : this.dependencies.values()) {
+                    writer.write(String.join("\t", files) + "\n");
+                }
+                writer.commit();
+            } finally {
+                writer.abort();
+            }
+        }
+    }
+}
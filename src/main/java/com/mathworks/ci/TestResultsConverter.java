@@ -0,0 +1,310 @@
+package com.mathworks.ci;
+
+/**
+ * Copyright 2020 The MathWorks, Inc.
+ *
+ * Writes the TAP and JUnit results of a test run on the node after MATLAB has exited, so that
+ * MATLAB does not run a plugin for each report. The test runner writes one JSON object per
+ * finished test into the events file in the build specific folder, as for the test progress.
+ * The file is read once and both reports are written while reading it.
+ *
+ * MATLAB releases which cannot write the events write the reports themselves, in which case no
+ * events file exists and nothing is converted.
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import hudson.FilePath;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+
+public class TestResultsConverter {
+
+    private static final String RESULTS_STREAM_PATH = "ResultsStreamPath";
+
+    private static final String FAILED = "failed";
+    private static final String INCOMPLETE = "incomplete";
+
+    private TestResultsConverter() {
+
+    }
+
+    /*
+     * Returns the name-value pair argument passed to runMatlabCiTests.m, which then writes the
+     * events of the finished tests into the given build specific folder instead of the TAP and
+     * JUnit reports.
+     */
+    static String getInputArgs(FilePath folder) {
+        return "'" + RESULTS_STREAM_PATH + "','"
+                + new FilePath(folder, TestEventStream.EVENTS_FILE).getRemote().replaceAll("'",
+                        "''")
+                + "'";
+    }
+
+    /*
+     * Writes the requested reports from the events in the given folder. Either report may be
+     * null.
+     */
+    static void convert(FilePath folder, FilePath tapResults, FilePath junitResults,
+            TaskListener listener) throws InterruptedException {
+        if (tapResults == null && junitResults == null) {
+            return;
+        }
+        try {
+            if (!folder.exists()) {
+                return;
+            }
+            final int[] counts = folder.act(new Convert(
+                    tapResults == null ? null : tapResults.getRemote(),
+                    junitResults == null ? null : junitResults.getRemote()));
+            if (counts != null) {
+                listener.getLogger()
+                        .println(String.format(Message.getValue("matlab.tests.convert.done"),
+                                counts[0], counts[1], counts[2]));
+            }
+        } catch (IOException e) {
+            listener.getLogger().println(
+                    Message.getValue("matlab.tests.convert.failed") + " " + e.getMessage());
+        }
+    }
+
+    /*
+     * Result of one test as written by the test runner.
+     */
+    private static class TestResult {
+        private final String className;
+        private final String name;
+        private final String status;
+        private final double duration;
+        private final String diagnostics;
+
+        TestResult(JSONObject event) {
+            // Test names are the name of the test file or class, a slash and the procedure name.
+            final String fullName = event.optString("name");
+            final int separator = fullName.indexOf('/');
+            this.className = separator < 0 ? fullName : fullName.substring(0, separator);
+            this.name = separator < 0 ? fullName : fullName.substring(separator + 1);
+            this.status = event.optString("status");
+            this.duration = event.optDouble("duration", 0);
+            this.diagnostics = stripInvalidCharacters(event.optString("diagnostics"));
+        }
+
+        String getFullName() {
+            return this.className.equals(this.name) ? this.name
+                    : this.className + "/" + this.name;
+        }
+    }
+
+    /*
+     * TAP version 13 report. The plan is written last, as the number of tests is only known at
+     * the end.
+     */
+    private static class TapReport implements AutoCloseable {
+        private final PrintWriter writer;
+        private int count;
+
+        TapReport(File file) throws IOException {
+            final Writer out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8);
+            this.writer = new PrintWriter(out);
+            this.writer.println("TAP version 13");
+        }
+
+        void add(TestResult result) {
+            this.count++;
+            if (FAILED.equals(result.status)) {
+                this.writer.println("not ok " + this.count + " - " + result.getFullName());
+            } else if (INCOMPLETE.equals(result.status)) {
+                this.writer.println("ok " + this.count + " - " + result.getFullName() + " # SKIP");
+            } else {
+                this.writer.println("ok " + this.count + " - " + result.getFullName());
+            }
+            if (!result.diagnostics.isEmpty()) {
+                this.writer.println("  ---");
+                this.writer.println("  Diagnostics: |");
+                for (String line : result.diagnostics.split("\r?\n")) {
+                    this.writer.println("    " + line);
+                }
+                this.writer.println("  ...");
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.writer.println("1.." + this.count);
+            this.writer.close();
+            if (this.writer.checkError()) {
+                throw new IOException("Unable to write the TAP results.");
+            }
+        }
+    }
+
+    /*
+     * JUnit report with a test suite for each test file or class. Only the results of the current
+     * test suite are kept, as its counts must be written before its test cases. Tests of a file
+     * which did not run one after the other, as in parallel runs, are written to separate test
+     * suites of the same name.
+     */
+    private static class JUnitReport implements AutoCloseable {
+        private final OutputStream out;
+        private final XMLStreamWriter writer;
+        private final List<TestResult> suite = new ArrayList<>();
+
+        JUnitReport(File file) throws IOException, XMLStreamException {
+            this.out = Files.newOutputStream(file.toPath());
+            this.writer = XMLOutputFactory.newInstance().createXMLStreamWriter(this.out,
+                    StandardCharsets.UTF_8.name());
+            this.writer.writeStartDocument(StandardCharsets.UTF_8.name(), "1.0");
+            this.writer.writeStartElement("testsuites");
+        }
+
+        void add(TestResult result) throws XMLStreamException {
+            if (!this.suite.isEmpty() && !this.suite.get(0).className.equals(result.className)) {
+                writeSuite();
+            }
+            this.suite.add(result);
+        }
+
+        private void writeSuite() throws XMLStreamException {
+            int failures = 0;
+            int skipped = 0;
+            double time = 0;
+            for (TestResult result : this.suite) {
+                failures += FAILED.equals(result.status) ? 1 : 0;
+                skipped += INCOMPLETE.equals(result.status) ? 1 : 0;
+                time += result.duration;
+            }
+            final String className = this.suite.get(0).className;
+            this.writer.writeStartElement("testsuite");
+            this.writer.writeAttribute("name", className);
+            this.writer.writeAttribute("tests", Integer.toString(this.suite.size()));
+            this.writer.writeAttribute("failures", Integer.toString(failures));
+            this.writer.writeAttribute("errors", "0");
+            this.writer.writeAttribute("skipped", Integer.toString(skipped));
+            this.writer.writeAttribute("time", Double.toString(time));
+            for (TestResult result : this.suite) {
+                this.writer.writeStartElement("testcase");
+                this.writer.writeAttribute("classname", className);
+                this.writer.writeAttribute("name", result.name);
+                this.writer.writeAttribute("time", Double.toString(result.duration));
+                if (FAILED.equals(result.status)) {
+                    this.writer.writeStartElement("failure");
+                    this.writer.writeCharacters(result.diagnostics);
+                    this.writer.writeEndElement();
+                } else if (INCOMPLETE.equals(result.status)) {
+                    this.writer.writeStartElement("skipped");
+                    this.writer.writeCharacters(result.diagnostics);
+                    this.writer.writeEndElement();
+                }
+                this.writer.writeEndElement();
+            }
+            this.writer.writeEndElement();
+            this.suite.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (!this.suite.isEmpty()) {
+                    writeSuite();
+                }
+                this.writer.writeEndElement();
+                this.writer.writeEndDocument();
+                this.writer.close();
+            } catch (XMLStreamException e) {
+                throw new IOException(e);
+            } finally {
+                this.out.close();
+            }
+        }
+    }
+
+    private static String stripInvalidCharacters(String text) {
+        return text.replaceAll("[\\x00-\\x08\\x0B\\x0C\\x0E-\\x1F]", "");
+    }
+
+    private static File prepareFile(String path) throws IOException {
+        final File file = new File(path);
+        final File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create folder " + parent);
+        }
+        return file;
+    }
+
+    /*
+     * Returns the number of tests, failed tests and incomplete tests, or null if there are no
+     * events to convert.
+     */
+    private static class Convert extends MasterToSlaveFileCallable<int[]> {
+        private static final long serialVersionUID = 3342587101917463720L;
+
+        private final String tapResults;
+        private final String junitResults;
+
+        Convert(String tapResults, String junitResults) {
+            this.tapResults = tapResults;
+            this.junitResults = junitResults;
+        }
+
+        @Override
+        public int[] invoke(File folder, VirtualChannel channel)
+                throws IOException, InterruptedException {
+            // Parallel workers write the events of their tests into files of their own.
+            final File[] eventsFiles = TestEventStream.listEventsFiles(folder);
+            if (eventsFiles.length == 0) {
+                return null;
+            }
+            final int[] counts = new int[3];
+            try (TapReport tap = this.tapResults == null ? null
+                    : new TapReport(prepareFile(this.tapResults));
+                    JUnitReport junit = this.junitResults == null ? null
+                            : new JUnitReport(prepareFile(this.junitResults))) {
+                for (File eventsFile : eventsFiles) {
+                    try (BufferedReader reader = Files.newBufferedReader(eventsFile.toPath(),
+                            StandardCharsets.UTF_8)) {
+                        String line;
+                        while ((line = reader.readLine()) != null) {
+                            final JSONObject event;
+                            try {
+                                event = JSONObject.fromObject(line);
+                            } catch (JSONException e) {
+                                continue;
+                            }
+                            if (!"testFinished".equals(event.optString("event"))) {
+                                continue;
+                            }
+                            final TestResult result = new TestResult(event);
+                            counts[0]++;
+                            counts[1] += FAILED.equals(result.status) ? 1 : 0;
+                            counts[2] += INCOMPLETE.equals(result.status) ? 1 : 0;
+                            if (tap != null) {
+                                tap.add(result);
+                            }
+                            if (junit != null) {
+                                junit.add(result);
+                            }
+                        }
+                    }
+                }
+            } catch (XMLStreamException e) {
+                throw new IOException(e);
+            }
+            return counts;
+        }
+    }
+}
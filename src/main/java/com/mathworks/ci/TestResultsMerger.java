@@ -0,0 +1,487 @@
+package com.mathworks.ci;
+
+/**
+ * Copyright 2020 The MathWorks, Inc.
+ *
+ * Merges the test artifacts written by the builds of a sharded test run into single JUnit, TAP
+ * and Cobertura reports.
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+public class TestResultsMerger {
+
+    private static final String TESTSUITES_TAG = "testsuites";
+    private static final String TESTSUITE_TAG = "testsuite";
+    private static final String TESTCASE_TAG = "testcase";
+
+    private static final String TAP_VERSION = "TAP version 13";
+    private static final Pattern TAP_PLAN = Pattern.compile("^1\\.\\.\\d+.*");
+    private static final Pattern TAP_TEST_LINE = Pattern.compile("^(not ok|ok)\\b\\s*\\d*(.*)$");
+
+    private static final String COVERAGE_TAG = "coverage";
+    private static final String PACKAGES_TAG = "packages";
+    private static final String PACKAGE_TAG = "package";
+    private static final String CLASSES_TAG = "classes";
+    private static final String CLASS_TAG = "class";
+    private static final String METHODS_TAG = "methods";
+    private static final String METHOD_TAG = "method";
+    private static final String LINES_TAG = "lines";
+    private static final String LINE_TAG = "line";
+    private static final String SOURCES_TAG = "sources";
+    private static final String SOURCE_TAG = "source";
+    private static final String LINE_RATE = "line-rate";
+    // Conditions are not merged, so the branch coverage of the reports no longer applies.
+    private static final Set<String> BRANCH_ATTRIBUTES = new HashSet<>(
+            Arrays.asList("branch-rate", "branches-covered", "branches-valid"));
+
+    private TestResultsMerger() {
+
+    }
+
+    /*
+     * Writes the test suites of all JUnit files into one testsuites element. The files are
+     * streamed, so merging does not depend on the size of the reports.
+     */
+    static void mergeJUnit(List<File> files, File target) throws IOException {
+        mergeJUnit(files, new ArrayList<>(), target);
+    }
+
+    /*
+     * Merges JUnit files like mergeJUnit, appending the given suffix to the names of the test
+     * suites and test cases of each file. Files without a suffix are copied unchanged.
+     */
+    static void mergeJUnit(List<File> files, List<String> nameSuffixes, File target)
+            throws IOException {
+        final XMLInputFactory inputFactory = createInputFactory();
+        final XMLEventFactory eventFactory = XMLEventFactory.newInstance();
+        try (OutputStream out = Files.newOutputStream(target.toPath())) {
+            final XMLEventWriter writer = XMLOutputFactory.newInstance()
+                    .createXMLEventWriter(out, StandardCharsets.UTF_8.name());
+            writer.add(eventFactory.createStartDocument(StandardCharsets.UTF_8.name(), "1.0"));
+            writer.add(eventFactory.createStartElement("", "", TESTSUITES_TAG));
+            for (int i = 0; i < files.size(); i++) {
+                final File file = files.get(i);
+                final String suffix = i < nameSuffixes.size() ? nameSuffixes.get(i) : null;
+                try (InputStream in = Files.newInputStream(file.toPath())) {
+                    final XMLEventReader reader = inputFactory.createXMLEventReader(in);
+                    int depth = 0;
+                    boolean skipRoot = false;
+                    while (reader.hasNext()) {
+                        XMLEvent event = reader.nextEvent();
+                        if (event.isStartElement()) {
+                            // Suites of a testsuites root are copied, a testsuite root as a whole.
+                            if (depth++ == 0 && event.asStartElement().getName().getLocalPart()
+                                    .equals(TESTSUITES_TAG)) {
+                                skipRoot = true;
+                                continue;
+                            }
+                        } else if (event.isEndElement()) {
+                            if (--depth == 0 && skipRoot) {
+                                continue;
+                            }
+                        } else if (depth == 0 || event.isStartDocument() || event.isEndDocument()
+                                || event.getEventType() == XMLEvent.DTD) {
+                            continue;
+                        }
+                        if (suffix != null && event.isStartElement()) {
+                            event = appendToName(eventFactory, event.asStartElement(), suffix);
+                        }
+                        writer.add(event);
+                    }
+                    reader.close();
+                }
+            }
+            writer.add(eventFactory.createEndElement("", "", TESTSUITES_TAG));
+            writer.add(eventFactory.createEndDocument());
+            writer.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static StartElement appendToName(XMLEventFactory eventFactory, StartElement element,
+            String suffix) {
+        final String tag = element.getName().getLocalPart();
+        if (!tag.equals(TESTSUITE_TAG) && !tag.equals(TESTCASE_TAG)) {
+            return element;
+        }
+        final List<Attribute> attributes = new ArrayList<>();
+        final Iterator<?> it = element.getAttributes();
+        while (it.hasNext()) {
+            final Attribute attribute = (Attribute) it.next();
+            attributes.add(attribute.getName().getLocalPart().equals("name")
+                    ? eventFactory.createAttribute(attribute.getName(),
+                            attribute.getValue() + suffix)
+                    : attribute);
+        }
+        return eventFactory.createStartElement(element.getName(), attributes.iterator(),
+                element.getNamespaces());
+    }
+
+    /*
+     * Concatenates TAP files into one TAP stream, numbering the test points consecutively. The
+     * plan is written last, which TAP allows, so the files only need to be read once.
+     */
+    static void mergeTAP(List<File> files, File target) throws IOException {
+        int testCount = 0;
+        try (Writer out = Files.newBufferedWriter(target.toPath(), StandardCharsets.UTF_8);
+                PrintWriter writer = new PrintWriter(out)) {
+            writer.println(TAP_VERSION);
+            for (File file : files) {
+                try (BufferedReader reader =
+                        Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (line.startsWith("TAP version") || TAP_PLAN.matcher(line).matches()) {
+                            continue;
+                        }
+                        final Matcher m = TAP_TEST_LINE.matcher(line);
+                        if (m.matches()) {
+                            writer.println(m.group(1) + " " + (++testCount) + m.group(2));
+                        } else {
+                            writer.println(line);
+                        }
+                    }
+                }
+            }
+            writer.println("1.." + testCount);
+            if (writer.checkError()) {
+                throw new IOException("Unable to write " + target);
+            }
+        }
+    }
+
+    /*
+     * Merges Cobertura reports by adding up the hits of each line. Classes are identified by
+     * package, name and file name, so the shards must run against the same sources. The reports
+     * are streamed and only the hits of each line are kept, so the memory needed depends on the
+     * size of the code under test but not on the number or size of the reports.
+     */
+    static void mergeCobertura(List<File> files, File target) throws IOException {
+        if (files.isEmpty()) {
+            return;
+        }
+        final XMLInputFactory inputFactory = createInputFactory();
+        final CoverageReport report = new CoverageReport();
+        try {
+            for (File file : files) {
+                try (InputStream in = Files.newInputStream(file.toPath())) {
+                    final XMLStreamReader reader = inputFactory.createXMLStreamReader(in);
+                    report.read(reader);
+                    reader.close();
+                }
+            }
+            try (OutputStream out = Files.newOutputStream(target.toPath())) {
+                final XMLStreamWriter writer = XMLOutputFactory.newInstance()
+                        .createXMLStreamWriter(out, StandardCharsets.UTF_8.name());
+                report.write(writer);
+                writer.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /*
+     * Merged coverage of all reports. Packages, classes and methods keep the attributes of their
+     * first occurrence, except for the line rates, which are computed from the merged hits, and
+     * the branch rates, which are left out.
+     */
+    private static class CoverageReport {
+        private final Map<String, String> attributes = new LinkedHashMap<>();
+        private final Set<String> sources = new LinkedHashSet<>();
+        private final Map<String, CoverageElement> packages = new LinkedHashMap<>();
+
+        void read(XMLStreamReader reader) throws XMLStreamException {
+            CoverageElement pkg = null;
+            CoverageElement cls = null;
+            CoverageElement method = null;
+            boolean inRoot = false;
+            while (reader.hasNext()) {
+                final int event = reader.next();
+                if (event == XMLStreamConstants.END_ELEMENT) {
+                    switch (reader.getLocalName()) {
+                        case PACKAGE_TAG:
+                            pkg = null;
+                            break;
+                        case CLASS_TAG:
+                            cls = null;
+                            break;
+                        case METHOD_TAG:
+                            method = null;
+                            break;
+                        default:
+                            break;
+                    }
+                    continue;
+                }
+                if (event != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                if (!inRoot) {
+                    inRoot = true;
+                    if (this.attributes.isEmpty()) {
+                        this.attributes.putAll(getAttributes(reader));
+                    }
+                    continue;
+                }
+                switch (reader.getLocalName()) {
+                    case SOURCE_TAG:
+                        this.sources.add(reader.getElementText().trim());
+                        break;
+                    case PACKAGE_TAG:
+                        pkg = getOrCreate(this.packages, reader, "name");
+                        break;
+                    case CLASS_TAG:
+                        cls = pkg == null ? null : getOrCreate(pkg.children, reader, "filename");
+                        break;
+                    case METHOD_TAG:
+                        method = cls == null ? null
+                                : getOrCreate(cls.children, reader, "signature");
+                        break;
+                    case LINE_TAG:
+                        final CoverageElement owner = method != null ? method : cls;
+                        if (owner != null) {
+                            owner.lines.add(
+                                    (int) parseLong(reader.getAttributeValue(null, "number")),
+                                    parseLong(reader.getAttributeValue(null, "hits")));
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+
+        void write(XMLStreamWriter writer) throws XMLStreamException {
+            final long[] total = new long[2];
+            for (CoverageElement pkg : this.packages.values()) {
+                final long[] count = pkg.countLines();
+                total[0] += count[0];
+                total[1] += count[1];
+            }
+            this.attributes.put(LINE_RATE, getLineRate(total));
+            this.attributes.put("lines-covered", Long.toString(total[0]));
+            this.attributes.put("lines-valid", Long.toString(total[1]));
+
+            writer.writeStartDocument(StandardCharsets.UTF_8.name(), "1.0");
+            writer.writeStartElement(COVERAGE_TAG);
+            writeAttributes(writer, this.attributes);
+            writer.writeStartElement(SOURCES_TAG);
+            for (String source : this.sources) {
+                writer.writeStartElement(SOURCE_TAG);
+                writer.writeCharacters(source);
+                writer.writeEndElement();
+            }
+            writer.writeEndElement();
+            writer.writeStartElement(PACKAGES_TAG);
+            for (CoverageElement pkg : this.packages.values()) {
+                writer.writeStartElement(PACKAGE_TAG);
+                writeAttributes(writer, pkg.withLineRate(pkg.countLines()));
+                writer.writeStartElement(CLASSES_TAG);
+                for (CoverageElement cls : pkg.children.values()) {
+                    writer.writeStartElement(CLASS_TAG);
+                    writeAttributes(writer, cls.withLineRate(cls.lines.count()));
+                    writer.writeStartElement(METHODS_TAG);
+                    for (CoverageElement method : cls.children.values()) {
+                        writer.writeStartElement(METHOD_TAG);
+                        writeAttributes(writer, method.withLineRate(method.lines.count()));
+                        method.lines.write(writer);
+                        writer.writeEndElement();
+                    }
+                    writer.writeEndElement();
+                    cls.lines.write(writer);
+                    writer.writeEndElement();
+                }
+                writer.writeEndElement();
+                writer.writeEndElement();
+            }
+            writer.writeEndElement();
+            writer.writeEndElement();
+            writer.writeEndDocument();
+        }
+
+        /*
+         * Returns the element with the name and the given second key attribute of the current
+         * start element, adding it if it is not known yet.
+         */
+        private static CoverageElement getOrCreate(Map<String, CoverageElement> elements,
+                XMLStreamReader reader, String keyAttribute) {
+            final String key = reader.getAttributeValue(null, "name") + '\0'
+                    + reader.getAttributeValue(null, keyAttribute);
+            CoverageElement element = elements.get(key);
+            if (element == null) {
+                element = new CoverageElement(getAttributes(reader));
+                elements.put(key, element);
+            }
+            return element;
+        }
+
+        private static Map<String, String> getAttributes(XMLStreamReader reader) {
+            final Map<String, String> attributes = new LinkedHashMap<>();
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                if (!BRANCH_ATTRIBUTES.contains(reader.getAttributeLocalName(i))) {
+                    attributes.put(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+                }
+            }
+            return attributes;
+        }
+
+        private static void writeAttributes(XMLStreamWriter writer,
+                Map<String, String> attributes) throws XMLStreamException {
+            for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+                writer.writeAttribute(attribute.getKey(), attribute.getValue());
+            }
+        }
+    }
+
+    /*
+     * Package, class or method of a Cobertura report.
+     */
+    private static class CoverageElement {
+        private final Map<String, String> attributes;
+        private final Map<String, CoverageElement> children = new LinkedHashMap<>();
+        private final LineHits lines = new LineHits();
+
+        CoverageElement(Map<String, String> attributes) {
+            this.attributes = attributes;
+        }
+
+        /*
+         * Returns the number of covered and valid lines of a package.
+         */
+        long[] countLines() {
+            final long[] count = new long[2];
+            for (CoverageElement cls : this.children.values()) {
+                final long[] clsCount = cls.lines.count();
+                count[0] += clsCount[0];
+                count[1] += clsCount[1];
+            }
+            return count;
+        }
+
+        Map<String, String> withLineRate(long[] count) {
+            this.attributes.put(LINE_RATE, getLineRate(count));
+            return this.attributes;
+        }
+    }
+
+    /*
+     * Hits of the lines of a class or method, indexed by line number relative to the first line
+     * of code, so that only the range of lines holding code takes memory.
+     */
+    private static class LineHits {
+        private int first;
+        private long[] hits = new long[0];
+        private BitSet valid = new BitSet();
+
+        void add(int number, long count) {
+            if (number < 0) {
+                return;
+            }
+            if (this.hits.length == 0) {
+                this.first = number;
+            } else if (number < this.first) {
+                // Lines are usually listed in order, so this is rarely needed.
+                final int shift = this.first - number;
+                final long[] shifted = new long[this.hits.length + shift];
+                System.arraycopy(this.hits, 0, shifted, shift, this.hits.length);
+                this.hits = shifted;
+                final BitSet shiftedValid = new BitSet();
+                for (int i = this.valid.nextSetBit(0); i >= 0; i = this.valid.nextSetBit(i + 1)) {
+                    shiftedValid.set(i + shift);
+                }
+                this.valid = shiftedValid;
+                this.first = number;
+            }
+            final int index = number - this.first;
+            if (index >= this.hits.length) {
+                this.hits = Arrays.copyOf(this.hits, Math.max(index + 1, this.hits.length * 2));
+            }
+            this.hits[index] += count;
+            this.valid.set(index);
+        }
+
+        /*
+         * Returns the number of covered and valid lines.
+         */
+        long[] count() {
+            final long[] count = new long[2];
+            for (int i = this.valid.nextSetBit(0); i >= 0; i = this.valid.nextSetBit(i + 1)) {
+                if (this.hits[i] > 0) {
+                    count[0]++;
+                }
+                count[1]++;
+            }
+            return count;
+        }
+
+        /*
+         * Writes the lines element. Branch coverage cannot be added up from the hits, so lines
+         * are written without conditions.
+         */
+        void write(XMLStreamWriter writer) throws XMLStreamException {
+            writer.writeStartElement(LINES_TAG);
+            for (int i = this.valid.nextSetBit(0); i >= 0; i = this.valid.nextSetBit(i + 1)) {
+                writer.writeEmptyElement(LINE_TAG);
+                writer.writeAttribute("number", Integer.toString(this.first + i));
+                writer.writeAttribute("hits", Long.toString(this.hits[i]));
+                writer.writeAttribute("branch", "false");
+            }
+            writer.writeEndElement();
+        }
+    }
+
+    private static String getLineRate(long[] count) {
+        return Double.toString(count[1] == 0 ? 0 : (double) count[0] / count[1]);
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return value == null ? 0 : Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+}
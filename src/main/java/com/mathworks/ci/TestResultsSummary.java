@@ -0,0 +1,225 @@
+package com.mathworks.ci;
+
+/**
+ * Copyright 2020 The MathWorks, Inc.
+ *
+ * Compact summary of a JUnit report: the number of tests by outcome, their total time and the
+ * failed tests with shortened messages. The report is streamed on the agent which holds it, so
+ * neither the agent nor the controller needs memory in proportion to its size, and only the
+ * summary is sent to the controller.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+public class TestResultsSummary implements Serializable {
+
+    private static final long serialVersionUID = 3523390452127006236L;
+
+    static final int MAX_FAILED_TESTS = 100;
+    private static final int MAX_DETAILS_LENGTH = 2000;
+
+    private int total;
+    private int failed;
+    private int skipped;
+    private double duration;
+    private final List<FailedTest> failedTests = new ArrayList<>();
+
+    /*
+     * Reads the summary of the JUnit report on the node holding it.
+     */
+    static TestResultsSummary read(FilePath junitResults) throws IOException, InterruptedException {
+        return junitResults.act(new ReadSummary());
+    }
+
+    /*
+     * Adds the tests of another summary, such as of another test step of the same build.
+     */
+    synchronized void add(TestResultsSummary other) {
+        this.total += other.total;
+        this.failed += other.failed;
+        this.skipped += other.skipped;
+        this.duration += other.duration;
+        for (FailedTest test : other.getFailedTests()) {
+            if (this.failedTests.size() >= MAX_FAILED_TESTS) {
+                break;
+            }
+            this.failedTests.add(test);
+        }
+    }
+
+    public synchronized int getTotal() {
+        return this.total;
+    }
+
+    public synchronized int getFailed() {
+        return this.failed;
+    }
+
+    public synchronized int getSkipped() {
+        return this.skipped;
+    }
+
+    public synchronized int getPassed() {
+        return this.total - this.failed - this.skipped;
+    }
+
+    public synchronized double getDuration() {
+        return this.duration;
+    }
+
+    public synchronized List<FailedTest> getFailedTests() {
+        return Collections.unmodifiableList(new ArrayList<>(this.failedTests));
+    }
+
+    public static class FailedTest implements Serializable {
+        private static final long serialVersionUID = -5185430787287094311L;
+
+        private final String name;
+        private final String message;
+        private final String details;
+
+        FailedTest(String name, String message, String details) {
+            this.name = name;
+            this.message = message;
+            this.details = details;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public String getMessage() {
+            return this.message;
+        }
+
+        public String getDetails() {
+            return this.details;
+        }
+    }
+
+    /*
+     * Counts the test cases of a JUnit report. A test case with a failure or error element is
+     * failed, one with a skipped element is skipped. Only the beginning of the text of failures
+     * is kept, and output of the tests is not read.
+     */
+    private static class ReadSummary extends MasterToSlaveFileCallable<TestResultsSummary> {
+        private static final long serialVersionUID = -8532069412391063850L;
+
+        @Override
+        public TestResultsSummary invoke(File junitResults, VirtualChannel channel)
+                throws IOException, InterruptedException {
+            final TestResultsSummary summary = new TestResultsSummary();
+            final XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            try (InputStream in = Files.newInputStream(junitResults.toPath())) {
+                final XMLStreamReader reader = factory.createXMLStreamReader(in);
+                String testName = null;
+                boolean testFailed = false;
+                boolean testSkipped = false;
+                String message = null;
+                StringBuilder details = null;
+                while (reader.hasNext()) {
+                    switch (reader.next()) {
+                        case XMLStreamConstants.START_ELEMENT:
+                            switch (reader.getLocalName()) {
+                                case "testcase":
+                                    testName = getTestName(reader);
+                                    testFailed = false;
+                                    testSkipped = false;
+                                    message = null;
+                                    summary.duration += parseTime(
+                                            reader.getAttributeValue(null, "time"));
+                                    break;
+                                case "failure":
+                                case "error":
+                                    if (testName != null && !testFailed) {
+                                        testFailed = true;
+                                        message = reader.getAttributeValue(null, "message");
+                                        details = new StringBuilder();
+                                    }
+                                    break;
+                                case "skipped":
+                                    testSkipped = true;
+                                    break;
+                                default:
+                                    break;
+                            }
+                            break;
+                        case XMLStreamConstants.CHARACTERS:
+                        case XMLStreamConstants.CDATA:
+                            if (details != null && details.length() < MAX_DETAILS_LENGTH) {
+                                final int length = Math.min(reader.getTextLength(),
+                                        MAX_DETAILS_LENGTH - details.length());
+                                details.append(reader.getTextCharacters(), reader.getTextStart(),
+                                        length);
+                            }
+                            break;
+                        case XMLStreamConstants.END_ELEMENT:
+                            switch (reader.getLocalName()) {
+                                case "failure":
+                                case "error":
+                                    if (details != null && testName != null
+                                            && summary.failedTests.size() < MAX_FAILED_TESTS) {
+                                        summary.failedTests.add(new FailedTest(testName,
+                                                message, details.toString().trim()));
+                                    }
+                                    details = null;
+                                    break;
+                                case "testcase":
+                                    summary.total++;
+                                    if (testFailed) {
+                                        summary.failed++;
+                                    } else if (testSkipped) {
+                                        summary.skipped++;
+                                    }
+                                    testName = null;
+                                    break;
+                                default:
+                                    break;
+                            }
+                            break;
+                        default:
+                            break;
+                    }
+                }
+                reader.close();
+            } catch (XMLStreamException e) {
+                throw new IOException(e);
+            }
+            return summary;
+        }
+
+        private static String getTestName(XMLStreamReader reader) {
+            final String className = reader.getAttributeValue(null, "classname");
+            final String name = reader.getAttributeValue(null, "name");
+            return className == null || className.isEmpty() ? name : className + "/" + name;
+        }
+
+        private static double parseTime(String time) {
+            if (time == null) {
+                return 0;
+            }
+            try {
+                return Double.parseDouble(time);
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+    }
+}
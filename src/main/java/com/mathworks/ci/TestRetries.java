@@ -0,0 +1,120 @@
+package com.mathworks.ci;
+
+/**
+ * Copyright 2020 The MathWorks, Inc.
+ *
+ * Runs failed tests again in the same MATLAB session. The test runner writes the JUnit results
+ * of each retry and the names of the tests which passed only on a retry into the build specific
+ * folder on the node. Afterwards the retries are added to the JUnit report of the run, with
+ * " (retry n)" appended to the test names, so that every attempt is visible. Runs with tests
+ * which passed only on a retry are marked unstable.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import hudson.FilePath;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+public class TestRetries {
+
+    private static final String RETRY_FAILED = "RetryFailed";
+    private static final String RETRY_RESULTS_FOLDER = "RetryResultsFolder";
+    private static final String RETRY_RESULTS_FILE = "retry%d.xml";
+    private static final String FLAKY_TESTS_FILE = "flakyTests.txt";
+    private static final String MERGED_RESULTS_FILE = "junitWithRetries.xml";
+
+    private TestRetries() {
+
+    }
+
+    /*
+     * Returns the name-value pair arguments passed to runMatlabCiTests.m, which writes the results
+     * of the retries into the given build specific folder.
+     */
+    static String getInputArgs(int retryFailed, FilePath folder)
+            throws IOException, InterruptedException {
+        folder.mkdirs();
+        return "'" + RETRY_FAILED + "'," + retryFailed + ",'" + RETRY_RESULTS_FOLDER + "','"
+                + folder.getRemote().replaceAll("'", "''") + "'";
+    }
+
+    /*
+     * Adds the results of the retries to the JUnit report, if there is one, and reports the
+     * tests which passed only on a retry. Returns whether there were any.
+     */
+    static boolean record(FilePath folder, FilePath junitResults, TaskListener listener)
+            throws InterruptedException {
+        try {
+            if (!folder.exists()) {
+                return false;
+            }
+            final List<String> flakyTests = folder.act(
+                    new AddRetries(junitResults == null ? null : junitResults.getRemote()));
+            for (String test : flakyTests) {
+                listener.getLogger().println(
+                        String.format(Message.getValue("matlab.tests.retry.flaky"), test));
+            }
+            return !flakyTests.isEmpty();
+        } catch (IOException e) {
+            listener.getLogger().println(
+                    Message.getValue("matlab.tests.retry.not.recorded") + " " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static class AddRetries extends MasterToSlaveFileCallable<ArrayList<String>> {
+        private static final long serialVersionUID = 2891366385637203957L;
+
+        private final String junitResults;
+
+        AddRetries(String junitResults) {
+            this.junitResults = junitResults;
+        }
+
+        @Override
+        public ArrayList<String> invoke(File folder, VirtualChannel channel)
+                throws IOException, InterruptedException {
+            final File junitFile = this.junitResults == null ? null : new File(this.junitResults);
+            if (junitFile != null && junitFile.isFile()) {
+                final List<File> files = new ArrayList<>();
+                final List<String> suffixes = new ArrayList<>();
+                files.add(junitFile);
+                suffixes.add(null);
+                for (int attempt = 1;; attempt++) {
+                    final File retry = new File(folder, String.format(RETRY_RESULTS_FILE, attempt));
+                    if (!retry.isFile()) {
+                        break;
+                    }
+                    files.add(retry);
+                    suffixes.add(" (retry " + attempt + ")");
+                }
+                if (files.size() > 1) {
+                    final File merged = new File(folder, MERGED_RESULTS_FILE);
+                    TestResultsMerger.mergeJUnit(files, suffixes, merged);
+                    Files.move(merged.toPath(), junitFile.toPath(),
+                            StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+
+            final ArrayList<String> flakyTests = new ArrayList<>();
+            final File flakyFile = new File(folder, FLAKY_TESTS_FILE);
+            if (flakyFile.isFile()) {
+                for (String line : Files.readAllLines(flakyFile.toPath(),
+                        StandardCharsets.UTF_8)) {
+                    if (!line.trim().isEmpty()) {
+                        flakyTests.add(line.trim());
+                    }
+                }
+            }
+            return flakyTests;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.mathworks.ci;
+
+/**
+ * Copyright 2020 The MathWorks, Inc.
+ *
+ * Selects one part of the test suite when tests are split across several builds. Every build
+ * runs the tests of the shard with the given 1-based index out of the given number of shards, and
+ * the MATLAB test runner assigns tests to shards deterministically. When durations of earlier runs
+ * are known, the runner balances the shards by duration instead of by number of tests.
+ *
+ */
+
+import java.io.Serializable;
+import hudson.AbortException;
+import hudson.FilePath;
+import hudson.Util;
+
+public class TestShard implements Serializable {
+
+    private static final long serialVersionUID = 3872021840150744176L;
+
+    private static final String SHARD_INDEX = "ShardIndex";
+    private static final String SHARD_COUNT = "ShardCount";
+    private static final String TEST_DURATIONS_PATH = "TestDurationsPath";
+
+    private final int index;
+    private final int count;
+
+    private TestShard(int index, int count) {
+        this.index = index;
+        this.count = count;
+    }
+
+    /*
+     * Parses the shard settings. Returns null if tests are not sharded, which is the case when
+     * no shard count or a shard count of one is given.
+     */
+    static TestShard parse(String index, String count) throws AbortException {
+        final String countValue = Util.fixEmptyAndTrim(count);
+        final String indexValue = Util.fixEmptyAndTrim(index);
+        if (countValue == null && indexValue == null) {
+            return null;
+        }
+        try {
+            final int shardCount = countValue == null ? 1 : Integer.parseInt(countValue);
+            final int shardIndex = indexValue == null ? 1 : Integer.parseInt(indexValue);
+            if (shardCount < 1 || shardIndex < 1 || shardIndex > shardCount) {
+                throw new AbortException(Message.getValue("matlab.tests.shard.invalid"));
+            }
+            return shardCount == 1 ? null : new TestShard(shardIndex, shardCount);
+        } catch (NumberFormatException e) {
+            throw new AbortException(Message.getValue("matlab.tests.shard.invalid"));
+        }
+    }
+
+    public int getIndex() {
+        return this.index;
+    }
+
+    public int getCount() {
+        return this.count;
+    }
+
+    /*
+     * Returns the name-value pair arguments passed to runMatlabCiTests.m.
+     */
+    String getInputArgs() {
+        return "'" + SHARD_INDEX + "'," + this.index + ",'" + SHARD_COUNT + "'," + this.count;
+    }
+
+    /*
+     * Returns the name-value pair argument passing a file of test durations to runMatlabCiTests.m.
+     */
+    static String getDurationsArg(FilePath durationsFile) {
+        return "'" + TEST_DURATIONS_PATH + "','"
+                + durationsFile.getRemote().replaceAll("'", "''") + "'";
+    }
+}
@@ -0,0 +1,58 @@
+package com.mathworks.ci;
+
+/**
+ * Copyright 2020 The MathWorks, Inc.
+ *  
+ */
+
+import java.util.Set;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import com.google.common.collect.ImmutableSet;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+
+public class WithMatlabSessionStep extends Step {
+
+    @DataBoundConstructor
+    public WithMatlabSessionStep() {
+
+    }
+
+    @Override
+    public StepExecution start(StepContext context) throws Exception {
+        return new WithMatlabSessionStepExecution(context);
+    }
+
+    @Extension
+    public static class WithMatlabSessionDescriptor extends StepDescriptor {
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return ImmutableSet.of(TaskListener.class, FilePath.class, Launcher.class,
+                    EnvVars.class, Run.class);
+        }
+
+        @Override
+        public boolean takesImplicitBlockArgument() {
+            return true;
+        }
+
+        @Override
+        public String getFunctionName() {
+            return Message.getValue("matlab.session.build.step.name");
+        }
+
+        @Override
+        public String getDisplayName() {
+            return Message.getValue("matlab.session.step.display.name");
+        }
+    }
+}
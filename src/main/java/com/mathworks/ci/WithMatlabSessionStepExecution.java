@@ -0,0 +1,159 @@
+package com.mathworks.ci;
+
+/**
+ * Copyright 2020 The MathWorks, Inc.
+ *
+ * Starts the MATLAB session of a withMatlabSession block on MatlabStepExecutor and runs the body
+ * once MATLAB is ready, so that waiting for MATLAB to start never blocks the thread executing the
+ * Pipeline. Nested steps send their own environment with each request to the session. The session
+ * does not survive a restart of Jenkins, so the block fails when it is resumed.
+ *
+ */
+
+import java.io.IOException;
+import java.util.concurrent.Future;
+import org.acegisecurity.Authentication;
+import org.jenkinsci.plugins.workflow.steps.BodyExecution;
+import org.jenkinsci.plugins.workflow.steps.BodyExecutionCallback;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import hudson.AbortException;
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import jenkins.model.Jenkins;
+
+public class WithMatlabSessionStepExecution extends StepExecution implements MatlabBuild {
+
+    private static final long serialVersionUID = -3457718950113617734L;
+
+    private MatlabSessionContext sessionContext;
+    private BodyExecution body;
+    private transient volatile Future<?> task;
+    private transient boolean stopped;
+
+    public WithMatlabSessionStepExecution(StepContext context) {
+        super(context);
+    }
+
+    @Override
+    public boolean start() throws Exception {
+        final Launcher launcher = getContext().get(Launcher.class);
+        final FilePath workspace = getContext().get(FilePath.class);
+        final TaskListener listener = getContext().get(TaskListener.class);
+        final EnvVars env = getContext().get(EnvVars.class);
+
+        final Authentication auth = Jenkins.getAuthentication();
+        this.task = MatlabStepExecutor.submit(workspace, listener, () -> {
+            try (ACLContext ctx = ACL.as(auth)) {
+                startSession(workspace, launcher, listener, env);
+            } catch (Throwable t) {
+                synchronized (this) {
+                    if (!this.stopped) {
+                        getContext().onFailure(t);
+                    }
+                }
+            }
+        });
+
+        //return false represents the asynchronous run.
+        return false;
+    }
+
+    private void startSession(FilePath workspace, Launcher launcher, TaskListener listener,
+            EnvVars env) throws IOException, InterruptedException {
+        final Computer cmp = workspace.toComputer();
+        if (cmp == null) {
+            throw new IOException(Message.getValue("build.workspace.computer.not.found"));
+        }
+        workspace.mkdirs();
+
+        listener.getLogger().println(Message.getValue("matlab.session.block.starting"));
+        final MatlabSession session =
+                MatlabSession.start(getUniqueNameForRunnerFile(), this, workspace, launcher,
+                        listener, env);
+        boolean ready = false;
+        try {
+            ready = session.awaitReady(MatlabSessionPool.STARTUP_TIMEOUT_MILLIS);
+        } finally {
+            if (!ready) {
+                session.close();
+            }
+        }
+        if (!ready) {
+            throw new AbortException(Message.getValue("matlab.session.block.start.failed"));
+        }
+
+        synchronized (this) {
+            if (this.stopped) {
+                session.close();
+                return;
+            }
+            this.sessionContext = MatlabSessionContext.register(session, cmp.getName());
+            this.body = getContext().newBodyInvoker().withContext(this.sessionContext)
+                    .withCallback(new SessionCallback(this.sessionContext)).start();
+        }
+    }
+
+    @Override
+    public void stop(Throwable cause) throws Exception {
+        final BodyExecution running;
+        synchronized (this) {
+            this.stopped = true;
+            running = this.body;
+        }
+        final Future<?> starting = this.task;
+        if (starting != null) {
+            starting.cancel(true);
+        }
+        if (running != null) {
+            running.cancel(cause);
+        } else {
+            getContext().onFailure(cause);
+        }
+        if (this.sessionContext != null) {
+            this.sessionContext.close();
+        }
+    }
+
+    @Override
+    public void onResume() {
+        // The MATLAB session did not survive the restart of Jenkins, fail the block rather than
+        // let nested steps wait for it.
+        final AbortException cause =
+                new AbortException(Message.getValue("matlab.step.resume.not.supported"));
+        final BodyExecution running;
+        synchronized (this) {
+            this.stopped = true;
+            running = this.body;
+        }
+        if (running != null) {
+            running.cancel(cause);
+        } else {
+            getContext().onFailure(cause);
+        }
+    }
+
+    /*
+     * Shuts the session down once the block has finished, whatever its outcome.
+     */
+    private static class SessionCallback extends BodyExecutionCallback.TailCall {
+
+        private static final long serialVersionUID = 2146584106377011564L;
+
+        private final MatlabSessionContext sessionContext;
+
+        SessionCallback(MatlabSessionContext sessionContext) {
+            this.sessionContext = sessionContext;
+        }
+
+        @Override
+        protected void finished(StepContext context) throws Exception {
+            this.sessionContext.close();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+%Copyright 2020 The MathWorks, Inc.
+
+function matlabSessionServer(sessionFolder, runnerFolder)
+% Keeps this MATLAB session alive and runs the requests that the Jenkins
+% plugin drops into sessionFolder. Each request runs with the environment
+% variables of its build step and its output recorded in a log file. The
+% session is reset afterwards so that the next lease starts from a clean
+% session: variables, globals, persistent variables, loaded functions and
+% classes are cleared, and the path, warning states and environment
+% variables are restored.
+%
+% A request consists of the folder to run in, the statement to run and the
+% request mode. In 'script' mode the exit code is 0 unless the statement
+% errors. In 'status' mode the value of the statement is the exit code.
+
+requestFile  = fullfile(sessionFolder, 'request.txt');
+exitCodeFile = fullfile(sessionFolder, 'exitcode.txt');
+logFile      = fullfile(sessionFolder, 'output.log');
+envFile      = fullfile(sessionFolder, 'environment.txt');
+shutdownFile = fullfile(sessionFolder, 'shutdown');
+
+addpath(runnerFolder);
+initialPath = path;
+initialFolder = pwd;
+initialWarnings = warning;
+initialEnv = getInitialEnvironment();
+
+writeFile(fullfile(sessionFolder, 'ready'), '');
+
+while ~exist(shutdownFile, 'file')
+    if ~exist(requestFile, 'file')
+        pause(0.1);
+        continue;
+    end
+
+    request = strsplit(fileread(requestFile), sprintf('\n'));
+    delete(requestFile);
+    requestEnv = readEnvironment(envFile);
+    setEnvironment(requestEnv);
+
+    exitCode = runRequest(request{1}, request{2}, request{3}, logFile);
+    resetSession(initialPath, initialFolder, initialWarnings);
+    restoreEnvironment(initialEnv, requestEnv);
+
+    writeFile([exitCodeFile '.tmp'], sprintf('%d', exitCode));
+    movefile([exitCodeFile '.tmp'], exitCodeFile, 'f');
+end
+
+function exitCode = runRequest(folder, statement, mode, logFile)
+exitCode = 0;
+diary(logFile);
+try
+    cd(folder);
+    if strcmp(mode, 'status')
+        exitCode = double(evalin('base', statement));
+    else
+        evalin('base', statement);
+    end
+catch e
+    disp(getReport(e, 'extended'));
+    exitCode = 1;
+end
+diary('off');
+
+function resetSession(initialPath, initialFolder, initialWarnings)
+evalin('base', 'clearvars');
+close('all', 'force');
+if exist('bdclose', 'file')
+    bdclose('all');
+end
+% Classes with instances left, for example in handles held by figures or
+% timers, cannot be cleared and only warn.
+warning('off', 'MATLAB:ClassInstanceExists');
+evalin('base', 'clear all; clear global; clear functions; clear classes');
+warning(initialWarnings);
+lastwarn('');
+path(initialPath);
+cd(initialFolder);
+
+function env = getInitialEnvironment
+% The Java runtime keeps the environment the session was started with.
+env = containers.Map();
+try
+    entries = java.lang.System.getenv().entrySet().iterator();
+    while entries.hasNext()
+        entry = entries.next();
+        env(char(entry.getKey())) = char(entry.getValue());
+    end
+catch
+    % Without Java only the variables of the requests are restored.
+end
+
+function env = readEnvironment(envFile)
+% NAME=VALUE entries separated by NUL characters, as written by Jenkins.
+env = containers.Map();
+if ~exist(envFile, 'file')
+    return;
+end
+fid = fopen(envFile, 'r', 'n', 'UTF-8');
+text = fread(fid, '*char')';
+fclose(fid);
+delete(envFile);
+entries = strsplit(text, char(0));
+for k = 1:numel(entries)
+    separator = find(entries{k} == '=', 1);
+    if separator > 1
+        env(entries{k}(1:separator-1)) = entries{k}(separator+1:end);
+    end
+end
+
+function setEnvironment(env)
+names = keys(env);
+for k = 1:numel(names)
+    setenv(names{k}, env(names{k}));
+end
+
+function restoreEnvironment(initialEnv, requestEnv)
+% Restore the variables of the request and those the session started with.
+% Variables set by the statement itself are only known where getenv lists
+% all variables.
+names = union(keys(initialEnv), keys(requestEnv));
+try
+    names = union(names, cellstr(keys(getenv())));
+catch
+    % Listing all variables is not supported in this release.
+end
+for k = 1:numel(names)
+    name = names{k};
+    if isKey(initialEnv, name)
+        if ~strcmp(getenv(name), initialEnv(name))
+            setenv(name, initialEnv(name));
+        end
+    elseif ~isempty(getenv(name))
+        unsetVariable(name);
+    end
+end
+
+function unsetVariable(name)
+try
+    unsetenv(name);
+catch
+    setenv(name, '');
+end
+
+function writeFile(file, content)
+fid = fopen(file, 'w');
+fprintf(fid, '%s', content);
+fclose(fid);
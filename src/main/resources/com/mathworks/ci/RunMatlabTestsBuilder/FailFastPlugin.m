@@ -0,0 +1,57 @@
+%Copyright 2020 The MathWorks, Inc.
+
+classdef FailFastPlugin < matlab.unittest.plugins.TestRunnerPlugin
+    % Skips the remaining tests once a number of tests have failed. Skipped
+    % tests are marked incomplete by a failed assumption, so the run ends
+    % normally and every other plugin still writes its artifacts for the
+    % tests that ran.
+
+    properties (SetAccess = immutable)
+        MaxFailures
+    end
+
+    properties (Access = private)
+        FailureCount = 0;
+    end
+
+    methods
+        function plugin = FailFastPlugin(maxFailures)
+            plugin.MaxFailures = maxFailures;
+        end
+    end
+
+    methods (Access = protected)
+        function setupTestClass(plugin, pluginData)
+            % Skipping the class setup also skips every test of the class.
+            % Unlike the run methods, the setup methods get the
+            % qualification context needed to skip.
+            plugin.skipIfStopped(pluginData);
+            setupTestClass@matlab.unittest.plugins.TestRunnerPlugin(plugin, pluginData);
+        end
+
+        function setupTestMethod(plugin, pluginData)
+            plugin.skipIfStopped(pluginData);
+            setupTestMethod@matlab.unittest.plugins.TestRunnerPlugin(plugin, pluginData);
+        end
+
+        function reportFinalizedResult(plugin, pluginData)
+            if pluginData.TestResult.Failed
+                plugin.FailureCount = plugin.FailureCount + 1;
+                if plugin.FailureCount == plugin.MaxFailures
+                    fprintf('Skipping the remaining tests after %d failed tests.\n', ...
+                        plugin.FailureCount);
+                end
+            end
+            reportFinalizedResult@matlab.unittest.plugins.TestRunnerPlugin(plugin, pluginData);
+        end
+    end
+
+    methods (Access = private)
+        function skipIfStopped(plugin, pluginData)
+            if plugin.FailureCount >= plugin.MaxFailures
+                pluginData.QualificationContext.assumeFail(sprintf( ...
+                    'Skipped after %d failed tests.', plugin.FailureCount));
+            end
+        end
+    end
+end
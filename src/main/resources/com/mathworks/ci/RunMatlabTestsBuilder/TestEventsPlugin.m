@@ -0,0 +1,132 @@
+%Copyright 2020 The MathWorks, Inc.
+
+classdef TestEventsPlugin < matlab.unittest.plugins.TestRunnerPlugin
+    % Writes one JSON object per line to a file while the tests run, so
+    % that Jenkins can show the progress of the run before it finishes.
+    % Each event is appended and the file closed again, so a reader sees at
+    % most one incomplete line at the end of the file. When the tests run in
+    % parallel, each worker writes to a file of its own, named after the
+    % events file and the ID of the worker.
+    %
+    % Events:
+    %   suiteStarted  - count: number of tests about to run
+    %   testStarted   - name
+    %   testFinished  - name, status (passed, failed or incomplete),
+    %                   duration in seconds, diagnostics of failed tests
+
+    properties (SetAccess = immutable)
+        EventsFile
+    end
+
+    properties (Access = private)
+        Diagnostics
+    end
+
+    methods
+        function plugin = TestEventsPlugin(eventsFile)
+            plugin.EventsFile = eventsFile;
+            plugin.Diagnostics = containers.Map('KeyType', 'char', 'ValueType', 'any');
+        end
+    end
+
+    methods (Access = protected)
+        function runTestSuite(plugin, pluginData)
+            % Runs once per group of tests when running in parallel, so the
+            % counts of all groups add up to the size of the suite.
+            plugin.writeEvent(struct('event', 'suiteStarted', ...
+                'count', numel(pluginData.TestSuite)));
+            runTestSuite@matlab.unittest.plugins.TestRunnerPlugin(plugin, pluginData);
+        end
+
+        function testCase = createTestMethodInstance(plugin, pluginData)
+            testCase = createTestMethodInstance@matlab.unittest.plugins.TestRunnerPlugin(plugin, pluginData);
+            name = pluginData.Name;
+            onFailure = @(~, event)plugin.addDiagnostic(name, event);
+            testCase.addlistener('VerificationFailed', onFailure);
+            testCase.addlistener('AssertionFailed', onFailure);
+            testCase.addlistener('FatalAssertionFailed', onFailure);
+            testCase.addlistener('AssumptionFailed', onFailure);
+            testCase.addlistener('ExceptionThrown', onFailure);
+        end
+
+        function runTestMethod(plugin, pluginData)
+            plugin.writeEvent(struct('event', 'testStarted', 'name', pluginData.Name));
+            runTestMethod@matlab.unittest.plugins.TestRunnerPlugin(plugin, pluginData);
+        end
+
+        function reportFinalizedResult(plugin, pluginData)
+            result = pluginData.TestResult;
+            event = struct('event', 'testFinished', 'name', result.Name, ...
+                'status', resultStatus(result), 'duration', result.Duration);
+            if isKey(plugin.Diagnostics, result.Name)
+                event.diagnostics = strjoin(plugin.Diagnostics(result.Name), sprintf('\n'));
+                remove(plugin.Diagnostics, result.Name);
+            end
+            plugin.writeEvent(event);
+            reportFinalizedResult@matlab.unittest.plugins.TestRunnerPlugin(plugin, pluginData);
+        end
+    end
+
+    methods (Access = private)
+        function addDiagnostic(plugin, name, event)
+            if isKey(plugin.Diagnostics, name)
+                texts = plugin.Diagnostics(name);
+            else
+                texts = {};
+            end
+            plugin.Diagnostics(name) = [texts, {diagnosticText(event)}];
+        end
+
+        function writeEvent(plugin, event)
+            fid = fopen(workerEventsFile(plugin.EventsFile), 'a', 'n', 'UTF-8');
+            if fid < 0
+                return;
+            end
+            fprintf(fid, '%s\n', jsonencode(event));
+            fclose(fid);
+        end
+    end
+end
+
+function file = workerEventsFile(file)
+% Workers never append to the same file, as their lines could interleave.
+try
+    task = getCurrentTask();
+catch
+    task = [];
+end
+if ~isempty(task)
+    [folder, name, ext] = fileparts(file);
+    file = fullfile(folder, sprintf('%s-%d%s', name, task.ID, ext));
+end
+end
+
+function status = resultStatus(result)
+if result.Failed
+    status = 'failed';
+elseif result.Incomplete
+    status = 'incomplete';
+else
+    status = 'passed';
+end
+end
+
+function text = diagnosticText(event)
+% Diagnostics are strings in earlier releases and DiagnosticResult objects
+% in later ones.
+try
+    if isa(event, 'matlab.unittest.qualifications.ExceptionEventData')
+        text = event.Exception.message;
+        return;
+    end
+    results = [event.TestDiagnosticResult, event.FrameworkDiagnosticResult];
+    if iscell(results)
+        texts = results;
+    else
+        texts = cellfun(@char, {results.DiagnosticText}, 'UniformOutput', false);
+    end
+    text = strjoin(texts(~cellfun(@isempty, texts)), sprintf('\n'));
+catch
+    text = sprintf('%s in %s.', event.EventName, class(event));
+end
+end
@@ -0,0 +1,674 @@
+%Copyright 2019-2020 The MathWorks, Inc.
+
+function failed = runMatlabCiTests(varargin)
+
+p = inputParser;
+validationFcn = @(c)ischar(c) && (isempty(c) || isrow(c));
+
+p.addParameter('PDFReportPath', '', validationFcn);
+p.addParameter('TAPResultsPath', '', validationFcn);
+p.addParameter('JUnitResultsPath', '', validationFcn);
+p.addParameter('SimulinkTestResultsPath', '', validationFcn);
+p.addParameter('CoberturaCodeCoveragePath', '', validationFcn);
+p.addParameter('CoberturaModelCoveragePath', '', validationFcn);
+p.addParameter('ShardIndex', 1, @(n)isnumeric(n) && isscalar(n) && n >= 1);
+p.addParameter('ShardCount', 1, @(n)isnumeric(n) && isscalar(n) && n >= 1);
+p.addParameter('TestDurationsPath', '', validationFcn);
+p.addParameter('UseParallel', false, @(b)islogical(b) && isscalar(b));
+p.addParameter('WorkerCount', 0, @(n)isnumeric(n) && isscalar(n) && n >= 0);
+p.addParameter('TestFilesListPath', '', validationFcn);
+p.addParameter('DependencyIndexPath', '', validationFcn);
+p.addParameter('TestEventsPath', '', validationFcn);
+p.addParameter('ResultsStreamPath', '', validationFcn);
+p.addParameter('DeferredPDFResultsPath', '', validationFcn);
+p.addParameter('FailFast', 0, @(n)isnumeric(n) && isscalar(n) && n >= 0);
+p.addParameter('RetryFailed', 0, @(n)isnumeric(n) && isscalar(n) && n >= 0);
+p.addParameter('RetryResultsFolder', '', validationFcn);
+p.addParameter('SourceFolder', {}, @iscellstr);
+p.addParameter('SelectByFolder', {}, @iscellstr);
+p.addParameter('ExcludeFolders', {}, @iscellstr);
+p.addParameter('CoverageSourceFolder', {}, @iscellstr);
+p.addParameter('CoverageExcludeFolders', {}, @iscellstr);
+
+p.parse(varargin{:});
+
+
+pdfReportPath            = p.Results.PDFReportPath;
+tapReportPath            = p.Results.TAPResultsPath;
+junitReportPath          = p.Results.JUnitResultsPath;
+stmReportPath            = p.Results.SimulinkTestResultsPath;
+coberturaReportPath      = p.Results.CoberturaCodeCoveragePath;
+modelCoveragePath        = p.Results.CoberturaModelCoveragePath;
+shardIndex               = p.Results.ShardIndex;
+shardCount               = p.Results.ShardCount;
+durationsPath            = p.Results.TestDurationsPath;
+useParallel              = p.Results.UseParallel;
+workerCount              = p.Results.WorkerCount;
+testFilesListPath        = p.Results.TestFilesListPath;
+dependencyIndexPath      = p.Results.DependencyIndexPath;
+testEventsPath           = p.Results.TestEventsPath;
+resultsStreamPath        = p.Results.ResultsStreamPath;
+deferredPdfResultsPath   = p.Results.DeferredPDFResultsPath;
+maxFailures              = p.Results.FailFast;
+retryCount               = p.Results.RetryFailed;
+retryResultsFolder       = p.Results.RetryResultsFolder;
+sourceFolders            = p.Results.SourceFolder;
+testFolders              = cellfun(@normalizeFolder, p.Results.SelectByFolder, 'UniformOutput', false);
+excludeFolders           = cellfun(@normalizeFolder, p.Results.ExcludeFolders, 'UniformOutput', false);
+coverageFolders          = cellfun(@normalizeFolder, p.Results.CoverageSourceFolder, 'UniformOutput', false);
+coverageExcludeFolders   = cellfun(@normalizeFolder, p.Results.CoverageExcludeFolders, 'UniformOutput', false);
+
+BASE_VERSION_MATLABUNIT_SUPPORT = '8.1';
+
+if verLessThan('matlab',BASE_VERSION_MATLABUNIT_SUPPORT)
+    error('MATLAB:unitTest:testFrameWorkNotSupported','Running tests automatically is not supported in this relase.');
+end
+
+% Put the source folders with their subfolders on the path
+for k = 1:numel(sourceFolders)
+    addpath(genpath(fullfile(pwd, sourceFolders{k})));
+end
+
+%Create test suite for tests folder, or for the listed test files only
+suite = getTestSuite(testFilesListPath, testFolders, excludeFolders);
+
+% Keep only the tests of this shard when tests are split across builds
+suite = selectShard(suite, shardIndex, shardCount, durationsPath);
+
+% Create and configure the runner
+import('matlab.unittest.TestRunner');
+runner = TestRunner.withTextOutput;
+
+% Plugins are added to the runner once all are known, so that the suite is
+% only run in parallel when every plugin supports it.
+plugins = {};
+
+% Jenkins writes the TAP and JUnit reports from the test events after MATLAB
+% exits (Not supported below R2018a)
+BASE_VERSION_TESTEVENTS_SUPPORT = '9.4';
+writeReportsInJenkins = ~isempty(resultsStreamPath) && ...
+    ~verLessThan('matlab',BASE_VERSION_TESTEVENTS_SUPPORT);
+
+
+% Produce JUnit report
+if ~isempty(junitReportPath) && ~writeReportsInJenkins
+    BASE_VERSION_JUNIT_SUPPORT = '8.6';
+    if verLessThan('matlab',BASE_VERSION_JUNIT_SUPPORT)
+        warning('MATLAB:testArtifact:junitReportNotSupported', 'Producing JUnit xml results is not supported in this release.');
+    else
+        import('matlab.unittest.plugins.XMLPlugin');
+        preparePath(junitReportPath);
+        plugins{end+1} = XMLPlugin.producingJUnitFormat(junitReportPath);
+    end
+end
+
+% Produce TAP report
+if ~isempty(tapReportPath) && ~writeReportsInJenkins
+    BASE_VERSION_TAPORIGINALFORMAT_SUPPORT = '8.3';
+    BASE_VERSION_TAP13_SUPPORT = '9.1';
+    if verLessThan('matlab',BASE_VERSION_TAPORIGINALFORMAT_SUPPORT)
+        warning('MATLAB:testArtifact:tapReportNotSupported', 'Producing TAP results is not supported in this release.');
+    elseif verLessThan('matlab',BASE_VERSION_TAP13_SUPPORT)
+        tapFile = getTapResultFile(tapReportPath);
+        import('matlab.unittest.plugins.TAPPlugin');
+        plugins{end+1} = TAPPlugin.producingOriginalFormat(tapFile);
+    else
+        tapFile = getTapResultFile(tapReportPath);
+        import('matlab.unittest.plugins.TAPPlugin');
+        plugins{end+1} = TAPPlugin.producingVersion13(tapFile);
+    end
+    
+end
+
+% Produce Cobertura report (Cobertura report generation is not supported
+% below R17a) 
+if ~isempty(coberturaReportPath) 
+    BASE_VERSION_COBERTURA_SUPPORT = '9.3';
+    
+    if verLessThan('matlab',BASE_VERSION_COBERTURA_SUPPORT)
+         warning('MATLAB:testArtifact:coberturaReportNotSupported', 'Producing Cobertura code coverage results is not supported in this release.');
+    else 
+        preparePath(coberturaReportPath);
+        % Measure the coverage of the source folders unless other folders
+        % are given for coverage.
+        if isempty(coverageFolders)
+            coverageFolders = cellfun(@normalizeFolder, sourceFolders, 'UniformOutput', false);
+        end
+        coveragePlugin = getCodeCoveragePlugin(coverageFolders, coverageExcludeFolders, ...
+            CoberturaFormat(coberturaReportPath));
+        if ~isempty(coveragePlugin)
+            plugins{end+1} = coveragePlugin;
+        end
+    end
+end
+
+% Produce Cobertura model coverage report (Not supported below R2018b) 
+if ~isempty(modelCoveragePath)
+    if ~exist('sltest.plugins.ModelCoveragePlugin', 'class') || ~coberturaModelCoverageSupported
+        warning('MATLAB:testArtifact:cannotGenerateModelCoverageReport', ...
+                'Unable to generate Cobertura model coverage report. To generate the report, use a Simulink Coverage license with MATLAB R2018b or a newer release.');
+    else 
+        import('sltest.plugins.ModelCoveragePlugin');
+        
+        preparePath(modelCoveragePath);
+        plugins{end+1} = ModelCoveragePlugin('Producing',CoberturaFormat(modelCoveragePath));
+    end
+end
+
+stmResultsPluginAddedToRunner = false;
+
+% Save Simulink Test Manager results in MLDATX format (Not supported below R2019a)
+if ~isempty(stmReportPath)
+    if ~stmResultsPluginPresent || ~exportSTMResultsSupported
+        issueExportSTMResultsUnsupportedWarning;
+    else
+        preparePath(stmReportPath);
+        plugins{end+1} = TestManagerResultsPlugin('ExportToFile', stmReportPath);
+        stmResultsPluginAddedToRunner = true;
+    end
+end
+
+% Produce PDF test report (Not supported on MacOS platforms and below R2017a)
+deferPdfReport = false;
+if ~isempty(pdfReportPath)
+    if ismac
+        warning('MATLAB:testArtifact:unSupportedPlatform', ...
+            'Producing a PDF test report is not currently supported on MacOS platforms.');
+    elseif ~testReportPluginPresent
+        issuePDFReportUnsupportedWarning;
+    elseif ~isempty(deferredPdfResultsPath) && deferredPDFReportSupported
+        % Jenkins renders the report from the saved results after MATLAB
+        % exits. The diagnostics are recorded for the report.
+        plugins{end+1} = matlab.unittest.plugins.DiagnosticsRecordingPlugin;
+        deferPdfReport = true;
+    else
+        preparePath(pdfReportPath);
+        import('matlab.unittest.plugins.TestReportPlugin');
+        plugins{end+1} = TestReportPlugin.producingPDF(pdfReportPath);
+        
+        if ~stmResultsPluginAddedToRunner && stmResultsPluginPresent
+            plugins{end+1} = TestManagerResultsPlugin;
+        end
+    end
+end
+
+% Skip the remaining tests after a number of failures (Not supported below
+% R2018b)
+if maxFailures > 0
+    BASE_VERSION_FAILFAST_SUPPORT = '9.5';
+    if verLessThan('matlab',BASE_VERSION_FAILFAST_SUPPORT)
+        warning('MATLAB:testRun:failFastNotSupported', ...
+            'Skipping tests after failures is not supported in this release. Running all tests.');
+    else
+        plugins{end+1} = FailFastPlugin(maxFailures);
+    end
+end
+
+% Report test events to Jenkins while the tests run (Not supported below
+% R2018a)
+if ~isempty(testEventsPath)
+    if ~verLessThan('matlab',BASE_VERSION_TESTEVENTS_SUPPORT)
+        plugins{end+1} = TestEventsPlugin(testEventsPath);
+    end
+end
+
+% The events shown as progress also hold the results of the tests.
+if writeReportsInJenkins && ~strcmp(resultsStreamPath, testEventsPath)
+    plugins{end+1} = TestEventsPlugin(resultsStreamPath);
+end
+
+for k = 1:numel(plugins)
+    runner.addPlugin(plugins{k});
+end
+
+if useParallel && canRunInParallel(plugins, workerCount)
+    results = runner.runInParallel(suite);
+else
+    results = runner.run(suite);
+end
+
+% Run the failed tests again to tell flaky tests from broken ones
+if retryCount > 0
+    results = retryFailedTests(suite, results, retryCount, retryResultsFolder, ...
+        ~isempty(junitReportPath));
+end
+failed = any([results.Failed]);
+
+% Save the results for rendering the PDF test report after MATLAB exits
+if deferPdfReport
+    save(deferredPdfResultsPath, 'results');
+end
+
+% Record the dependencies of the tests for selecting tests by changed files
+if ~isempty(dependencyIndexPath)
+    writeDependencyIndex(suite, dependencyIndexPath);
+end
+
+function plugin = getCodeCoveragePlugin(folders, excludeFolders, format)
+% Measure the coverage of the given folders with their subfolders, or of
+% the current folder if none are given. Leaving out excluded folders
+% requires measuring the coverage of a list of files instead.
+import('matlab.unittest.plugins.CodeCoveragePlugin');
+if isempty(folders)
+    folders = {''};
+end
+if isempty(excludeFolders)
+    fullFolders = cellfun(@(f)fullfile(pwd, f), folders, 'UniformOutput', false);
+    plugin = CodeCoveragePlugin.forFolder(fullFolders,'IncludingSubfolders',true,...
+        'Producing', format);
+    return;
+end
+files = {};
+for k = 1:numel(folders)
+    files = [files, findCodeFiles(folders{k}, excludeFolders)]; %#ok<AGROW>
+end
+if isempty(files)
+    warning('MATLAB:testArtifact:noCodeForCoverage', ...
+        'No MATLAB code files found outside the excluded folders. Code coverage is not measured.');
+    plugin = [];
+else
+    plugin = CodeCoveragePlugin.forFile(files, 'Producing', format);
+end
+
+function files = findCodeFiles(folder, excludeFolders)
+% Code files of the folder, relative to the current folder, and of its
+% subfolders which are not excluded, including package, class and private
+% folders.
+files = {};
+fullFolder = fullfile(pwd, folder);
+if matchesFolder(folder, excludeFolders, false) || exist(fullFolder, 'dir') ~= 7
+    return;
+end
+entries = dir(fullFolder);
+for k = 1:numel(entries)
+    name = entries(k).name;
+    if entries(k).isdir
+        if any(strcmp(name, {'.', '..'}))
+            continue;
+        end
+        if isempty(folder)
+            subfolder = name;
+        else
+            subfolder = [folder '/' name];
+        end
+        files = [files, findCodeFiles(subfolder, excludeFolders)]; %#ok<AGROW>
+    else
+        [~, ~, ext] = fileparts(name);
+        if any(strcmp(ext, {'.m', '.mlx'}))
+            files{end+1} = fullfile(fullFolder, name); %#ok<AGROW>
+        end
+    end
+end
+
+function tf = canRunInParallel(plugins, workerCount)
+% Run in parallel on the current pool, or on a new pool of the requested
+% size, if Parallel Computing Toolbox is available and every plugin can
+% merge the results of the workers into a single artifact.
+BASE_VERSION_PARALLELIZABLE_SUPPORT = '9.7';
+tf = false;
+if verLessThan('matlab', BASE_VERSION_PARALLELIZABLE_SUPPORT) || ...
+        ~license('test', 'Distrib_Computing_Toolbox') || isempty(ver('parallel'))
+    warning('MATLAB:parallelTests:parallelNotAvailable', ...
+        'Running tests in parallel requires Parallel Computing Toolbox with MATLAB R2019b or a newer release. Running tests serially.');
+    return;
+end
+for k = 1:numel(plugins)
+    % Each worker writes its test events to a file of its own on the same
+    % machine.
+    if ~isa(plugins{k}, 'matlab.unittest.plugins.Parallelizable') && ...
+            ~isa(plugins{k}, 'TestEventsPlugin')
+        warning('MATLAB:parallelTests:pluginNotParallelizable', ...
+            'The %s plugin does not support running tests in parallel. Running tests serially.', class(plugins{k}));
+        return;
+    end
+end
+try
+    if isempty(gcp('nocreate'))
+        cluster = parcluster;
+        if workerCount < 1
+            workerCount = cluster.NumWorkers;
+        end
+        parpool(cluster, min(workerCount, cluster.NumWorkers));
+    end
+    tf = true;
+catch e
+    warning('MATLAB:parallelTests:poolNotStarted', ...
+        'Unable to start a parallel pool: %s Running tests serially.', e.message);
+end
+
+function results = retryFailedTests(suite, results, retryCount, retryFolder, produceJUnit)
+% Run the failed tests again, up to retryCount times, each time with a new
+% runner in this session. The JUnit results of every retry are written to
+% the retry folder, where Jenkins adds them to the JUnit report, and the
+% tests which passed only on a retry are listed as flaky.
+import('matlab.unittest.TestRunner');
+BASE_VERSION_JUNIT_SUPPORT = '8.6';
+firstFailed = [results.Failed];
+for attempt = 1:retryCount
+    toRetry = find([results.Failed]);
+    if isempty(toRetry)
+        break;
+    end
+    fprintf('Running %d failed tests again, attempt %d of %d.\n', numel(toRetry), ...
+        attempt, retryCount);
+    runner = TestRunner.withTextOutput;
+    if produceJUnit && ~isempty(retryFolder) && ~verLessThan('matlab',BASE_VERSION_JUNIT_SUPPORT)
+        runner.addPlugin(matlab.unittest.plugins.XMLPlugin.producingJUnitFormat( ...
+            fullfile(retryFolder, sprintf('retry%d.xml', attempt))));
+    end
+    results(toRetry) = runner.run(suite(toRetry));
+end
+flaky = firstFailed & ~[results.Failed];
+if any(flaky) && ~isempty(retryFolder)
+    fid = fopen(fullfile(retryFolder, 'flakyTests.txt'), 'w', 'n', 'UTF-8');
+    fprintf(fid, '%s\n', results(flaky).Name);
+    fclose(fid);
+end
+
+function preparePath(path)
+dir = fileparts(path);
+dirExists = isempty(dir) || exist(dir,'dir') == 7;
+if ~dirExists		
+    mkdir(dir);		    
+end
+
+function tapFile = getTapResultFile(resultsDir)
+import('matlab.unittest.plugins.ToFile');
+preparePath(resultsDir);
+fclose(fopen(resultsDir,'w'));
+tapFile = matlab.unittest.plugins.ToFile(resultsDir);
+
+function suite = getTestSuite(testFilesListPath, testFolders, excludeFolders)
+% Discover tests only in the given test folders, or in the current folder
+% if none are given, and skip the excluded folders.
+if ~isempty(testFilesListPath)
+    suite = getTestSuiteFromFiles(testFilesListPath, testFolders, excludeFolders);
+elseif isempty(testFolders) && isempty(excludeFolders)
+    suite = getFolderSuite(pwd, true);
+else
+    if isempty(testFolders)
+        testFolders = {''};
+    end
+    suite = matlab.unittest.Test.empty(1, 0);
+    for k = 1:numel(testFolders)
+        suite = [suite, getSuiteWithoutExcluded(testFolders{k}, excludeFolders)]; %#ok<AGROW>
+    end
+end
+
+function suite = getFolderSuite(folder, includeSubfolders)
+import('matlab.unittest.TestSuite');
+BASE_VERSION_TESTSUITE_SUPPORT = '9.0';
+if verLessThan('matlab',BASE_VERSION_TESTSUITE_SUPPORT)
+    suite = matlab.unittest.TestSuite.fromFolder(folder,'IncludingSubfolders',includeSubfolders);
+else
+    suite = testsuite(folder,'IncludeSubfolders',includeSubfolders);
+end
+
+function suite = getSuiteWithoutExcluded(folder, excludeFolders)
+% Folders are relative to the current folder, separated by '/'. Only the
+% folders on the way to an excluded folder are searched one at a time,
+% every other folder is searched with its subfolders at once.
+suite = matlab.unittest.Test.empty(1, 0);
+fullFolder = fullfile(pwd, folder);
+if matchesFolder(folder, excludeFolders, false) || exist(fullFolder, 'dir') ~= 7
+    return;
+end
+if ~matchesFolder(folder, excludeFolders, true)
+    suite = getFolderSuite(fullFolder, true);
+    return;
+end
+suite = getFolderSuite(fullFolder, false);
+entries = dir(fullFolder);
+for k = 1:numel(entries)
+    name = entries(k).name;
+    % Package, class and private folders belong to their parent folder.
+    if ~entries(k).isdir || any(strcmp(name, {'.', '..', 'private'})) || any(name(1) == '+@')
+        continue;
+    end
+    if isempty(folder)
+        subfolder = name;
+    else
+        subfolder = [folder '/' name];
+    end
+    suite = [suite, getSuiteWithoutExcluded(subfolder, excludeFolders)]; %#ok<AGROW>
+end
+
+function tf = matchesFolder(folder, patterns, isParent)
+% Whether the folder matches one of the patterns, in which '*' matches any
+% characters of a folder name, or with isParent whether the folder is a
+% parent of a folder which may match.
+parts = strsplit(folder, '/');
+parts = parts(~cellfun(@isempty, parts));
+tf = false;
+for k = 1:numel(patterns)
+    patternParts = strsplit(patterns{k}, '/');
+    if isParent
+        n = numel(parts);
+        if n >= numel(patternParts)
+            continue;
+        end
+    else
+        n = numel(patternParts);
+        if n ~= numel(parts)
+            continue;
+        end
+    end
+    matched = true;
+    for m = 1:n
+        if isempty(regexp(parts{m}, ['^' regexptranslate('wildcard', patternParts{m}) '$'], 'once'))
+            matched = false;
+            break;
+        end
+    end
+    if matched
+        tf = true;
+        return;
+    end
+end
+
+function tf = isSelectedFile(file, testFolders, excludeFolders)
+% Whether the file lies in one of the test folders and in none of the
+% excluded folders.
+parts = strsplit(file, '/');
+tf = isempty(testFolders) || any(cellfun(@isempty, testFolders));
+for k = 1:numel(parts)-1
+    folder = strjoin(parts(1:k), '/');
+    if matchesFolder(folder, excludeFolders, false)
+        tf = false;
+        return;
+    end
+    tf = tf || any(strcmp(folder, testFolders));
+end
+
+function folder = normalizeFolder(folder)
+folder = strrep(strtrim(folder), '\', '/');
+while strncmp(folder, './', 2)
+    folder = folder(3:end);
+end
+while ~isempty(folder) && folder(end) == '/'
+    folder = folder(1:end-1);
+end
+if strcmp(folder, '.')
+    folder = '';
+end
+
+function suite = getTestSuiteFromFiles(testFilesListPath, testFolders, excludeFolders)
+% Create the suite from the listed files relative to the current folder.
+% Files which no longer exist, lie outside the test folders or do not
+% contain tests are skipped.
+files = strsplit(fileread(testFilesListPath), sprintf('\n'));
+suite = matlab.unittest.Test.empty(1, 0);
+for k = 1:numel(files)
+    file = fullfile(pwd, strtrim(files{k}));
+    if isempty(strtrim(files{k})) || exist(file, 'file') ~= 2 || ...
+            ~isSelectedFile(strtrim(files{k}), testFolders, excludeFolders)
+        continue;
+    end
+    try
+        suite = [suite, matlab.unittest.TestSuite.fromFile(file)]; %#ok<AGROW>
+    catch
+        % Not a test file
+    end
+end
+fprintf('Running %d tests affected by changed files.\n', numel(suite));
+
+function writeDependencyIndex(suite, indexPath)
+% Write one line per test file holding the test file followed by the files
+% it depends on, all relative to the current folder and separated by tabs.
+% A first line '#unresolved' tells that the file of a test was not found, so
+% that Jenkins runs all tests instead of selecting them by this index.
+if isempty(which('matlab.codetools.requiredFilesAndProducts'))
+    return;
+end
+root = [pwd filesep];
+testFiles = cell(1, numel(suite));
+for k = 1:numel(suite)
+    testFiles{k} = getTestFile(suite(k));
+end
+testFiles = unique(testFiles);
+fid = fopen(indexPath, 'w', 'n', 'UTF-8');
+closeIndex = onCleanup(@()fclose(fid));
+if ~all(strncmp(testFiles, root, numel(root)))
+    fprintf(fid, '#unresolved\n');
+end
+testFiles = testFiles(strncmp(testFiles, root, numel(root)));
+for k = 1:numel(testFiles)
+    testFile = testFiles{k};
+    try
+        files = matlab.codetools.requiredFilesAndProducts(testFile);
+    catch
+        files = {};
+    end
+    files = [{testFile}, setdiff(files, {testFile})];
+    files = files(strncmp(files, root, numel(root)));
+    files = cellfun(@(f)strrep(f(numel(root)+1:end), filesep, '/'), files, ...
+        'UniformOutput', false);
+    fprintf(fid, '%s\n', strjoin(files, sprintf('\t')));
+end
+
+function testFile = getTestFile(test)
+% Find the file defining the test in the folder the test was found in, as
+% test folders need not be on the path. The test name starts with the name
+% of the test class or file, followed by its class parameters if any.
+parent = regexprep(strtok(test.Name, '/'), '\[.*$', '');
+parts = strsplit(parent, '.');
+name = parts{end};
+try
+    folder = fullfile(test.BaseFolder, strjoin(strcat('+', parts(1:end-1)), filesep));
+    candidates = {fullfile(folder, [name '.m']), fullfile(folder, [name '.mlx']), ...
+        fullfile(folder, ['@' name], [name '.m'])};
+    for k = 1:numel(candidates)
+        if exist(candidates{k}, 'file') == 2
+            testFile = candidates{k};
+            return;
+        end
+    end
+catch
+    % Tests of releases without BaseFolder are found on the path.
+end
+testFile = which(parent);
+
+function suite = selectShard(suite, shardIndex, shardCount, durationsPath)
+% Assign tests to shards in the order of their names, so that every shard
+% selects the same split independent of discovery order. Without durations
+% of earlier runs the tests are dealt out round robin, otherwise the
+% longest tests are placed first, each on the shard with least total time.
+if shardCount <= 1
+    return;
+end
+[names, order] = sort({suite.Name});
+if isempty(durationsPath)
+    shardOf = mod(0:numel(order)-1, shardCount) + 1;
+else
+    shardOf = assignByDuration(estimateDurations(names, durationsPath), shardCount);
+end
+suite = suite(sort(order(shardOf == shardIndex)));
+fprintf('Running shard %d of %d with %d of %d tests.\n', shardIndex, shardCount, ...
+    numel(suite), numel(order));
+
+function shardOf = assignByDuration(durations, shardCount)
+% Longest processing time first. Ties keep name order as sort is stable.
+shardOf = zeros(1, numel(durations));
+shardLoad = zeros(1, shardCount);
+[~, byDuration] = sort(durations, 'descend');
+for k = byDuration
+    [~, s] = min(shardLoad);
+    shardOf(k) = s;
+    shardLoad(s) = shardLoad(s) + durations(k);
+end
+
+function durations = estimateDurations(names, durationsPath)
+% Tests without a recorded duration are estimated by the mean duration of
+% the other tests of their file or class, else by the mean of all tests.
+fid = fopen(durationsPath, 'r', 'n', 'UTF-8');
+data = textscan(fid, '%f %[^\r\n]');
+fclose(fid);
+known = containers.Map('KeyType', 'char', 'ValueType', 'double');
+parentTotal = containers.Map('KeyType', 'char', 'ValueType', 'double');
+parentCount = containers.Map('KeyType', 'char', 'ValueType', 'double');
+for k = 1:numel(data{2})
+    name = data{2}{k};
+    known(name) = data{1}(k);
+    parent = strtok(name, '/');
+    if isKey(parentTotal, parent)
+        parentTotal(parent) = parentTotal(parent) + data{1}(k);
+        parentCount(parent) = parentCount(parent) + 1;
+    else
+        parentTotal(parent) = data{1}(k);
+        parentCount(parent) = 1;
+    end
+end
+if isempty(data{1})
+    overallMean = 1;
+else
+    overallMean = mean(data{1});
+end
+durations = zeros(1, numel(names));
+for k = 1:numel(names)
+    parent = strtok(names{k}, '/');
+    if isKey(known, names{k})
+        durations(k) = known(names{k});
+    elseif isKey(parentTotal, parent)
+        durations(k) = parentTotal(parent) / parentCount(parent);
+    else
+        durations(k) = overallMean;
+    end
+end
+
+function plugin = CoberturaFormat(varargin)
+plugin = matlab.unittest.plugins.codecoverage.CoberturaFormat(varargin{:});
+
+function plugin = TestManagerResultsPlugin(varargin)
+plugin = sltest.plugins.TestManagerResultsPlugin(varargin{:});
+
+function tf = testReportPluginPresent
+BASE_VERSION_REPORTPLUGIN_SUPPORT = '9.2'; % R2017a 
+
+tf = ~verLessThan('matlab',BASE_VERSION_REPORTPLUGIN_SUPPORT);
+
+function tf = deferredPDFReportSupported
+BASE_VERSION_GENERATEPDFREPORT_SUPPORT = '9.9'; % R2020b
+
+tf = ~verLessThan('matlab',BASE_VERSION_GENERATEPDFREPORT_SUPPORT);
+
+function tf = stmResultsPluginPresent
+tf = logical(exist('sltest.plugins.TestManagerResultsPlugin', 'class'));
+
+function tf = coberturaModelCoverageSupported
+BASE_VERSION_MODELCOVERAGE_SUPPORT = '9.5'; % R2018b
+
+tf = ~verLessThan('matlab',BASE_VERSION_MODELCOVERAGE_SUPPORT);
+
+function tf = exportSTMResultsSupported
+BASE_VERSION_EXPORTSTMRESULTS_SUPPORT = '9.6'; % R2019a
+
+tf = ~verLessThan('matlab',BASE_VERSION_EXPORTSTMRESULTS_SUPPORT);
+
+function issuePDFReportUnsupportedWarning
+warning('MATLAB:testArtifact:pdfReportNotSupported', ...
+    'Producing a test report in PDF format is not supported in the current MATLAB release.');
+
+function issueExportSTMResultsUnsupportedWarning
+warning('MATLAB:testArtifact:cannotExportSimulinkTestManagerResults', ...
+    ['Unable to export Simulink Test Manager results. This feature ', ...
+    'requires a Simulink Test license and is supported only in MATLAB R2019a or a newer release.']);
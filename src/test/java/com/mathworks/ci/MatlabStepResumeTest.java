@@ -0,0 +1,82 @@
+package com.mathworks.ci;
+
+/**
+ * Copyright 2020 The MathWorks, Inc.
+ *
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.RestartableJenkinsRule;
+import hudson.Functions;
+import hudson.model.Result;
+
+public class MatlabStepResumeTest {
+
+    @Rule
+    public RestartableJenkinsRule story = new RestartableJenkinsRule();
+
+    @Before
+    public void testSetup() {
+        Assume.assumeFalse(Functions.isWindows());
+    }
+
+    /*
+     * Verify a durable step follows MATLAB again after a restart of Jenkins, continuing the output
+     * from where it left off, and removes the build specific folder once MATLAB exits.
+     */
+
+    @Test
+    public void verifyDurableStepResumes() {
+        story.then(j -> {
+            WorkflowJob project = j.createProject(WorkflowJob.class, "durable");
+            project.setDefinition(new CpsFlowDefinition(
+                    "node { testMATLABCommand(command: 'durable_pause', durable: true)}", true));
+            WorkflowRun build = project.scheduleBuild2(0).waitForStart();
+            j.waitForMessage("tester_started", build);
+        });
+        story.then(j -> {
+            WorkflowRun build = j.jenkins.getItemByFullName("durable", WorkflowJob.class)
+                    .getBuildByNumber(1);
+            j.assertBuildStatusSuccess(j.waitForCompletion(build));
+            j.assertLogContains(Message.getValue("matlab.durable.resumed"), build);
+            j.assertLogContains("pause_end", build);
+            String log = JenkinsRule.getLog(build);
+            assertEquals(log.indexOf("tester_started"), log.lastIndexOf("tester_started"));
+            assertFalse(new File(RunMatlabCommandStepTest.getTesterFolder(build)).exists());
+        });
+    }
+
+    /*
+     * Verify a withMatlabSession block fails when it is resumed after a restart of Jenkins, as
+     * its MATLAB session is gone.
+     */
+
+    @Test
+    public void verifySessionBlockFailsOnResume() {
+        story.then(j -> {
+            WorkflowJob project = j.createProject(WorkflowJob.class, "session");
+            project.setDefinition(new CpsFlowDefinition(
+                    "node { testWithMatlabSession { echo 'inside_session_block'\n sleep 60 } }",
+                    true));
+            WorkflowRun build = project.scheduleBuild2(0).waitForStart();
+            j.waitForMessage("inside_session_block", build);
+        });
+        story.then(j -> {
+            WorkflowRun build = j.jenkins.getItemByFullName("session", WorkflowJob.class)
+                    .getBuildByNumber(1);
+            j.assertBuildStatus(Result.FAILURE, j.waitForCompletion(build));
+            j.assertLogContains(Message.getValue("matlab.step.resume.not.supported"), build);
+        });
+    }
+}
@@ -0,0 +1,67 @@
+package com.mathworks.ci;
+
+/**
+ * Copyright 2020 The MathWorks, Inc.
+ *  
+ */
+
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import hudson.Functions;
+
+public class PreLaunchMatlabStepTest {
+
+    private WorkflowJob project;
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Before
+    public void testSetup() throws IOException {
+        this.project = j.createProject(WorkflowJob.class);
+    }
+
+    /*
+     * Verify the next MATLAB step of the build runs in the pre-launched session.
+     */
+
+    @Test
+    public void verifyStepRunsInPreLaunchedSession() throws Exception {
+        Assume.assumeFalse(Functions.isWindows());
+        project.setDefinition(new CpsFlowDefinition(
+                "node { testPreLaunchMATLAB()\n runMATLABCommand 'disp(1)' }", true));
+        WorkflowRun build = project.scheduleBuild2(0).get();
+        j.assertBuildStatusSuccess(build);
+        j.assertLogContains(Message.getValue("matlab.session.prelaunched"), build);
+        j.assertLogContains("session_request command_", build);
+    }
+
+    /*
+     * Verify a session pre-launched but not used by a build is shut down once the build has
+     * completed and never handed to another build.
+     */
+
+    @Test
+    public void verifyUnusedSessionNotHandedToOtherBuild() throws Exception {
+        Assume.assumeFalse(Functions.isWindows());
+        project.setDefinition(new CpsFlowDefinition("node { testPreLaunchMATLAB() }", true));
+        WorkflowRun first = project.scheduleBuild2(0).get();
+        j.assertBuildStatusSuccess(first);
+        assertFalse(MatlabSessionPool.getInstance().hasPreLaunched(first));
+
+        project.setDefinition(
+                new CpsFlowDefinition("node { testMATLABCommand(command: 'pwd') }", true));
+        WorkflowRun second = project.scheduleBuild2(0).get();
+        j.assertLogContains("tester_started", second);
+        j.assertLogNotContains(Message.getValue("matlab.session.prelaunched"), second);
+    }
+}
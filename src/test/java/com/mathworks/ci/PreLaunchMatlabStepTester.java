@@ -0,0 +1,74 @@
+package com.mathworks.ci;
+
+/**
+ * Copyright 2020 The MathWorks, Inc.
+ *
+ */
+
+import java.io.IOException;
+import java.util.Set;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import com.google.common.collect.ImmutableSet;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Launcher.ProcStarter;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+
+public class PreLaunchMatlabStepTester extends PreLaunchMatlabStep {
+
+    @DataBoundConstructor
+    public PreLaunchMatlabStepTester() {
+
+    }
+
+    @Override
+    public StepExecution start(StepContext context) throws Exception {
+        return new TestPreLaunchStepExecution(context, getGracePeriod());
+    }
+
+    /*
+     * Pre-launches a script serving the session requests in place of MATLAB.
+     */
+    private static class TestPreLaunchStepExecution extends PreLaunchMatlabStepExecution {
+
+        private static final long serialVersionUID = -7760911843402517415L;
+
+        TestPreLaunchStepExecution(StepContext context, int gracePeriod) {
+            super(context, gracePeriod);
+        }
+
+        @Override
+        public ProcStarter getProcessToRunMatlabCommand(FilePath workspace, Launcher launcher,
+                TaskListener listener, EnvVars envVars, String matlabCommand, String uniqueName)
+                throws IOException, InterruptedException {
+            String tmpDir = getNodeSpecificTmpFolderPath(workspace);
+            FilePath targetWorkspace = new FilePath(launcher.getChannel(), tmpDir);
+            final String serverScriptName = uniqueName + "/matlab_session_server_test.sh";
+            copyFileInWorkspace("matlab_session_server_test.sh", serverScriptName,
+                    targetWorkspace);
+            return launcher.launch().pwd(workspace).envs(envVars)
+                    .cmds(tmpDir + "/" + serverScriptName, matlabCommand).stdout(listener);
+        }
+    }
+
+    @Extension
+    public static class PreLaunchStepTestDescriptor extends StepDescriptor {
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return ImmutableSet.of(TaskListener.class, FilePath.class, Launcher.class,
+                    EnvVars.class, Run.class);
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "testPreLaunchMATLAB";
+        }
+    }
+}
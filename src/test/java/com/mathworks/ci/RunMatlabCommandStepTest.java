@@ -4,16 +4,31 @@ package com.mathworks.ci;
  *  
  */
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
 import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.JenkinsRule;
 import hudson.FilePath;
+import hudson.Functions;
+import hudson.model.Result;
 import hudson.slaves.DumbSlave;
+import jenkins.util.VirtualFile;
 
 public class RunMatlabCommandStepTest {
 
@@ -43,6 +58,226 @@ public class RunMatlabCommandStepTest {
         j.assertLogContains("MATLAB_ROOT", build);
     }
 
+    /*
+     * Verify the output of a durable run is copied from the agent to the build log, and the build
+     * specific folder on the agent is removed once MATLAB exits.
+     */
+
+    @Test
+    public void verifyDurableRunShowsOutput() throws Exception {
+        Assume.assumeFalse(Functions.isWindows());
+        project.setDefinition(new CpsFlowDefinition(
+                "node { testMATLABCommand(command: 'durable_pause', durable: true)}", true));
+        WorkflowRun build = project.scheduleBuild2(0).get();
+        j.assertBuildStatusSuccess(build);
+        j.assertLogContains("tester_started", build);
+        j.assertLogContains("durable_pause", build);
+        j.assertLogContains("pause_end", build);
+        assertFalse(new File(getTesterFolder(build)).exists());
+    }
+
+    /*
+     * Returns the folder the tester script ran from, as it reported in the build log.
+     */
+    static String getTesterFolder(WorkflowRun build) throws IOException {
+        Matcher matcher = Pattern.compile("tester_folder (.*)").matcher(JenkinsRule.getLog(build));
+        assertTrue(matcher.find());
+        return matcher.group(1).trim();
+    }
+
+    /*
+     * Verify the output of a time limited run is shown while it is watched.
+     */
+
+    @Test
+    public void verifyTimeLimitedRunShowsOutput() throws Exception {
+        Assume.assumeFalse(Functions.isWindows());
+        project.setDefinition(new CpsFlowDefinition(
+                "node { testMATLABCommand(command: 'watched', timeout: 5, idleTimeout: 1)}", true));
+        WorkflowRun build = project.scheduleBuild2(0).get();
+        j.assertBuildStatusSuccess(build);
+        j.assertLogContains("watched", build);
+        j.assertLogNotContains(String.format(Message.getValue("matlab.timeout.idle"), 1), build);
+    }
+
+    /*
+     * Verify MATLAB is stopped once it runs longer than the timeout, and the step fails.
+     */
+
+    @Test
+    public void verifyTimeoutStopsMatlab() throws Exception {
+        assertMatlabStopped("timeout: 1", false,
+                String.format(Message.getValue("matlab.timeout.exceeded"), 1));
+    }
+
+    /*
+     * Verify a durable MATLAB is stopped once it displays no output for longer than the idle
+     * timeout, and the step fails.
+     */
+
+    @Test
+    public void verifyIdleTimeoutStopsDurableMatlab() throws Exception {
+        assertMatlabStopped("idleTimeout: 1", true,
+                String.format(Message.getValue("matlab.timeout.idle"), 1));
+    }
+
+    /*
+     * Runs a long pause with the given limit, shortening a minute of the limits to a second, and
+     * checks the step reports the limit, fails and kills the process.
+     */
+    private void assertMatlabStopped(String limit, boolean durable, String message)
+            throws Exception {
+        Assume.assumeFalse(Functions.isWindows());
+        project.setDefinition(new CpsFlowDefinition(
+                "node { testMATLABCommand(command: 'pause_long', " + limit + ", durable: "
+                        + durable + ")}",
+                true));
+        MatlabWatchdog.minuteMillis = 1000;
+        WorkflowRun build;
+        try {
+            build = project.scheduleBuild2(0).get();
+        } finally {
+            MatlabWatchdog.minuteMillis = TimeUnit.MINUTES.toMillis(1);
+        }
+        j.assertBuildStatus(Result.FAILURE, build);
+        j.assertLogContains(message, build);
+        j.assertLogNotContains("pause_end", build);
+        FilePath pidFile = j.jenkins.getWorkspaceFor(project).child("tester.pid");
+        assertTrue(pidFile.exists());
+        assertFalse(isRunning(pidFile.readToString().trim()));
+    }
+
+    /*
+     * Returns whether the process is still running, a killed process which was not reaped yet
+     * counts as stopped.
+     */
+    private static boolean isRunning(String pid) throws IOException {
+        File stat = new File("/proc/" + pid + "/stat");
+        if (!stat.exists()) {
+            return false;
+        }
+        String state = new String(Files.readAllBytes(stat.toPath()), StandardCharsets.UTF_8);
+        return !state.substring(state.lastIndexOf(')') + 1).trim().startsWith("Z");
+    }
+
+    /*
+     * Verify the output of a noisy command is truncated to the head and the tail of the log, and
+     * the complete log is archived with the build.
+     */
+
+    @Test
+    public void verifyHeadTailLogIsTruncatedAndArchived() throws Exception {
+        Assume.assumeFalse(Functions.isWindows());
+        project.setDefinition(new CpsFlowDefinition(
+                "node { testMATLABCommand(command: 'noisy', logPolicy: 'headTail', logLimit: 1)}",
+                true));
+        WorkflowRun build = project.scheduleBuild2(0).get();
+        j.assertBuildStatusSuccess(build);
+        j.assertLogContains(String.format(Message.getValue("matlab.log.head"), 1), build);
+        j.assertLogContains("noise_end", build);
+        assertTrue(JenkinsRule.getLog(build).length() < 2 * 1024 * 1024);
+
+        VirtualFile[] archived = build.getArtifactManager().root().child("matlab-output").list();
+        assertEquals(1, archived.length);
+        assertTrue(archived[0].getName().endsWith(".log.gz"));
+    }
+
+    /*
+     * Verify a build waits for MATLAB started by another build on a node limited to one MATLAB
+     * process.
+     */
+
+    @Test
+    public void verifyNodeLimitQueuesMatlab() throws Exception {
+        MatlabNodeProperty property = new MatlabNodeProperty();
+        property.setMaxMatlabProcesses(1);
+        j.jenkins.getNodeProperties().add(property);
+        assertSecondBuildWaits("Waiting for one of the 1 MATLAB processes");
+    }
+
+    /*
+     * Verify a step naming a license pool which is not configured fails.
+     */
+
+    @Test
+    public void verifyUnknownLicensePoolFails() throws Exception {
+        project.setDefinition(new CpsFlowDefinition(
+                "node { runMATLABCommand(command: 'pwd', licensePools: 'SimulinkTest')}", true));
+        WorkflowRun build = project.scheduleBuild2(0).get();
+        j.assertLogContains(
+                String.format(Message.getValue("matlab.license.pool.unknown"), "SimulinkTest"),
+                build);
+        j.assertBuildStatus(Result.FAILURE, build);
+    }
+
+    /*
+     * Verify a token of a license pool is returned once MATLAB exits.
+     */
+
+    @Test
+    public void verifyLicenseTokenReturned() throws Exception {
+        MatlabLicensePool pool = new MatlabLicensePool("MATLAB", 1);
+        pool.setRequiredByAllBuilds(true);
+        MatlabLicensePools.get().setPools(Collections.singletonList(pool));
+        project.setDefinition(
+                new CpsFlowDefinition("node { runMATLABCommand(command: 'pwd')}", true));
+        project.scheduleBuild2(0).get();
+        WorkflowRun second = project.scheduleBuild2(0).get();
+        j.assertLogContains("MATLAB_ROOT", second);
+        j.assertLogNotContains("license pool MATLAB", second);
+    }
+
+    /*
+     * Verify a build waits for the token of a license pool held by another build.
+     */
+
+    @Test
+    public void verifyLicenseTokenQueuesMatlab() throws Exception {
+        MatlabLicensePool pool = new MatlabLicensePool("MATLAB", 1);
+        pool.setRequiredByAllBuilds(true);
+        MatlabLicensePools.get().setPools(Collections.singletonList(pool));
+        assertSecondBuildWaits(
+                String.format(Message.getValue("matlab.license.pool.wait"), "MATLAB", 1));
+        assertEquals(0, LicenseTokenSemaphore.get("MATLAB").getInUse());
+    }
+
+    /*
+     * Starts a second build while the MATLAB of a first one pauses, and checks only the second
+     * build waited with the given message before both succeeded.
+     */
+    private void assertSecondBuildWaits(String waitMessage) throws Exception {
+        project.setDefinition(new CpsFlowDefinition(
+                "node { testMATLABCommand(command: 'pause(5)')}", true));
+        WorkflowJob other = j.createProject(WorkflowJob.class);
+        other.setDefinition(new CpsFlowDefinition(
+                "node { testMATLABCommand(command: 'pause(5)')}", true));
+
+        WorkflowRun first = project.scheduleBuild2(0).waitForStart();
+        j.waitForMessage("tester_started", first);
+        WorkflowRun second = other.scheduleBuild2(0).get();
+
+        j.assertBuildStatusSuccess(j.waitForCompletion(first));
+        j.assertBuildStatusSuccess(second);
+        j.assertLogNotContains(waitMessage, first);
+        j.assertLogContains(waitMessage, second);
+    }
+
+    /*
+     * Verify a command falls back to starting MATLAB when the pre-launched MATLAB fails to start.
+     */
+
+    @Test
+    public void verifyPreLaunchFailureFallsBack() throws Exception {
+        project.setDefinition(new CpsFlowDefinition(
+                "node { preLaunchMATLAB(gracePeriod: 1)\n runMATLABCommand(command: 'pwd')}",
+                true));
+        WorkflowRun build = project.scheduleBuild2(0).get();
+        j.assertLogContains(String.format(Message.getValue("matlab.prelaunch.starting"), 1),
+                build);
+        j.assertLogNotContains(Message.getValue("matlab.session.prelaunched"), build);
+        j.assertLogContains("MATLAB_ROOT", build);
+    }
+
     /*
      * Verify MATLAB is invoked when valid MATLAB is in PATH.
      *
@@ -104,4 +339,40 @@ public class RunMatlabCommandStepTest {
         j.assertLogContains("pwd", build);
         j.assertLogContains("ver", build);
     }
+
+    /*
+     * Verify the scratch folder configured for the node is used for runner files.
+     *
+     */
+
+    @Test
+    public void verifyNodeScratchFolderUsed() throws Exception {
+        DumbSlave s = j.createOnlineSlave();
+        FilePath scratchFolder = new FilePath(j.jenkins.getRootPath(), "matlab-scratch");
+        MatlabNodeProperty property = new MatlabNodeProperty();
+        property.setScratchFolder(scratchFolder.getRemote());
+        s.getNodeProperties().add(property);
+
+        project.setDefinition(new CpsFlowDefinition(
+                "node('!master') { testMATLABCommand(command: 'pwd')}", true));
+        WorkflowRun build = project.scheduleBuild2(0).get();
+
+        j.assertBuildStatusSuccess(build);
+        j.assertLogContains(scratchFolder.getRemote(), build);
+    }
+
+    /*
+     * Verify an unknown log policy fails the step before MATLAB starts.
+     *
+     */
+
+    @Test
+    public void verifyInvalidLogPolicyFails() throws Exception {
+        project.setDefinition(new CpsFlowDefinition(
+                "node { runMATLABCommand(command: 'pwd', logPolicy: 'verbose')}", true));
+        WorkflowRun build = project.scheduleBuild2(0).get();
+
+        j.assertBuildStatus(Result.FAILURE, build);
+        j.assertLogContains(Message.getValue("matlab.log.policy.invalid"), build);
+    }
 }
@@ -26,8 +26,11 @@ public class RunMatlabCommandStepTester extends RunMatlabCommandStep {
     
     @Override
     public StepExecution start(StepContext context) throws Exception {
-        
-        return new TestStepExecution(context,this.getCommand());
+        final TestStepExecution execution = new TestStepExecution(context, this.getCommand());
+        execution.setDurable(getDurable());
+        execution.setTimeouts(getTimeout(), getIdleTimeout());
+        execution.setLogPolicy(MatlabLogPolicy.parse(getLogPolicy(), getLogLimit()));
+        return execution;
     }
     
     @Extension
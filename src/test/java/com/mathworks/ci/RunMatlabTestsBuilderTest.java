@@ -142,7 +142,7 @@ public class RunMatlabTestsBuilderTest {
         project.getBuildersList().add(this.testBuilder);
         FreeStyleBuild build = project.scheduleBuild2(0).get();
         jenkins.assertLogContains("run_matlab_command", build);
-        jenkins.assertLogContains("exit(runMatlabTests", build);
+        jenkins.assertLogContains("exit(runMatlabCiTests", build);
     }
 
     /*
@@ -157,7 +157,7 @@ public class RunMatlabTestsBuilderTest {
         project.getBuildersList().add(testBuilder);
         FreeStyleBuild build = project.scheduleBuild2(0).get();
         jenkins.assertLogContains("run_matlab_command", build);
-        jenkins.assertLogContains("exit(runMatlabTests", build);
+        jenkins.assertLogContains("exit(runMatlabCiTests", build);
     }
 
     /*
@@ -221,6 +221,83 @@ public class RunMatlabTestsBuilderTest {
         Assert.assertTrue(rel.verLessThan(10.1));
     }
 
+    /*
+     * Test to verify release information is reused across instances and minor versions compare
+     * numerically.
+     */
+
+    @Test
+    public void verifyReleaseFromRegistry() throws Exception {
+        FilePath matlabRoot = new FilePath(new File(getMatlabroot("R2018b")));
+        MatlabReleaseInfo rel = new MatlabReleaseInfo(matlabRoot);
+        MatlabReleaseInfo cachedRel = new MatlabReleaseInfo(matlabRoot);
+
+        Assert.assertEquals(rel.getRelease(), cachedRel.getRelease());
+        Assert.assertEquals(rel.getFullMatlabVersionNumber(), cachedRel.getFullMatlabVersionNumber());
+        Assert.assertTrue(rel.verLessThan(MatlabRelease.parse("9.10")));
+        assertFalse(rel.verLessThan(MatlabBuilderConstants.BASE_MATLAB_VERSION_BATCH_SUPPORT));
+    }
+
+    /*
+     * Test to verify shard index and count are passed to the test runner.
+     */
+
+    @Test
+    public void verifyShardParameters() throws Exception {
+        this.buildWrapper.setMatlabRootFolder(getMatlabroot("R2018b"));
+        project.getBuildWrappersList().add(this.buildWrapper);
+        testBuilder.setShardIndex("2");
+        testBuilder.setShardCount("4");
+        project.getBuildersList().add(this.testBuilder);
+        FreeStyleBuild build = project.scheduleBuild2(0).get();
+        jenkins.assertLogContains("'ShardIndex',2,'ShardCount',4", build);
+    }
+
+    /*
+     * Test to verify build fails for a shard index out of range.
+     */
+
+    @Test
+    public void verifyInvalidShardFailsBuild() throws Exception {
+        this.buildWrapper.setMatlabRootFolder(getMatlabroot("R2018b"));
+        project.getBuildWrappersList().add(this.buildWrapper);
+        testBuilder.setShardIndex("5");
+        testBuilder.setShardCount("4");
+        project.getBuildersList().add(this.testBuilder);
+        FreeStyleBuild build = project.scheduleBuild2(0).get();
+        jenkins.assertBuildStatus(Result.FAILURE, build);
+        jenkins.assertLogNotContains("ShardIndex", build);
+    }
+
+    /*
+     * Test to verify the worker count defaults to the number of cores of the agent.
+     */
+
+    @Test
+    public void verifyParallelDefaultWorkerCount() throws Exception {
+        this.buildWrapper.setMatlabRootFolder(getMatlabroot("R2018b"));
+        project.getBuildWrappersList().add(this.buildWrapper);
+        testBuilder.setUseParallel(true);
+        project.getBuildersList().add(this.testBuilder);
+        FreeStyleBuild build = project.scheduleBuild2(0).get();
+        jenkins.assertLogContains("'UseParallel',true,'WorkerCount',"
+                + Runtime.getRuntime().availableProcessors(), build);
+    }
+
+    /*
+     * Test to verify the number of failures after which tests are skipped is passed.
+     */
+
+    @Test
+    public void verifyFailFastParameter() throws Exception {
+        this.buildWrapper.setMatlabRootFolder(getMatlabroot("R2018b"));
+        project.getBuildWrappersList().add(this.buildWrapper);
+        testBuilder.setFailFast(1);
+        project.getBuildersList().add(this.testBuilder);
+        FreeStyleBuild build = project.scheduleBuild2(0).get();
+        jenkins.assertLogContains("'FailFast',1", build);
+    }
+
     /*
      * Test to verify appropriate test atrtifact values are passed.
      */
@@ -328,7 +405,7 @@ public class RunMatlabTestsBuilderTest {
         project.getBuildersList().add(this.testBuilder);
         FreeStyleBuild build = project.scheduleBuild2(0).get();
         jenkins.assertLogContains("run_matlab_command", build);
-        jenkins.assertLogContains("exit(runMatlabTests())", build);
+        jenkins.assertLogContains("exit(runMatlabCiTests())", build);
     }
 
     
@@ -400,7 +477,7 @@ public class RunMatlabTestsBuilderTest {
 	}
 	
 	 /*
-     * Test to verify if MATALB scratch file is generated in workspace.
+     * Test to verify the MATLAB test runner is shared on the node instead of written to the workspace.
      */
     @Test
     public void verifyMATLABscratchFileGenerated() throws Exception {
@@ -408,7 +485,11 @@ public class RunMatlabTestsBuilderTest {
         project.getBuildWrappersList().add(this.buildWrapper);
         project.getBuildersList().add(testBuilder);
         FreeStyleBuild build = project.scheduleBuild2(0).get();
-        File matlabRunner = new File(build.getWorkspace() + File.separator + "runMatlabTests.m");
-        Assert.assertTrue(matlabRunner.exists());
+        File matlabRunner = new File(build.getWorkspace() + File.separator + "runMatlabCiTests.m");
+        Assert.assertFalse(matlabRunner.exists());
+        File[] runnerFolders = new File(System.getProperty("java.io.tmpdir")).listFiles(
+                (dir, name) -> name.startsWith("matlab_ci_")
+                        && new File(dir, name + File.separator + "runMatlabCiTests.m").exists());
+        Assert.assertTrue(runnerFolders != null && runnerFolders.length > 0);
     }
 }
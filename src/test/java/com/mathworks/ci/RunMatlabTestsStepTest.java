@@ -5,14 +5,23 @@ package com.mathworks.ci;
  *  
  */
 
+import java.io.File;
 import java.io.IOException;
 import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
 import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.JenkinsRule;
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Functions;
+import hudson.Launcher;
+import hudson.Launcher.ProcStarter;
+import hudson.model.TaskListener;
 import hudson.slaves.DumbSlave;
 
 public class RunMatlabTestsStepTest {
@@ -104,7 +113,7 @@ public class RunMatlabTestsStepTest {
         project.setDefinition(new CpsFlowDefinition(
                 "node {runMATLABTests()}", true));
         WorkflowRun build = project.scheduleBuild2(0).get();
-        j.assertLogContains("runMatlabTests()", build);
+        j.assertLogContains("runMatlabCiTests()", build);
         j.assertLogNotContains("PDFReportPath", build);
         j.assertLogNotContains("TAPResultsPath", build);
         j.assertLogNotContains("JUnitResultsPath", build);
@@ -112,4 +121,371 @@ public class RunMatlabTestsStepTest {
         j.assertLogNotContains("SimulinkTestResultsPath", build);
         j.assertLogNotContains("CoberturaModelCoveragePath", build);
     }
+
+    /*
+     * Verify shard index and count are passed to the test runner.
+     */
+
+    @Test
+    public void verifyShardParameters() throws Exception {
+        project.setDefinition(new CpsFlowDefinition(
+                "node {runMATLABTests(shardIndex:'1', shardCount:'3')}", true));
+        WorkflowRun build = project.scheduleBuild2(0).get();
+        j.assertLogContains("'ShardIndex',1,'ShardCount',3", build);
+    }
+
+    /*
+     * Verify merged JUnit and TAP results and Cobertura coverage of all shards.
+     */
+
+    @Test
+    public void verifyMergeTestResults() throws Exception {
+        project.setDefinition(new CpsFlowDefinition("node {"
+                + "writeFile(file:'shard1/results.xml', text:'<testsuites><testsuite name=\"a\"/></testsuites>');"
+                + "writeFile(file:'shard2/results.xml', text:'<testsuites><testsuite name=\"b\"/></testsuites>');"
+                + "writeFile(file:'shard1/results.tap', text:'TAP version 13\\n1..1\\nok 1 - a\\n');"
+                + "writeFile(file:'shard2/results.tap', text:'TAP version 13\\n1..1\\nnot ok 1 - b\\n');"
+                + "writeFile(file:'shard1/coverage.xml', text:'<coverage><packages><package name=\"p\"><classes>"
+                + "<class name=\"f\" filename=\"f.m\"><lines><line number=\"2\" hits=\"1\"/><line number=\"3\" hits=\"0\"/></lines>"
+                + "</class></classes></package></packages></coverage>');"
+                + "writeFile(file:'shard2/coverage.xml', text:'<coverage><packages><package name=\"p\"><classes>"
+                + "<class name=\"f\" filename=\"f.m\"><lines><line number=\"2\" hits=\"4\"/></lines>"
+                + "</class></classes></package></packages></coverage>');"
+                + "mergeMATLABTestResults(testResultsJUnitFiles:'shard*/results.xml', testResultsJUnit:'merged/results.xml',"
+                + "testResultsTAPFiles:'shard*/results.tap', testResultsTAP:'merged/results.tap',"
+                + "codeCoverageCoberturaFiles:'shard*/coverage.xml', codeCoverageCobertura:'merged/coverage.xml');"
+                + "echo readFile('merged/results.xml');"
+                + "echo readFile('merged/results.tap');"
+                + "echo readFile('merged/coverage.xml')}", true));
+        WorkflowRun build = project.scheduleBuild2(0).get();
+        j.assertBuildStatusSuccess(build);
+        j.assertLogContains("<testsuite name=\"a\"", build);
+        j.assertLogContains("<testsuite name=\"b\"", build);
+        j.assertLogContains("ok 1 - a", build);
+        j.assertLogContains("not ok 2 - b", build);
+        j.assertLogContains("1..2", build);
+        j.assertLogContains("<line number=\"2\" hits=\"5\"", build);
+        j.assertLogContains("lines-covered=\"1\" lines-valid=\"2\"", build);
+    }
+
+    /*
+     * Verify merged coverage keeps lines far from the start of the file and lines listed out of
+     * order, and leaves out the branch rates of the reports.
+     */
+
+    @Test
+    public void verifyMergeCoverageOfDistantLines() throws Exception {
+        project.setDefinition(new CpsFlowDefinition("node {"
+                + "writeFile(file:'shard1/coverage.xml', text:'<coverage branch-rate=\"0.5\"><packages><package name=\"p\" branch-rate=\"0.5\"><classes>"
+                + "<class name=\"f\" filename=\"f.m\" branch-rate=\"0.5\"><lines><line number=\"100000\" hits=\"1\"/></lines>"
+                + "</class></classes></package></packages></coverage>');"
+                + "writeFile(file:'shard2/coverage.xml', text:'<coverage branch-rate=\"1\"><packages><package name=\"p\" branch-rate=\"1\"><classes>"
+                + "<class name=\"f\" filename=\"f.m\" branch-rate=\"1\"><lines><line number=\"99998\" hits=\"2\"/><line number=\"100000\" hits=\"3\"/></lines>"
+                + "</class></classes></package></packages></coverage>');"
+                + "mergeMATLABTestResults(codeCoverageCoberturaFiles:'shard*/coverage.xml', codeCoverageCobertura:'merged/coverage.xml');"
+                + "echo readFile('merged/coverage.xml')}", true));
+        WorkflowRun build = project.scheduleBuild2(0).get();
+        j.assertBuildStatusSuccess(build);
+        j.assertLogContains("<line number=\"99998\" hits=\"2\"", build);
+        j.assertLogContains("<line number=\"100000\" hits=\"4\"", build);
+        j.assertLogContains("lines-covered=\"2\" lines-valid=\"2\"", build);
+        j.assertLogNotContains("branch-rate", build);
+    }
+
+    /*
+     * Verify durations recorded from JUnit results are passed to later sharded runs.
+     */
+
+    @Test
+    public void verifyDurationsPassedToShards() throws Exception {
+        project.setDefinition(new CpsFlowDefinition("node {"
+                + "writeFile(file:'results.xml', text:'<testsuites><testsuite name=\"t\">"
+                + "<testcase classname=\"t\" name=\"a\" time=\"2.5\"/></testsuite></testsuites>');"
+                + "runMATLABTests(testResultsJUnit:'results.xml', shardIndex:'1', shardCount:'2')}",
+                true));
+        WorkflowRun firstBuild = project.scheduleBuild2(0).get();
+        j.assertLogNotContains("TestDurationsPath", firstBuild);
+
+        WorkflowRun secondBuild = project.scheduleBuild2(0).get();
+        j.assertLogContains("'TestDurationsPath'", secondBuild);
+    }
+
+    /*
+     * Verify all shards of a build split by the snapshot kept with the build, unaffected by the
+     * durations recorded by earlier shards.
+     */
+
+    @Test
+    public void verifyShardsOfBuildShareDurationsSnapshot() throws Exception {
+        project.setDefinition(new CpsFlowDefinition("node {"
+                + "writeFile(file:'results.xml', text:'<testsuites><testsuite name=\"t\">"
+                + "<testcase classname=\"t\" name=\"a\" time=\"2.5\"/></testsuite></testsuites>');"
+                + "runMATLABTests(testResultsJUnit:'results.xml', shardIndex:'1', shardCount:'2');"
+                + "runMATLABTests(testResultsJUnit:'results.xml', shardIndex:'2', shardCount:'2')}",
+                true));
+        WorkflowRun build = project.scheduleBuild2(0).get();
+        j.assertLogNotContains("TestDurationsPath", build);
+        Assert.assertTrue(
+                new File(build.getRootDir(), "matlabTestDurationsSnapshot.txt").exists());
+    }
+
+    /*
+     * Verify parallel options are passed to the test runner.
+     */
+
+    @Test
+    public void verifyParallelParameters() throws Exception {
+        project.setDefinition(new CpsFlowDefinition(
+                "node {runMATLABTests(useParallel: true, workerCount: 4)}", true));
+        WorkflowRun build = project.scheduleBuild2(0).get();
+        j.assertLogContains("'UseParallel',true,'WorkerCount',4", build);
+    }
+
+    /*
+     * Verify all tests run and dependencies are recorded when there is no index of test
+     * dependencies yet.
+     */
+
+    @Test
+    public void verifyFullRunWithoutDependencyIndex() throws Exception {
+        project.setDefinition(new CpsFlowDefinition(
+                "node {runMATLABTests(selectAffectedTests: true)}", true));
+        WorkflowRun build = project.scheduleBuild2(0).get();
+        j.assertLogContains(Message.getValue("matlab.tests.selection.full.no.index"), build);
+        j.assertLogContains("'DependencyIndexPath'", build);
+        j.assertLogNotContains("TestFilesListPath", build);
+    }
+
+    /*
+     * Verify the test runner writes test events and the build shows the progress of the tests.
+     */
+
+    @Test
+    public void verifyProgressIsReported() throws Exception {
+        project.setDefinition(new CpsFlowDefinition(
+                "node {runMATLABTests(reportProgress: true)}", true));
+        WorkflowRun build = project.scheduleBuild2(0).get();
+        j.assertLogContains("'TestEventsPath'", build);
+        Assert.assertNotNull(build.getAction(MatlabTestProgressAction.class));
+    }
+
+    /*
+     * Verify the events written by MATLAB and by its parallel workers are pushed to the progress
+     * of the build, and a line still being written is not.
+     */
+
+    @Test
+    public void verifyWorkerEventsAreFollowed() throws Exception {
+        project.setDefinition(new CpsFlowDefinition("echo 'events'", true));
+        WorkflowRun build = project.scheduleBuild2(0).get();
+        FilePath folder = new FilePath(build.getRootDir()).child("events");
+
+        TestEventStream events = TestEventStream.follow(build, folder);
+        folder.child(TestEventStream.EVENTS_FILE).write(
+                "{\"event\":\"suiteStarted\",\"count\":2}\n", "UTF-8");
+        folder.child("testEvents-1.ndjson").write(
+                "{\"event\":\"testFinished\",\"name\":\"a/t1\",\"status\":\"passed\"}\n"
+                        + "{\"event\":\"testFinished\",\"name\":\"a/t2\",\"status\":\"failed\"}\n",
+                "UTF-8");
+        folder.child("testEvents-2.ndjson").write(
+                "{\"event\":\"testFinished\",\"name\":\"b/t1\",\"status\":\"passed\"}\n"
+                        + "{\"event\":\"testFini",
+                "UTF-8");
+        events.close();
+
+        MatlabTestProgressAction progress = build.getAction(MatlabTestProgressAction.class);
+        Assert.assertEquals(2, progress.getTotal());
+        Assert.assertEquals(2, progress.getPassed());
+        Assert.assertEquals(1, progress.getFailed());
+        Assert.assertFalse(progress.isRunning());
+    }
+
+    /*
+     * Verify the number of failures after which tests are skipped is passed to the test runner.
+     */
+
+    @Test
+    public void verifyFailFastParameter() throws Exception {
+        project.setDefinition(new CpsFlowDefinition(
+                "node {runMATLABTests(failFast: 3)}", true));
+        WorkflowRun build = project.scheduleBuild2(0).get();
+        j.assertLogContains("'FailFast',3", build);
+    }
+
+    /*
+     * Verify the tests after the given number of failed tests are skipped. Needs MATLAB on the
+     * PATH.
+     */
+
+    @Test
+    public void verifyFailFastSkipsRemainingTests() throws Exception {
+        Assume.assumeTrue(isMatlabOnPath());
+        FilePath workspace = j.jenkins.getWorkspaceFor(project);
+        workspace.child("FailFastTest.m").write("classdef FailFastTest < matlab.unittest.TestCase\n"
+                + "    methods (Test)\n"
+                + "        function testA(testCase)\n"
+                + "            testCase.verifyFail('first failure');\n"
+                + "        end\n"
+                + "        function testB(testCase)\n"
+                + "            disp('testB_ran');\n"
+                + "        end\n"
+                + "        function testC(testCase)\n"
+                + "            disp('testC_ran');\n"
+                + "        end\n"
+                + "    end\n"
+                + "end\n", "UTF-8");
+        project.setDefinition(new CpsFlowDefinition(
+                "node {runMATLABTests(failFast: 1)}", true));
+        WorkflowRun build = project.scheduleBuild2(0).get();
+        j.assertLogContains("first failure", build);
+        j.assertLogContains("Skipping the remaining tests after 1 failed tests.", build);
+        j.assertLogNotContains("testB_ran", build);
+        j.assertLogNotContains("testC_ran", build);
+    }
+
+    private static boolean isMatlabOnPath() {
+        final String path = System.getenv("PATH");
+        if (path == null) {
+            return false;
+        }
+        for (String folder : path.split(File.pathSeparator)) {
+            if (new File(folder, Functions.isWindows() ? "matlab.exe" : "matlab").isFile()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Verify the number of retries of failed tests is passed to the test runner.
+     */
+
+    @Test
+    public void verifyRetryFailedParameter() throws Exception {
+        project.setDefinition(new CpsFlowDefinition(
+                "node {runMATLABTests(retryFailed: 2)}", true));
+        WorkflowRun build = project.scheduleBuild2(0).get();
+        j.assertLogContains("'RetryFailed',2,'RetryResultsFolder'", build);
+    }
+
+    /*
+     * Verify published results are written to a JUnit report even if none is requested.
+     */
+
+    @Test
+    public void verifyPublishTestResultsWritesJUnitReport() throws Exception {
+        project.setDefinition(new CpsFlowDefinition(
+                "node {runMATLABTests(publishTestResults: true)}", true));
+        WorkflowRun build = project.scheduleBuild2(0).get();
+        j.assertLogContains("'JUnitResultsPath'", build);
+        j.assertLogContains("testResults.xml", build);
+    }
+
+    /*
+     * Verify test results are streamed for the agent only when a report is requested.
+     */
+
+    @Test
+    public void verifyConvertResultsOnAgentParameter() throws Exception {
+        project.setDefinition(new CpsFlowDefinition(
+                "node {runMATLABTests(testResultsTAP: 'results.tap', convertResultsOnAgent: true)}",
+                true));
+        WorkflowRun build = project.scheduleBuild2(0).get();
+        j.assertLogContains("'TAPResultsPath','results.tap'", build);
+        j.assertLogContains("'ResultsStreamPath'", build);
+
+        project.setDefinition(new CpsFlowDefinition(
+                "node {runMATLABTests(convertResultsOnAgent: true)}", true));
+        build = project.scheduleBuild2(0).get();
+        j.assertLogNotContains("ResultsStreamPath", build);
+    }
+
+    /*
+     * Verify the test results are saved for the deferred PDF report only when a report is
+     * requested.
+     */
+
+    @Test
+    public void verifyDeferPdfReportParameter() throws Exception {
+        project.setDefinition(new CpsFlowDefinition(
+                "node {runMATLABTests(testResultsPDF: 'report.pdf', deferPdfReport: true)}", true));
+        WorkflowRun build = project.scheduleBuild2(0).get();
+        j.assertLogContains("'PDFReportPath','report.pdf'", build);
+        j.assertLogContains("'DeferredPDFResultsPath'", build);
+
+        project.setDefinition(new CpsFlowDefinition(
+                "node {runMATLABTests(deferPdfReport: true)}", true));
+        build = project.scheduleBuild2(0).get();
+        j.assertLogNotContains("DeferredPDFResultsPath", build);
+    }
+
+    /*
+     * Verify a deferred report is rendered after its build has completed, by a process with a
+     * cookie of its own.
+     */
+
+    @Test
+    public void verifyDeferredReportIsRendered() throws Exception {
+        Assume.assumeFalse(Functions.isWindows());
+        project.setDefinition(new CpsFlowDefinition("echo 'report'", true));
+        WorkflowRun build = project.scheduleBuild2(0).get();
+        FilePath reportFolder =
+                DeferredTestReport.getFolder(j.jenkins.getRootPath().child("matlab-report-run"));
+        DeferredTestReport.getInputArgs(reportFolder);
+        reportFolder.child("testResults.mat").write("results", "UTF-8");
+
+        // Writes the process cookie into the rendered report in place of MATLAB.
+        MatlabBuild renderer = new MatlabBuild() {
+            @Override
+            public ProcStarter getProcessToRunMatlabCommand(FilePath workspace, Launcher launcher,
+                    TaskListener listener, EnvVars envVars, String matlabCommand,
+                    String uniqueName) {
+                return launcher.launch().envs(envVars)
+                        .cmds("sh", "-c", "echo $JENKINS_NODE_COOKIE > testReport.pdf")
+                        .stdout(listener);
+            }
+        };
+        DeferredTestReport.schedule(build, renderer,
+                new EnvVars("JENKINS_NODE_COOKIE", "build-cookie"), reportFolder,
+                TaskListener.NULL);
+
+        MatlabTestReportAction action = build.getAction(MatlabTestReportAction.class);
+        long deadline = System.currentTimeMillis() + 30000;
+        while (action.isPending() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        Assert.assertEquals(MatlabTestReportAction.Status.RENDERED, action.getStatus());
+        String cookie = new FilePath(new File(build.getRootDir(), DeferredTestReport.REPORT_FILE))
+                .readToString();
+        Assert.assertTrue(cookie.startsWith("matlab-test-report-"));
+        Assert.assertFalse(reportFolder.exists());
+    }
+
+    /*
+     * Verify the folders to discover tests in are passed to the test runner as cell arrays.
+     */
+
+    @Test
+    public void verifyFolderParameters() throws Exception {
+        project.setDefinition(new CpsFlowDefinition(
+                "node {runMATLABTests(sourceFolder: 'src', selectByFolder: 'tests/unit; tests/system', excludeFolders: 'tests/*/data')}",
+                true));
+        WorkflowRun build = project.scheduleBuild2(0).get();
+        j.assertLogContains("'SourceFolder',{'src'}", build);
+        j.assertLogContains("'SelectByFolder',{'tests/unit','tests/system'}", build);
+        j.assertLogContains("'ExcludeFolders',{'tests/*/data'}", build);
+    }
+
+    /*
+     * Verify the code coverage folders are passed to the test runner only with a coverage report.
+     */
+
+    @Test
+    public void verifyCoverageFolderParameters() throws Exception {
+        project.setDefinition(new CpsFlowDefinition(
+                "node {runMATLABTests(codeCoverageCobertura: 'coverage.xml', coverageSourceFolder: 'src', coverageExcludeFolders: 'src/generated')}",
+                true));
+        WorkflowRun build = project.scheduleBuild2(0).get();
+        j.assertLogContains("'CoverageSourceFolder',{'src'},'CoverageExcludeFolders',{'src/generated'}", build);
+    }
 }
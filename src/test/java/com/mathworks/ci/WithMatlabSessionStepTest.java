@@ -0,0 +1,117 @@
+package com.mathworks.ci;
+
+/**
+ * Copyright 2020 The MathWorks, Inc.
+ *  
+ */
+
+import java.io.IOException;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import hudson.Functions;
+import hudson.model.Result;
+
+public class WithMatlabSessionStepTest {
+
+    private WorkflowJob project;
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Before
+    public void testSetup() throws IOException {
+        this.project = j.createProject(WorkflowJob.class);
+    }
+
+    /*
+     * Verify the block is not run when MATLAB session cannot be started.
+     */
+
+    @Test
+    public void verifyBlockNotRunWhenMATLABPathNotSet() throws Exception {
+        project.setDefinition(new CpsFlowDefinition(
+                "node { withMatlabSession { echo 'inside_session_block' } }", true));
+        WorkflowRun build = project.scheduleBuild2(0).get();
+        j.assertBuildStatus(Result.FAILURE, build);
+        j.assertLogContains("Unable to start MATLAB session.", build);
+        j.assertLogNotContains("inside_session_block", build);
+    }
+
+    /*
+     * Verify the step needs to run inside a node.
+     */
+
+    @Test
+    public void verifyStepRequiresNode() throws Exception {
+        project.setDefinition(new CpsFlowDefinition(
+                "withMatlabSession { echo 'inside_session_block' }", true));
+        WorkflowRun build = project.scheduleBuild2(0).get();
+        j.assertBuildStatus(Result.FAILURE, build);
+        j.assertLogNotContains("inside_session_block", build);
+    }
+
+    /*
+     * Verify nested steps run in the session of the block instead of starting MATLAB.
+     */
+
+    @Test
+    public void verifyNestedStepsRunInSession() throws Exception {
+        Assume.assumeFalse(Functions.isWindows());
+        project.setDefinition(new CpsFlowDefinition(
+                "node { testWithMatlabSession { runMATLABCommand 'disp(1)'\n"
+                        + "runMATLABCommand 'disp(2)' } }",
+                true));
+        WorkflowRun build = project.scheduleBuild2(0).get();
+        j.assertBuildStatusSuccess(build);
+        j.assertLogContains(Message.getValue("matlab.session.block.starting"), build);
+        j.assertLogContains("session_request command_", build);
+    }
+
+    /*
+     * Verify nested steps see the environment variables of enclosing withEnv blocks.
+     */
+
+    @Test
+    public void verifyNestedStepsSeeTheirEnvironment() throws Exception {
+        Assume.assumeFalse(Functions.isWindows());
+        project.setDefinition(new CpsFlowDefinition(
+                "node { testWithMatlabSession { runMATLABCommand 'disp(1)'\n"
+                        + "withEnv(['SESSION_TEST_VARIABLE=nested']) {"
+                        + "runMATLABCommand 'disp(2)' } } }",
+                true));
+        WorkflowRun build = project.scheduleBuild2(0).get();
+        j.assertBuildStatusSuccess(build);
+        j.assertLogContains("SESSION_TEST_VARIABLE=nested", build);
+        // Only the step inside withEnv sees the variable.
+        String log = JenkinsRule.getLog(build);
+        Assert.assertTrue(log.indexOf("SESSION_TEST_VARIABLE=nested")
+                > log.indexOf("Generating MATLAB script with content:\ndisp(2)"));
+    }
+
+    /*
+     * Verify a nested step needing a MATLAB process of its own fails instead of waiting for the
+     * only MATLAB process the node admits, which the session of the block holds.
+     */
+
+    @Test
+    public void verifyNestedOwnProcessFailsWhenSessionHoldsNode() throws Exception {
+        Assume.assumeFalse(Functions.isWindows());
+        MatlabNodeProperty property = new MatlabNodeProperty();
+        property.setMaxMatlabProcesses(1);
+        j.jenkins.getNodeProperties().add(property);
+        project.setDefinition(new CpsFlowDefinition(
+                "node { testWithMatlabSession {\n"
+                        + "runMATLABCommand(command: 'disp(1)', timeout: 60) } }",
+                true));
+        WorkflowRun build = project.scheduleBuild2(0).get();
+        j.assertBuildStatus(Result.FAILURE, build);
+        j.assertLogContains(Message.getValue("matlab.session.block.no.admission"), build);
+    }
+}
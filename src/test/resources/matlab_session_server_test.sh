@@ -0,0 +1,25 @@
+#!/bin/bash
+
+#Copyright 2020 The MathWorks, Inc.
+
+# Serves the requests of a MATLAB session like matlabSessionServer.m, echoing
+# each statement and the SESSION_TEST_ variables of its environment instead of
+# running it. The session folder is the first argument of the
+# matlabSessionServer call passed in $1.
+
+folder=$(echo "$1" | sed -e "s/^[^']*'\([^']*\)'.*$/\1/")
+touch "$folder/ready"
+while [ ! -f "$folder/shutdown" ]; do
+    if [ -f "$folder/request.txt" ]; then
+        statement=$(sed -n 2p "$folder/request.txt")
+        rm "$folder/request.txt"
+        echo "session_request $statement" > "$folder/output.log"
+        if [ -f "$folder/environment.txt" ]; then
+            tr '\0' '\n' < "$folder/environment.txt" | grep '^SESSION_TEST_' >> "$folder/output.log"
+            rm "$folder/environment.txt"
+        fi
+        echo 0 > "$folder/exitcode.txt.tmp"
+        mv "$folder/exitcode.txt.tmp" "$folder/exitcode.txt"
+    fi
+    sleep 0.1
+done
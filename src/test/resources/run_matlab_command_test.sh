@@ -4,3 +4,13 @@
 
 echo "tester_started"
 echo $1 
+echo "tester_folder $(cd "$(dirname "$0")" && pwd)"
+
+# Keep running for commands which pause MATLAB, so that tests can run builds side by side,
+# and write a lot of output for noisy commands. Long pauses leave their process id in the
+# workspace, so that tests can check the process was stopped.
+case "$1" in
+    *pause_long*) echo $$ > tester.pid; sleep 60; echo "pause_end" ;;
+    *pause*) sleep 5; echo "pause_end" ;;
+    *noisy*) yes matlab_noise | head -c 3000000; echo; echo "noise_end" ;;
+esac